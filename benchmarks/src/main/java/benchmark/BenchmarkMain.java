@@ -0,0 +1,45 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 依次以 1 到 256 个并发线程运行压测.
+ *
+ * <p>每一档同时报告吞吐量、p50/p99 延迟（SampleTime 模式的分位数）和 GC 分配速率（gc.alloc.rate.norm），
+ * 结果写到 {@code jmh-result-<threads>.json}。命令行参数按 JMH 的格式解析，可以用来过滤基准或覆盖迭代次数，
+ * 例如 {@code java -jar benchmarks.jar HttpInvokerBenchmark.pooledGet -p bodySize=128}。
+ * {@link VirtualThreadBenchmark} 自己控制并发，不参与这里的轮次。
+ *
+ * @author bjca
+ */
+public class BenchmarkMain {
+    private static final int[] THREADS = {1, 4, 16, 64, 256};
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .exclude(VirtualThreadBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .mode(Mode.Throughput)
+                    .mode(Mode.SampleTime)
+                    .timeUnit(TimeUnit.MICROSECONDS)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-" + threads + ".json")
+                    .build())
+                    .run();
+        }
+    }
+}
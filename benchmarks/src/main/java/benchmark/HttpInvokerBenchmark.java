@@ -0,0 +1,67 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import raw.HttpUtils;
+import util.HttpInvoker;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比池化、非池化 {@link HttpInvoker} 与 {@link HttpUtils} 的GET性能.
+ *
+ * @author bjca
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class HttpInvokerBenchmark {
+    /**
+     * 响应报文体字节数：小报文与大报文.
+     */
+    @Param({"128", "262144"})
+    public int bodySize;
+
+    private StubHttpServer server;
+    private String url;
+    private HttpInvoker pooled;
+    private HttpInvoker nonPooled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubHttpServer();
+        url = server.bodyUrl(bodySize);
+        pooled = new HttpInvoker(true);
+        nonPooled = new HttpInvoker(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public String pooledGet() {
+        return pooled.get(url, null, null);
+    }
+
+    @Benchmark
+    public String nonPooledGet() {
+        return nonPooled.get(url, null, null);
+    }
+
+    @Benchmark
+    public String rawGet() {
+        return HttpUtils.excuteGet(url, null, null, "UTF-8");
+    }
+}
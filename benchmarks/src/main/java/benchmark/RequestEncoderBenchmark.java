@@ -0,0 +1,84 @@
+package benchmark;
+
+import org.apache.http.Consts;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.RequestEncoder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比原来的 NameValuePair/UrlEncodedFormEntity 编码方式与 {@link RequestEncoder} 的开销，
+ * 配合 {@link BenchmarkMain} 的 GC 分析器看每次调用的分配字节数（gc.alloc.rate.norm）.
+ *
+ * @author bjca
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class RequestEncoderBenchmark {
+    private static final String URL = "http://127.0.0.1:9002/say";
+
+    /**
+     * 参数个数.
+     */
+    @Param({"4", "32"})
+    public int paramCount;
+
+    private Map<String, String> params;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        params = new LinkedHashMap<>();
+        for (int i = 0; i < paramCount; i++) {
+            params.put("key" + i, i % 2 == 0 ? "value " + i + "&x=y" : "中文参数" + i);
+        }
+    }
+
+    @Benchmark
+    public URI legacyQuery() throws IOException {
+        List<NameValuePair> pairs = new ArrayList<>(params.size());
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            pairs.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+        }
+        String query = EntityUtils.toString(new UrlEncodedFormEntity(pairs, Consts.UTF_8));
+        return URI.create(URL + "?" + query);
+    }
+
+    @Benchmark
+    public URI encoderQuery() {
+        return URI.create(RequestEncoder.appendQuery(URL, params, Consts.UTF_8));
+    }
+
+    @Benchmark
+    public String legacyForm() {
+        String paramStr = "";
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            paramStr += "&" + entry.getKey() + "=" + entry.getValue();
+        }
+        return paramStr.substring(1);
+    }
+
+    @Benchmark
+    public Object encoderForm() {
+        return RequestEncoder.formEntity(params, Consts.UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+package benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测用的进程内HTTP服务，按路径返回固定长度的报文体.
+ *
+ * <p>{@code /body/<bytes>} 返回指定字节数的报文体，{@code /echo} 原样返回请求体，
+ * {@code /delay/<millis>} 等待指定毫秒后返回，模拟慢的下游。
+ *
+ * @author bjca
+ */
+public class StubHttpServer implements AutoCloseable {
+    static {
+        // 否则服务端分两次写出响应头和报文体时会撞上 Nagle 与延迟确认，每次请求多出约 40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        // 默认只保留200个空闲连接，多出的被服务端关闭，客户端复用时会撞上 NoHttpResponseException
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "2048");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-http-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StubHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/body/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = body(Integer.parseInt(path.substring("/body/".length())));
+            readAll(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/echo", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/delay/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            readAll(exchange.getRequestBody());
+            try {
+                TimeUnit.MILLISECONDS.sleep(Long.parseLong(path.substring("/delay/".length())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = body(128);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * 返回指定长度报文体的地址.
+     *
+     * @param bytes 报文体字节数
+     * @return url
+     */
+    public String bodyUrl(int bytes) {
+        return baseUrl() + "/body/" + bytes;
+    }
+
+    /**
+     * 返回等待指定毫秒后才响应的地址.
+     *
+     * @param millis 响应前等待的毫秒数
+     * @return url
+     */
+    public String delayUrl(long millis) {
+        return baseUrl() + "/delay/" + millis;
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static byte[] body(int bytes) {
+        byte[] body = new byte[bytes];
+        Arrays.fill(body, (byte) 'x');
+        return body;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = input.read(buffer)) != -1; ) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import util.ClientProfile;
+import util.ClientRegistry;
+import util.HttpInvoker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比固定大小的平台线程池与虚拟线程执行大量并发的慢调用.
+ *
+ * <p>每次操作同时发起 {@link #callers} 个调用并等待全部完成，下游每次响应前等待 {@link #DELAY_MILLIS} 毫秒。
+ * 两种方式的连接上限相同，平台线程池的并发受线程数限制，虚拟线程的并发只受连接上限限制。
+ * 需要在 Java 21 上运行，且不参与 {@link BenchmarkMain} 的多线程轮次，
+ * 例如 {@code java -cp benchmarks.jar org.openjdk.jmh.Main VirtualThreadBenchmark}。
+ *
+ * @author bjca
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class VirtualThreadBenchmark {
+    private static final long DELAY_MILLIS = 20;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int MAX_CONNECTIONS = 1000;
+
+    /**
+     * 每次操作同时发起的调用数.
+     */
+    @Param({"1000", "10000"})
+    public int callers;
+
+    private StubHttpServer server;
+    private String url;
+    private ExecutorService platformThreads;
+    private HttpInvoker platform;
+    private HttpInvoker virtual;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubHttpServer();
+        url = server.delayUrl(DELAY_MILLIS);
+        platformThreads = Executors.newFixedThreadPool(PLATFORM_THREADS);
+
+        ClientRegistry.getDefault().registerIfAbsent(profile("platform").build());
+        ClientRegistry.getDefault().registerIfAbsent(profile("virtual").virtualThreads(true).build());
+        platform = new HttpInvoker("platform");
+        virtual = new HttpInvoker("virtual");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        platformThreads.shutdownNow();
+        server.close();
+    }
+
+    @Benchmark
+    public int platformThreadPool() {
+        List<CompletableFuture<String>> futures = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> platform.get(url, null, null), platformThreads));
+        }
+        return join(futures);
+    }
+
+    @Benchmark
+    public int virtualThreads() {
+        List<CompletableFuture<String>> futures = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            futures.add(virtual.getAsync(url, null, null));
+        }
+        return join(futures);
+    }
+
+    private static ClientProfile.ClientProfileBuilder profile(String name) {
+        // 排在后面的调用要等前面的几轮完成，上千个连接同时建立时服务端也来不及按默认超时响应
+        return ClientProfile.builder().name(name)
+                .maxTotal(MAX_CONNECTIONS)
+                .defaultMaxPerRoute(MAX_CONNECTIONS)
+                .connectionRequestTimeoutMillis(60_000)
+                .soTimeoutMillis(10_000);
+    }
+
+    private static int join(List<CompletableFuture<String>> futures) {
+        int bytes = 0;
+        for (CompletableFuture<String> future : futures) {
+            bytes += future.join().length();
+        }
+        return bytes;
+    }
+}
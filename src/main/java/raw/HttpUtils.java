@@ -1,22 +1,19 @@
 package raw;
 
+import java.io.InputStream;
 import java.net.URI;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import util.RequestEncoder;
 
 public class HttpUtils {
 
@@ -27,21 +24,9 @@ public class HttpUtils {
       Map<String, String> headMap, String encoding) {
     HttpGet httpGet = new HttpGet(url);
 
-    List<NameValuePair> params = null;
     if (paramMap != null && !paramMap.isEmpty()) {
-      params = new ArrayList<NameValuePair>();
-      Set<String> set = paramMap.keySet();
-      Iterator<String> it = set.iterator();
-      while (it.hasNext()) {
-        Object key = it.next();
-        Object value = paramMap.get(key);
-        NameValuePair nameValuePair = new BasicNameValuePair(key.toString(), value.toString());
-        params.add(nameValuePair);
-      }
-      String str;
       try {
-        str = EntityUtils.toString(new UrlEncodedFormEntity(params, encoding), encoding);
-        httpGet.setURI(new URI(httpGet.getURI().toString() + "?" + str));
+        httpGet.setURI(URI.create(RequestEncoder.appendQuery(url, paramMap, Charset.forName(encoding))));
       } catch (Exception e) {
         log.error("get请求 参数设置异常", e);
         throw new RuntimeException("get请求 参数设置异常", e);
@@ -76,6 +61,33 @@ public class HttpUtils {
     return resultStr;
   }
 
+  /**
+   * 与 {@link #excuteGet(String, Map, Map, String)} 相同，响应报文体超过 maxBodySize 字节时失败，不会读入内存
+   *
+   * @param maxBodySize 报文体最大字节数，小于0表示不限制
+   */
+  public static String excuteGet(String url, Map<String, String> paramMap,
+      Map<String, String> headMap, String encoding, long maxBodySize) {
+    return HttpClientFactory.getInvoker().withMaxBodySize(maxBodySize)
+        .get(queryUrl(url, paramMap, encoding), null, headMap);
+  }
+
+  /**
+   * 以流的方式执行GET请求，报文体不读入内存
+   *
+   * <p>调用方必须关闭返回的流；读到末尾时连接归还连接池，提前关闭则断开连接。
+   *
+   * @return 响应报文体输入流
+   */
+  public static InputStream excuteGetStream(String url, Map<String, String> paramMap,
+      Map<String, String> headMap, String encoding) {
+    return HttpClientFactory.getInvoker().getStream(queryUrl(url, paramMap, encoding), null, headMap);
+  }
+
+  private static String queryUrl(String url, Map<String, String> paramMap, String encoding) {
+    return RequestEncoder.appendQuery(url, paramMap, Charset.forName(encoding));
+  }
+
   public static String sendPost(String url, String jsonContent) {
     HttpPost post = new HttpPost(url);
     post.setEntity(new StringEntity(jsonContent, ContentType.APPLICATION_JSON));
@@ -95,31 +107,27 @@ public class HttpUtils {
     return resultStr;
   }
 
+  /**
+   * 与 {@link #sendPost(String, String)} 相同，响应报文体超过 maxBodySize 字节时失败，不会读入内存
+   *
+   * @param maxBodySize 报文体最大字节数，小于0表示不限制
+   */
+  public static String sendPost(String url, String jsonContent, long maxBodySize) {
+    return HttpClientFactory.getInvoker().withMaxBodySize(maxBodySize).postJSON(url, jsonContent);
+  }
+
   public static String excutePostForm(String url, Map<String, String> paramMap,
       Map<String, String> headMap, String encoding) {
     HttpPost post = new HttpPost(url);
 
     //参数处理
     if (paramMap != null && !paramMap.isEmpty()) {
-      String paramStr = "";
-      Set<String> set = paramMap.keySet();
-      Iterator<String> it = set.iterator();
-      while (it.hasNext()) {
-        Object key = it.next();
-        Object value = paramMap.get(key);
-        paramStr += "&" + key + "=" + value;
-      }
-      // 构造最简单的字符串数据
-      StringEntity reqEntity = null;
       try {
-        reqEntity = new StringEntity(paramStr.substring(1), encoding);
+        post.setEntity(RequestEncoder.formEntity(paramMap, Charset.forName(encoding)));
       } catch (Exception e) {
         log.warn("构造参数出错了！", e);
         return "";
       }
-      // 设置类型
-      reqEntity.setContentType("application/x-www-form-urlencoded");
-      post.setEntity(reqEntity);
     } else {
       log.warn("paramMap is null");
       return "";
@@ -150,6 +158,21 @@ public class HttpUtils {
     return resultStr;
   }
 
+  /**
+   * 与 {@link #excutePostForm(String, Map, Map, String)} 相同，响应报文体超过 maxBodySize 字节时失败，不会读入内存
+   *
+   * @param maxBodySize 报文体最大字节数，小于0表示不限制
+   */
+  public static String excutePostForm(String url, Map<String, String> paramMap,
+      Map<String, String> headMap, String encoding, long maxBodySize) {
+    if (paramMap == null || paramMap.isEmpty()) {
+      log.warn("paramMap is null");
+      return "";
+    }
+    return HttpClientFactory.getInvoker().withMaxBodySize(maxBodySize)
+        .postForm(url, paramMap, headMap, Charset.forName(encoding));
+  }
+
 
 
 }
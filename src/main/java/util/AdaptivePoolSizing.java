@@ -0,0 +1,54 @@
+package util;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * 按路由自适应调整连接上限的参数.
+ *
+ * <p>每个周期检查一次各路由：等待借用连接的时间超过阈值（或出现排队、借用超时）且连接基本用满时，
+ * 上限增加 {@link #step}；使用率低于 {@link #lowUtilization} 且无人排队时，上限减少 {@link #step}。
+ * 上限始终保持在 [{@link #minPerRoute}, {@link #maxPerRoute}] 之内，所有路由之和仍受连接池总数限制；
+ * 匹配 {@link ClientProfile#getRouteLimits()} 规则的路由以规则的值为上限，规则的值小于 {@link #minPerRoute} 时不再缩小。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class AdaptivePoolSizing {
+    /**
+     * 单个路由的最小连接上限.
+     */
+    @Builder.Default
+    int minPerRoute = 2;
+    /**
+     * 单个路由的最大连接上限.
+     */
+    @Builder.Default
+    int maxPerRoute = 100;
+    /**
+     * 每次调整的连接数.
+     */
+    @Builder.Default
+    int step = 2;
+    /**
+     * 平均借用等待超过该值时视为连接不足.
+     */
+    @Builder.Default
+    long leaseWaitThresholdMillis = 5;
+    /**
+     * 借出连接占上限的比例高于该值时允许扩容.
+     */
+    @Builder.Default
+    double highUtilization = 0.8;
+    /**
+     * 借出连接占上限的比例低于该值时缩容.
+     */
+    @Builder.Default
+    double lowUtilization = 0.3;
+    /**
+     * 调整周期.
+     */
+    @Builder.Default
+    long intervalMillis = 1_000;
+}
@@ -0,0 +1,196 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 一次批量执行：按输入顺序发起请求，同时进行的请求数不超过批量上限与各路由的连接上限.
+ *
+ * @author bjca
+ */
+@Slf4j
+class BatchExecution {
+    private final List<Request> requests;
+    private final BatchOptions options;
+    private final Function<Request, CompletableFuture<String>> launcher;
+    private final ManagedClient client;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedList<Integer> pending = new LinkedList<>();
+    private final Map<String, Integer> routeInflight = new HashMap<>();
+    private final Map<String, Integer> routeLimits = new HashMap<>();
+    private final String[] routes;
+    private final AtomicReferenceArray<CompletableFuture<String>> inflight;
+    private final BatchResult[] results;
+    private final CompletableFuture<List<BatchResult>> done = new CompletableFuture<>();
+    private int running;
+    private int remaining;
+    private volatile boolean expired;
+
+    BatchExecution(List<Request> requests, BatchOptions options,
+                   Function<Request, CompletableFuture<String>> launcher, ManagedClient client) {
+        this.requests = requests;
+        this.options = options;
+        this.launcher = launcher;
+        this.client = client;
+        this.routes = new String[requests.size()];
+        this.inflight = new AtomicReferenceArray<>(requests.size());
+        this.results = new BatchResult[requests.size()];
+        this.remaining = requests.size();
+    }
+
+    CompletableFuture<List<BatchResult>> start() {
+        if (requests.isEmpty()) {
+            done.complete(new ArrayList<>());
+            return done;
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                val uri = URI.create(requests.get(i).getUrl());
+                val route = Routes.of(uri);
+                if (!routeLimits.containsKey(route)) {
+                    routeLimits.put(route, client.getRouteLimit(uri));
+                }
+                routes[i] = route;
+                pending.add(i);
+            } catch (RuntimeException e) {
+                // 地址无法解析只让这一项失败
+                complete(i, null, e);
+            }
+        }
+
+        if (options.getTimeoutMillis() > 0 && !done.isDone()) {
+            try {
+                val expiry = client.schedule(this::expire, options.getTimeoutMillis());
+                done.whenComplete((results, e) -> expiry.cancel(false));
+            } catch (RejectedExecutionException e) {
+                log.warn("batch deadline not scheduled, client is closing");
+            }
+        }
+
+        dispatch();
+        return done;
+    }
+
+    /**
+     * 在锁内挑出可以发起的请求，在锁外发起，回调可能同步执行并重入.
+     */
+    private void dispatch() {
+        val launch = new ArrayList<Integer>();
+        lock.lock();
+        try {
+            for (Iterator<Integer> it = pending.iterator(); it.hasNext() && running < options.getMaxConcurrency(); ) {
+                val index = it.next();
+                val route = routes[index];
+                val routeRunning = routeInflight.getOrDefault(route, 0);
+                if (routeRunning < routeLimits.get(route)) {
+                    it.remove();
+                    routeInflight.put(route, routeRunning + 1);
+                    running++;
+                    launch.add(index);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (val index : launch) {
+            launch(index);
+        }
+    }
+
+    private void launch(int index) {
+        CompletableFuture<String> future;
+        try {
+            future = launcher.apply(requests.get(index));
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+
+        inflight.set(index, future);
+        future.whenComplete((body, ex) -> {
+            Throwable error = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (error != null && expired) {
+                error = new TimeoutException("batch deadline exceeded");
+            }
+            lock.lock();
+            try {
+                running--;
+                routeInflight.merge(routes[index], -1, Integer::sum);
+            } finally {
+                lock.unlock();
+            }
+            complete(index, body, error);
+            dispatch();
+        });
+    }
+
+    /**
+     * 到达截止时间：尚未发起的请求直接以超时失败，进行中的请求取消.
+     */
+    private void expire() {
+        val notStarted = new ArrayList<Integer>();
+        lock.lock();
+        try {
+            expired = true;
+            notStarted.addAll(pending);
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        for (val index : notStarted) {
+            complete(index, null, new TimeoutException("batch deadline exceeded"));
+        }
+        for (int i = 0; i < inflight.length(); i++) {
+            val future = inflight.get(i);
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void complete(int index, String body, Throwable error) {
+        val result = new BatchResult(index, requests.get(index), body, error);
+        boolean last;
+        lock.lock();
+        try {
+            if (results[index] != null) {
+                return;
+            }
+            results[index] = result;
+            last = --remaining == 0;
+        } finally {
+            lock.unlock();
+        }
+
+        if (options.getListener() != null) {
+            try {
+                options.getListener().accept(result);
+            } catch (RuntimeException e) {
+                log.warn("batch listener failed", e);
+            }
+        }
+        if (last) {
+            done.complete(Arrays.asList(results));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package util;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.function.Consumer;
+
+/**
+ * 批量执行的参数.
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class BatchOptions {
+    /**
+     * 同时进行的请求数上限；每个路由同时进行的请求数还受该路由在异步连接池（启用虚拟线程时为同步连接池）中连接上限的限制.
+     */
+    @Builder.Default
+    int maxConcurrency = 16;
+    /**
+     * 整批的截止时间，到期后取消未完成的请求，小于等于0表示不限制.
+     */
+    long timeoutMillis;
+    /**
+     * 每个请求完成时回调，按完成顺序在I/O线程上调用，为null时不回调.
+     */
+    Consumer<BatchResult> listener;
+
+    /**
+     * 使用默认参数.
+     *
+     * @return BatchOptions
+     */
+    public static BatchOptions defaults() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,29 @@
+package util;
+
+import lombok.Value;
+
+/**
+ * 批量执行中单个请求的结果.
+ *
+ * @author bjca
+ */
+@Value
+public class BatchResult {
+    /**
+     * 请求在输入列表中的位置.
+     */
+    int index;
+    Request request;
+    /**
+     * 响应报文体，失败时为null.
+     */
+    String body;
+    /**
+     * 失败原因，成功时为null；超过批量截止时间时为 {@link java.util.concurrent.TimeoutException}.
+     */
+    Throwable error;
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
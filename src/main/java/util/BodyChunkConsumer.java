@@ -0,0 +1,22 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 按块接收响应报文体.
+ *
+ * <p>传入的 {@link ByteBuffer} 在回调返回后会被复用，需要保留数据时请自行拷贝。
+ *
+ * @author bjca
+ */
+@FunctionalInterface
+public interface BodyChunkConsumer {
+    /**
+     * 处理一块报文数据.
+     *
+     * @param chunk 报文数据，position 到 limit 之间为有效内容
+     * @throws IOException 处理失败时抛出，请求随之中止
+     */
+    void accept(ByteBuffer chunk) throws IOException;
+}
@@ -0,0 +1,99 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.AbstractResponseHandler;
+import org.apache.http.impl.client.BasicResponseHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 带报文长度限制的响应处理器.
+ *
+ * @author bjca
+ */
+final class BodyResponseHandlers {
+    /**
+     * 分块读取时的缓冲区大小.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private BodyResponseHandlers() {
+    }
+
+    /**
+     * 把报文体读成字符串，超过 maxBodySize 时失败.
+     *
+     * @param maxBodySize 报文体最大字节数
+     * @return ResponseHandler
+     */
+    static ResponseHandler<String> string(long maxBodySize) {
+        return new BasicResponseHandler() {
+            @Override
+            public String handleEntity(HttpEntity entity) throws IOException {
+                return super.handleEntity(limit(entity, maxBodySize));
+            }
+        };
+    }
+
+    /**
+     * 把报文体分块交给 consumer，返回读取的总字节数.
+     *
+     * @param maxBodySize 报文体最大字节数
+     * @param consumer    分块处理
+     * @return ResponseHandler
+     */
+    static ResponseHandler<Long> chunked(long maxBodySize, BodyChunkConsumer consumer) {
+        return new AbstractResponseHandler<Long>() {
+            @Override
+            public Long handleEntity(HttpEntity entity) throws IOException {
+                try (val in = limit(entity.getContent(), entity.getContentLength(), maxBodySize)) {
+                    return transfer(in, consumer);
+                }
+            }
+        };
+    }
+
+    static long transfer(InputStream in, BodyChunkConsumer consumer) throws IOException {
+        val buffer = new byte[CHUNK_SIZE];
+        val chunk = ByteBuffer.wrap(buffer);
+        long total = 0;
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            chunk.clear().limit(n);
+            consumer.accept(chunk);
+            total += n;
+        }
+        return total;
+    }
+
+    static InputStream limit(InputStream in, long contentLength, long maxBodySize) throws IOException {
+        if (maxBodySize < 0) {
+            return in;
+        }
+
+        // 声明的长度已经超限时不必再读
+        if (contentLength > maxBodySize) {
+            in.close();
+            throw new ResponseBodyTooLargeException(maxBodySize);
+        }
+
+        return new LimitedInputStream(in, maxBodySize);
+    }
+
+    private static HttpEntity limit(HttpEntity entity, long maxBodySize) {
+        if (maxBodySize < 0) {
+            return entity;
+        }
+
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public InputStream getContent() throws IOException {
+                return limit(super.getContent(), getContentLength(), maxBodySize);
+            }
+        };
+    }
+}
@@ -0,0 +1,64 @@
+package util;
+
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.cache.HttpCacheContext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 响应缓存的命中统计.
+ *
+ * @author bjca
+ */
+public class CacheStats {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong validated = new AtomicLong();
+
+    /**
+     * 直接由缓存返回的响应数.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * 缓存未命中、请求发往服务端的次数.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 缓存项过期后经条件请求校验仍然有效的次数.
+     */
+    public long getValidated() {
+        return validated.get();
+    }
+
+    /**
+     * 在缓存模块处理完响应后记录命中情况的拦截器.
+     */
+    HttpResponseInterceptor interceptor() {
+        return (response, context) -> {
+            switch (HttpCacheContext.adapt(context).getCacheResponseStatus()) {
+                case CACHE_HIT:
+                    hits.incrementAndGet();
+                    break;
+                case VALIDATED:
+                    validated.incrementAndGet();
+                    break;
+                case CACHE_MISS:
+                    misses.incrementAndGet();
+                    break;
+                default:
+                    break;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hits + ", misses=" + misses + ", validated=" + validated + "}";
+    }
+}
@@ -0,0 +1,220 @@
+package util;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带缓存的域名解析器.
+ *
+ * <p>解析结果缓存 {@link #ttlMillis}；超过 {@link #refreshAfterMillis} 后仍返回缓存，同时在后台刷新，
+ * 连接路径上不再等待解析。过期后的 {@link #maxStaleMillis} 内同样立即返回旧结果并在后台刷新，
+ * DNS 故障时新建连接不必等待系统解析器超时；超过这段时间的条目被清除。
+ * 每个域名同时只有一次后台刷新，没有可用缓存时并发的解析也合并为一次。
+ * 每次解析都轮换返回地址的顺序，新建连接会分散到域名的所有地址上。
+ *
+ * @author bjca
+ */
+@Slf4j
+public class CachingDnsResolver implements DnsResolver {
+    private static final ExecutorService REFRESH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "httpclient-dns");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 缓存有效期.
+     */
+    @Getter
+    private final long ttlMillis;
+    /**
+     * 缓存超过该时长后在后台刷新.
+     */
+    @Getter
+    private final long refreshAfterMillis;
+    /**
+     * 过期后继续使用旧结果的最长时间，期间在后台刷新.
+     */
+    @Getter
+    private final long maxStaleMillis;
+
+    private final DnsResolver delegate;
+    private final Executor refreshExecutor;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    /**
+     * 没有可用缓存时进行中的解析，同一域名的并发调用等待同一次结果.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Entry>> lookups = new ConcurrentHashMap<>();
+
+    @Builder
+    private CachingDnsResolver(long ttlMillis, long refreshAfterMillis, long maxStaleMillis,
+                               DnsResolver delegate, Executor refreshExecutor) {
+        this.ttlMillis = ttlMillis;
+        this.refreshAfterMillis = Math.min(refreshAfterMillis, ttlMillis);
+        this.maxStaleMillis = maxStaleMillis;
+        this.delegate = delegate;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * 创建构建器，预置默认参数：缓存60秒，45秒后后台刷新，解析失败时最多沿用旧结果5分钟.
+     *
+     * @return CachingDnsResolverBuilder
+     */
+    public static CachingDnsResolverBuilder builder() {
+        return new CachingDnsResolverBuilder()
+                .ttlMillis(60_000)
+                .refreshAfterMillis(45_000)
+                .maxStaleMillis(300_000)
+                .delegate(SystemDefaultDnsResolver.INSTANCE)
+                .refreshExecutor(REFRESH_EXECUTOR);
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        val entry = cache.get(host);
+        if (entry != null) {
+            val age = entry.ageMillis();
+            if (age < ttlMillis + maxStaleMillis) {
+                if (age >= refreshAfterMillis) {
+                    refreshAsync(host, entry);
+                }
+                return entry.next();
+            }
+            cache.remove(host, entry);
+        }
+
+        return lookupShared(host).next();
+    }
+
+    /**
+     * @return 缓存的域名数
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * 清空缓存.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * 合并同一域名的并发解析.
+     */
+    private Entry lookupShared(String host) throws UnknownHostException {
+        val pending = new CompletableFuture<Entry>();
+        val existing = lookups.putIfAbsent(host, pending);
+        if (existing == null) {
+            try {
+                val entry = lookup(host);
+                pending.complete(entry);
+                return entry;
+            } catch (UnknownHostException | RuntimeException e) {
+                pending.completeExceptionally(e);
+                throw e;
+            } finally {
+                lookups.remove(host, pending);
+            }
+        }
+
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(host);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                throw (UnknownHostException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private Entry lookup(String host) throws UnknownHostException {
+        val addresses = delegate.resolve(host);
+        if (addresses == null || addresses.length == 0) {
+            throw new UnknownHostException(host);
+        }
+
+        val entry = new Entry(addresses);
+        cache.put(host, entry);
+        // 新条目很少写入，顺便清除长期未用、超过可沿用期限的条目
+        cache.values().removeIf(cached -> cached.ageMillis() >= ttlMillis + maxStaleMillis);
+        return entry;
+    }
+
+    private void refreshAsync(String host, Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    lookup(host);
+                } catch (UnknownHostException | RuntimeException e) {
+                    // 保留旧结果，下次解析时再刷新；每个旧结果只在过期后第一次刷新失败时告警
+                    if (entry.ageMillis() >= ttlMillis && entry.staleLogged.compareAndSet(false, true)) {
+                        log.warn("resolve {} failed, using stale addresses: {}", host, e.toString());
+                    } else {
+                        log.debug("refresh {} failed: {}", host, e.toString());
+                    }
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private static class Entry {
+        private final InetAddress[] addresses;
+        private final long resolvedAt = System.nanoTime();
+        private final AtomicInteger rotation = new AtomicInteger();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private final AtomicBoolean staleLogged = new AtomicBoolean();
+
+        Entry(InetAddress[] addresses) {
+            this.addresses = addresses.clone();
+        }
+
+        long ageMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resolvedAt);
+        }
+
+        /**
+         * 以轮换的起点返回全部地址，连接失败时仍可依次尝试后面的地址.
+         */
+        InetAddress[] next() {
+            val length = addresses.length;
+            val start = Math.floorMod(rotation.getAndIncrement(), length);
+            val result = new InetAddress[length];
+            for (int i = 0; i < length; i++) {
+                result[i] = addresses[(start + i) % length];
+            }
+            return result;
+        }
+    }
+}
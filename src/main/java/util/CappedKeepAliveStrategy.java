@@ -0,0 +1,27 @@
+package util;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * 遵循服务端 {@code Keep-Alive: timeout=N} 响应头，但不超过给定上限的保活策略.
+ *
+ * <p>服务端没有给出超时时使用上限值，避免连接在池中无限期闲置，直到被对端悄悄关闭。
+ *
+ * @author bjca
+ */
+public class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+    private final long maxKeepAliveMillis;
+
+    public CappedKeepAliveStrategy(long maxKeepAliveMillis) {
+        this.maxKeepAliveMillis = maxKeepAliveMillis;
+    }
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return duration > 0 ? Math.min(duration, maxKeepAliveMillis) : maxKeepAliveMillis;
+    }
+}
@@ -0,0 +1,200 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个路由的熔断器，按最近若干次调用的失败率与慢调用率在闭合、断开、半开之间切换.
+ *
+ * @author bjca
+ */
+@Slf4j
+public class CircuitBreaker {
+    /**
+     * 熔断状态.
+     */
+    public enum State {
+        /**
+         * 闭合，正常放行.
+         */
+        CLOSED,
+        /**
+         * 断开，请求直接失败.
+         */
+        OPEN,
+        /**
+         * 半开，放行少量试探请求.
+         */
+        HALF_OPEN
+    }
+
+    private final String route;
+    private final CircuitBreakerSettings settings;
+    private final long slowCallNanos;
+    private final long openDurationNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile State state = State.CLOSED;
+    /**
+     * 滑动窗口，每个元素按位记录一次调用：1为失败，2为慢调用.
+     */
+    private final byte[] window;
+    private int windowIndex;
+    private int windowSize;
+    private int failures;
+    private int slowCalls;
+    private long stateSince;
+    private int halfOpenPermits;
+    private int halfOpenResults;
+    private int halfOpenFailures;
+    private int halfOpenSlowCalls;
+
+    CircuitBreaker(String route, CircuitBreakerSettings settings) {
+        this.route = route;
+        this.settings = settings;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(settings.getSlowCallDurationMillis());
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(settings.getOpenDurationMillis());
+        this.window = new byte[settings.getSlidingWindowSize()];
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 请求发出前调用，断开状态或半开状态的试探名额用完时返回false.
+     */
+    boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        State from = null;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            // 试探请求被取消时不会回报结果，半开过久则重新发放名额
+            if (state != State.CLOSED && now - stateSince >= openDurationNanos) {
+                from = state;
+                toHalfOpen(now);
+            }
+
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+                halfOpenPermits--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+            if (from != null && from != State.HALF_OPEN) {
+                notify(from, State.HALF_OPEN);
+            }
+        }
+    }
+
+    /**
+     * 记录一次调用的结果.
+     *
+     * @param nanos   耗时
+     * @param failure 是否失败
+     */
+    void onResult(long nanos, boolean failure) {
+        byte outcome = (byte) ((failure ? 1 : 0) | (nanos >= slowCallNanos ? 2 : 0));
+        State from;
+        State to;
+        lock.lock();
+        try {
+            from = state;
+            switch (state) {
+                case CLOSED:
+                    record(outcome);
+                    if (windowSize >= settings.getMinimumCalls() && exceeds(failures, slowCalls, windowSize)) {
+                        toOpen();
+                    }
+                    break;
+                case HALF_OPEN:
+                    halfOpenResults++;
+                    halfOpenFailures += outcome & 1;
+                    halfOpenSlowCalls += outcome >> 1;
+                    if (halfOpenResults >= settings.getHalfOpenCalls()) {
+                        if (exceeds(halfOpenFailures, halfOpenSlowCalls, halfOpenResults)) {
+                            toOpen();
+                        } else {
+                            toClosed();
+                        }
+                    }
+                    break;
+                default:
+                    // 断开前发出的请求迟到的结果
+                    break;
+            }
+            to = state;
+        } finally {
+            lock.unlock();
+        }
+
+        if (from != to) {
+            notify(from, to);
+        }
+    }
+
+    private boolean exceeds(int failed, int slow, int total) {
+        return failed >= settings.getFailureRateThreshold() * total
+                || slow >= settings.getSlowCallRateThreshold() * total;
+    }
+
+    private void record(byte outcome) {
+        if (windowSize == window.length) {
+            byte evicted = window[windowIndex];
+            failures -= evicted & 1;
+            slowCalls -= evicted >> 1;
+        } else {
+            windowSize++;
+        }
+
+        window[windowIndex] = outcome;
+        failures += outcome & 1;
+        slowCalls += outcome >> 1;
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void toOpen() {
+        state = State.OPEN;
+        stateSince = System.nanoTime();
+    }
+
+    private void toHalfOpen(long now) {
+        state = State.HALF_OPEN;
+        stateSince = now;
+        halfOpenPermits = settings.getHalfOpenCalls();
+        halfOpenResults = 0;
+        halfOpenFailures = 0;
+        halfOpenSlowCalls = 0;
+    }
+
+    private void toClosed() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        windowSize = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void notify(State from, State to) {
+        log.info("circuit breaker for {} changed from {} to {}", route, from, to);
+        try {
+            settings.getListener().onStateChange(route, from, to);
+        } catch (RuntimeException e) {
+            log.warn("circuit breaker listener failed", e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package util;
+
+/**
+ * 熔断状态变化的监听器，在触发状态变化的线程上调用，不应阻塞.
+ *
+ * @author bjca
+ */
+@FunctionalInterface
+public interface CircuitBreakerListener {
+    /**
+     * 路由的熔断状态发生变化.
+     *
+     * @param route 路由，形如 {@code http://host:port}
+     * @param from  原状态
+     * @param to    新状态
+     */
+    void onStateChange(String route, CircuitBreaker.State from, CircuitBreaker.State to);
+}
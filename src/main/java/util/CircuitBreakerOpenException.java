@@ -0,0 +1,16 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * 路由处于熔断状态，请求没有发出.
+ *
+ * @author bjca
+ */
+public class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakerOpenException(String route) {
+        super("circuit breaker open for " + route);
+    }
+}
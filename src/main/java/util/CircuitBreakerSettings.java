@@ -0,0 +1,62 @@
+package util;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * 按路由熔断的参数.
+ *
+ * <p>最近 {@link #slidingWindowSize} 次调用中失败率或慢调用率超过阈值时断开，
+ * 断开期间请求在借用连接之前直接失败；{@link #openDurationMillis} 后进入半开状态，
+ * 放行 {@link #halfOpenCalls} 个试探请求，据其结果决定闭合还是再次断开。
+ * 连接失败、超时等 IOException 与 5xx 响应都计为失败。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class CircuitBreakerSettings {
+    /**
+     * 滑动窗口内的调用次数.
+     */
+    @Builder.Default
+    int slidingWindowSize = 100;
+    /**
+     * 窗口内调用次数达到该值后才计算失败率.
+     */
+    @Builder.Default
+    int minimumCalls = 20;
+    /**
+     * 失败率达到该值时断开.
+     */
+    @Builder.Default
+    double failureRateThreshold = 0.5;
+    /**
+     * 耗时达到该值的调用视为慢调用.
+     */
+    @Builder.Default
+    long slowCallDurationMillis = 1_000;
+    /**
+     * 慢调用率达到该值时断开.
+     */
+    @Builder.Default
+    double slowCallRateThreshold = 0.8;
+    /**
+     * 断开状态持续时长，之后进入半开状态.
+     */
+    @Builder.Default
+    long openDurationMillis = 5_000;
+    /**
+     * 半开状态放行的试探请求数.
+     */
+    @Builder.Default
+    int halfOpenCalls = 5;
+    /**
+     * 熔断状态变化的监听器.
+     */
+    @NonNull
+    @Builder.Default
+    CircuitBreakerListener listener = (route, from, to) -> {
+    };
+}
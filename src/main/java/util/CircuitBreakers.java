@@ -0,0 +1,81 @@
+package util;
+
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个客户端上按路由创建的熔断器.
+ *
+ * <p>请求拦截器在借用连接之前检查熔断状态，断开时以 {@link CircuitBreakerOpenException} 失败；
+ * 响应拦截器按状态码记录结果，IOException 由重试处理器通过 {@link #onFailure} 记录。
+ *
+ * @author bjca
+ */
+class CircuitBreakers {
+    private static final String ATTEMPT = "util.circuit.attempt";
+
+    private final CircuitBreakerSettings settings;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    CircuitBreakers(CircuitBreakerSettings settings) {
+        this.settings = settings;
+    }
+
+    CircuitBreaker get(String route) {
+        return breakers.computeIfAbsent(route, r -> new CircuitBreaker(r, settings));
+    }
+
+    Collection<CircuitBreaker> getAll() {
+        return breakers.values();
+    }
+
+    HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            String route = Routes.of(context);
+            CircuitBreaker breaker = get(route);
+            if (!breaker.tryAcquire()) {
+                context.removeAttribute(ATTEMPT);
+                throw new CircuitBreakerOpenException(route);
+            }
+            context.setAttribute(ATTEMPT, new Attempt(breaker));
+        };
+    }
+
+    HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> complete(context, response.getStatusLine().getStatusCode() >= 500);
+    }
+
+    /**
+     * 记录请求因异常失败，熔断器自身拒绝的请求不计入.
+     */
+    void onFailure(HttpContext context, Throwable exception) {
+        if (!(exception instanceof CircuitBreakerOpenException)) {
+            complete(context, true);
+        }
+    }
+
+    private void complete(HttpContext context, boolean failure) {
+        Object attempt = context.removeAttribute(ATTEMPT);
+        if (attempt != null) {
+            ((Attempt) attempt).complete(failure);
+        }
+    }
+
+    private static class Attempt {
+        private final CircuitBreaker breaker;
+        private final long start = System.nanoTime();
+
+        Attempt(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+
+        void complete(boolean failure) {
+            breaker.onResult(System.nanoTime() - start, failure);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package util;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.Value;
+import org.apache.http.conn.DnsResolver;
+
+import javax.net.ssl.SSLContext;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 命名的客户端配置：超时、连接池大小与重试策略.
+ *
+ * <p>由 {@link ClientRegistry} 按名称登记，同名配置共享同一个线程安全的客户端。
+ *
+ * @author bjca
+ */
+@Value
+@Builder(toBuilder = true)
+public class ClientProfile {
+    /**
+     * 默认配置名，池化连接.
+     */
+    public static final String DEFAULT = "default";
+    /**
+     * 不复用连接的配置名，每个请求结束后关闭连接；预置的配置不限制连接数，也不设超时.
+     */
+    public static final String NON_POOLING = "non-pooling";
+
+    /**
+     * 配置名.
+     */
+    @NonNull
+    String name;
+    /**
+     * 从连接池获取连接的超时时间.
+     */
+    @Builder.Default
+    int connectionRequestTimeoutMillis = HttpClientBuilderBuilder.CONNECTION_REQUEST_TIMEOUT_MILLIS;
+    /**
+     * 建立连接超时时间.
+     */
+    @Builder.Default
+    int connectTimeoutMillis = HttpClientBuilderBuilder.CONNECTION_TIMEOUT_MILLIS;
+    /**
+     * 读取超时.
+     */
+    @Builder.Default
+    int soTimeoutMillis = HttpClientBuilderBuilder.SO_TIMEOUT_MILLIS;
+    /**
+     * 连接池最大连接数.
+     */
+    @Builder.Default
+    int maxTotal = HttpClientBuilderBuilder.MAX_TOTAL;
+    /**
+     * 每个路由默认最大连接数.
+     */
+    @Builder.Default
+    int defaultMaxPerRoute = HttpClientBuilderBuilder.DEFAULT_MAX_PER_ROUTE;
+    /**
+     * 按路由设置的连接上限，键为 {@link RoutePattern} 规则，按登记顺序取第一条匹配的规则.
+     */
+    @Singular
+    Map<String, Integer> routeLimits;
+    /**
+     * 按路由自适应调整连接上限，为null时不调整.
+     */
+    AdaptivePoolSizing adaptivePoolSizing;
+    /**
+     * 同步客户端的响应缓存，为null时不缓存；不作用于异步、对冲与合并的异步调用.
+     */
+    ResponseCacheSettings responseCache;
+    /**
+     * 请求指标的接收端.
+     */
+    @NonNull
+    @Builder.Default
+    HttpMetrics metrics = HttpMetrics.NOOP;
+    /**
+     * 异步连接池最大连接数.
+     */
+    @Builder.Default
+    int asyncMaxTotal = HttpAsyncClientBuilderBuilder.MAX_TOTAL;
+    /**
+     * 异步连接池每个路由默认最大连接数.
+     */
+    @Builder.Default
+    int asyncDefaultMaxPerRoute = HttpAsyncClientBuilderBuilder.DEFAULT_MAX_PER_ROUTE;
+    /**
+     * 重试策略，包括退避、按路由的重试预算与按状态码重试.
+     */
+    @NonNull
+    @Builder.Default
+    RetryPolicy retryPolicy = RetryPolicy.defaults();
+    /**
+     * 按路由熔断，为null时不熔断.
+     */
+    CircuitBreakerSettings circuitBreaker;
+    /**
+     * 按路由自适应限制并发调用数，为null时不限制.
+     */
+    ConcurrencyLimitSettings concurrencyLimit;
+    /**
+     * 以 {@code lb://服务名/路径} 调用的逻辑服务.
+     */
+    @Singular
+    List<ServiceDefinition> services;
+    /**
+     * 域名解析器，同步与异步连接池共用.
+     */
+    @NonNull
+    @Builder.Default
+    DnsResolver dnsResolver = CachingDnsResolver.builder().build();
+    /**
+     * HTTPS 连接使用的 SSLContext，默认所有配置共用一个，以便复用TLS会话.
+     */
+    @NonNull
+    @Builder.Default
+    SSLContext sslContext = SharedSslContext.getDefault();
+    /**
+     * {@link ManagedClient#warmUp(long, java.util.concurrent.TimeUnit)} 预先建立连接的路由，形如 {@code https://host:port}.
+     * 预热只针对同步调用的连接池.
+     */
+    @Singular
+    List<String> warmUpRoutes;
+    /**
+     * 预热时每个路由建立的连接数.
+     */
+    @Builder.Default
+    int warmUpConnectionsPerRoute = 2;
+    /**
+     * 请求报文体压缩，为null时不压缩.
+     */
+    CompressionSettings requestCompression;
+    /**
+     * 是否发送 {@code Accept-Encoding: gzip,deflate} 并解压响应报文体.
+     */
+    @Builder.Default
+    boolean responseDecompression = true;
+    /**
+     * 异步请求使用 HTTP/2 多路复用，为null时只用 HTTP/1.1.
+     */
+    Http2Settings http2;
+    /**
+     * 是否复用连接，为false时每个请求结束后关闭连接.
+     */
+    @Builder.Default
+    boolean connectionReuse = true;
+    /**
+     * 连接最长保活时间；服务端 Keep-Alive 头给出的超时更短时以服务端为准.
+     */
+    @Builder.Default
+    long keepAliveMaxMillis = HttpClientBuilderBuilder.KEEP_ALIVE_MAX_MILLIS;
+    /**
+     * 连接闲置超过该时长后由后台线程关闭，小于等于0表示只清理过期连接.
+     */
+    @Builder.Default
+    long idleEvictMillis = HttpClientBuilderBuilder.IDLE_EVICT_MILLIS;
+    /**
+     * 后台清理闲置与过期连接的间隔，小于等于0表示不启用后台清理.
+     */
+    @Builder.Default
+    long evictionIntervalMillis = HttpClientBuilderBuilder.EVICTION_INTERVAL_MILLIS;
+    /**
+     * 连接闲置超过该时长后，借出前先检查是否仍然可用，小于0表示不检查.
+     */
+    @Builder.Default
+    int validateAfterInactivityMillis = HttpClientBuilderBuilder.VALIDATE_AFTER_INACTIVITY_MILLIS;
+    /**
+     * {@link HttpInvoker} 的异步方法在虚拟线程上执行同步调用，不经过异步客户端；需要 Java 21 及以上.
+     *
+     * <p>启用后同步连接池的借用按路由排队，成千上万个调用方等待连接时每次归还只唤醒一个。
+     */
+    boolean virtualThreads;
+
+    /**
+     * 使用默认值创建指定名称的配置.
+     *
+     * @param name 配置名
+     * @return ClientProfile
+     */
+    public static ClientProfile of(String name) {
+        return builder().name(name).build();
+    }
+}
@@ -0,0 +1,146 @@
+package util;
+
+import lombok.val;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按名称管理共享客户端的注册表.
+ *
+ * <p>先用 {@link #register(ClientProfile)} 登记配置，再用 {@link #getClient(String)} 取得共享的线程安全客户端；
+ * 客户端在第一次使用时创建。应用退出前调用 {@link #shutdown(long, TimeUnit)} 释放连接池。
+ * 预置了 {@link ClientProfile#DEFAULT} 与 {@link ClientProfile#NON_POOLING} 两个配置。
+ * 所有连接池共用一个后台守护线程清理闲置与过期连接。
+ *
+ * @author bjca
+ */
+public class ClientRegistry {
+    private static final ClientRegistry DEFAULT_REGISTRY = new ClientRegistry();
+
+    private final ConcurrentMap<String, ClientProfile> profiles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ManagedClient> clients = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private volatile boolean shutdown;
+
+    public ClientRegistry() {
+        scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "httpclient-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        register(ClientProfile.of(ClientProfile.DEFAULT));
+        // 与原来每次调用新建 BasicHttpClientConnectionManager 一致：连接数不设上限，各项超时为0即不限制
+        register(ClientProfile.builder().name(ClientProfile.NON_POOLING)
+                .connectionReuse(false)
+                .maxTotal(Integer.MAX_VALUE)
+                .defaultMaxPerRoute(Integer.MAX_VALUE)
+                .connectionRequestTimeoutMillis(0)
+                .connectTimeoutMillis(0)
+                .soTimeoutMillis(0)
+                .build());
+    }
+
+    /**
+     * 进程内共享的注册表.
+     *
+     * @return ClientRegistry
+     */
+    public static ClientRegistry getDefault() {
+        return DEFAULT_REGISTRY;
+    }
+
+    /**
+     * 登记或替换配置。同名客户端已经创建时不能再替换.
+     *
+     * @param profile 客户端配置
+     * @return this
+     */
+    public ClientRegistry register(ClientProfile profile) {
+        checkNotShutdown();
+        // 在 clients 的同一个桶上检查并登记，与 get 中创建客户端互斥，不会按旧配置创建客户端却报告登记成功
+        clients.compute(profile.getName(), (name, client) -> {
+            if (client != null) {
+                throw new IllegalStateException("client " + name + " already in use");
+            }
+            profiles.put(name, profile);
+            return null;
+        });
+        return this;
+    }
+
+    /**
+     * 登记配置，同名配置已存在时保留原配置.
+     *
+     * @param profile 客户端配置
+     * @return 生效的配置
+     */
+    public ClientProfile registerIfAbsent(ClientProfile profile) {
+        checkNotShutdown();
+        val existing = profiles.putIfAbsent(profile.getName(), profile);
+        return existing != null ? existing : profile;
+    }
+
+    public ClientProfile getProfile(String name) {
+        val profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("unknown client profile " + name);
+        }
+        return profile;
+    }
+
+    /**
+     * 获取指定配置的共享客户端，首次调用时创建.
+     *
+     * @param name 配置名
+     * @return ManagedClient
+     */
+    public ManagedClient get(String name) {
+        val client = clients.get(name);
+        if (client != null) {
+            return client;
+        }
+
+        checkNotShutdown();
+        return clients.computeIfAbsent(name, key -> new ManagedClient(getProfile(key), scheduler));
+    }
+
+    public CloseableHttpClient getClient(String name) {
+        return get(name).getClient();
+    }
+
+    public CloseableHttpAsyncClient getAsyncClient(String name) {
+        return get(name).getAsyncClient();
+    }
+
+    /**
+     * 关闭所有客户端。每个连接池最多等待 timeout 让已借出的连接归还，之后强制关闭.
+     *
+     * @param timeout 等待时长
+     * @param unit    时间单位
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        shutdown = true;
+        for (val client : clients.values()) {
+            client.close(timeout, unit);
+        }
+        clients.clear();
+        scheduler.shutdownNow();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    private void checkNotShutdown() {
+        if (shutdown) {
+            throw new IllegalStateException("client registry is shut down");
+        }
+    }
+}
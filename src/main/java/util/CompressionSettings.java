@@ -0,0 +1,71 @@
+package util;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.Value;
+
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * 请求报文体压缩参数.
+ *
+ * <p>报文体不小于 {@link #minSize} 字节时按 {@link #encoding} 压缩，并带上对应的 {@code Content-Encoding}。
+ * 服务端必须能解压请求报文体，因此可以按路由开关：{@link #routes} 的键为 {@link RoutePattern} 规则，
+ * 按登记顺序取第一条匹配的规则，都不匹配时取 {@link #enabledByDefault}。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class CompressionSettings {
+    /**
+     * 压缩算法.
+     */
+    @NonNull
+    @Builder.Default
+    Encoding encoding = Encoding.GZIP;
+    /**
+     * 报文体达到该字节数才压缩.
+     */
+    @Builder.Default
+    int minSize = 1024;
+    /**
+     * 压缩级别，0到9，-1为默认级别.
+     */
+    @Builder.Default
+    int level = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * 按路由的开关.
+     */
+    @Singular
+    Map<String, Boolean> routes;
+    /**
+     * 没有匹配的路由规则时是否压缩.
+     */
+    @Builder.Default
+    boolean enabledByDefault = true;
+
+    /**
+     * 请求报文体的内容编码.
+     */
+    public enum Encoding {
+        GZIP("gzip"), DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        /**
+         * Content-Encoding 头的取值.
+         *
+         * @return 编码名
+         */
+        public String getToken() {
+            return token;
+        }
+    }
+}
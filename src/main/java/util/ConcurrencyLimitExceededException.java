@@ -0,0 +1,16 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * 路由的并发请求数达到自适应上限，请求没有发出.
+ *
+ * @author bjca
+ */
+public class ConcurrencyLimitExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ConcurrencyLimitExceededException(String route, int limit) {
+        super("concurrency limit " + limit + " reached for " + route);
+    }
+}
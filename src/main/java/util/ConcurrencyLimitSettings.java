@@ -0,0 +1,49 @@
+package util;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * 按路由自适应限制并发请求数的参数.
+ *
+ * <p>每个路由维护一个并发上限，达到上限的调用立即以 {@link ConcurrencyLimitExceededException} 失败，不进入连接池排队。
+ * 上限按 AIMD 调整：调用超时、借用连接超时、503 与 429 视为丢包；每轮（样本数达到上限）的平均耗时超过长期平均耗时的
+ * {@link #rttTolerance} 倍视为排队。两者都把上限乘以 {@link #backoffRatio}（每个平均耗时内最多一次）；
+ * 否则只要本轮并发用到上限的一半以上，上限增加1。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class ConcurrencyLimitSettings {
+    /**
+     * 初始并发上限.
+     */
+    @Builder.Default
+    int initialLimit = 20;
+    /**
+     * 最小并发上限.
+     */
+    @Builder.Default
+    int minLimit = 1;
+    /**
+     * 最大并发上限.
+     */
+    @Builder.Default
+    int maxLimit = 200;
+    /**
+     * 出现丢包或排队时上限的缩减比例.
+     */
+    @Builder.Default
+    double backoffRatio = 0.9;
+    /**
+     * 一轮的平均耗时超过长期平均耗时的该倍数时视为排队.
+     */
+    @Builder.Default
+    double rttTolerance = 2.0;
+    /**
+     * 长期平均耗时的平滑系数，越小越稳定.
+     */
+    @Builder.Default
+    double smoothing = 0.05;
+}
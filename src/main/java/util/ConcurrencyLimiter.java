@@ -0,0 +1,210 @@
+package util;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个路由的自适应并发限制器，按 {@link ConcurrencyLimitSettings} 描述的 AIMD 规则调整上限.
+ *
+ * @author bjca
+ */
+public class ConcurrencyLimiter {
+    private final String route;
+    private final ConcurrencyLimitSettings settings;
+    private final HttpMetrics metrics;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile int limit;
+    private double exactLimit;
+    /**
+     * 长期平均耗时，0表示还没有样本.
+     */
+    private double longRttNanos;
+    private long lastDecrease;
+    private long roundSumNanos;
+    private int roundSamples;
+    private int roundMaxInflight;
+
+    ConcurrencyLimiter(String route, ConcurrencyLimitSettings settings, HttpMetrics metrics) {
+        this.route = route;
+        this.settings = settings;
+        this.metrics = metrics;
+        this.exactLimit = Math.max(settings.getMinLimit(), Math.min(settings.getMaxLimit(), settings.getInitialLimit()));
+        this.limit = (int) exactLimit;
+        this.lastDecrease = System.nanoTime();
+        metrics.recordConcurrencyLimit(route, limit);
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * 当前并发上限.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 正在进行的调用数.
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * 因达到上限被拒绝的调用数.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 取得一个并发名额.
+     *
+     * @return 调用结束时归还的名额
+     * @throws ConcurrencyLimitExceededException 已达到上限
+     */
+    Permit acquire() throws ConcurrencyLimitExceededException {
+        while (true) {
+            int current = inflight.get();
+            int max = limit;
+            if (current >= max) {
+                rejected.increment();
+                metrics.recordConcurrencyRejection(route);
+                throw new ConcurrencyLimitExceededException(route, max);
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return new Permit(this);
+            }
+        }
+    }
+
+    /**
+     * 记录一次调用的耗时与结果并归还名额.
+     *
+     * <p>丢包立即缩减上限；耗时按轮（样本数达到上限为一轮）取平均，与长期平均耗时比较，避免单个慢请求引起缩减。
+     *
+     * @param rttNanos 耗时
+     * @param dropped  是否为丢包信号
+     */
+    void onSample(long rttNanos, boolean dropped) {
+        int previous;
+        int updated;
+        lock.lock();
+        try {
+            previous = limit;
+            long now = System.nanoTime();
+            if (dropped) {
+                decrease(now);
+            } else {
+                roundSumNanos += rttNanos;
+                roundSamples++;
+                roundMaxInflight = Math.max(roundMaxInflight, inflight.get());
+                if (roundSamples >= exactLimit) {
+                    endRound(now);
+                }
+            }
+            updated = (int) exactLimit;
+            limit = updated;
+        } finally {
+            lock.unlock();
+            inflight.decrementAndGet();
+        }
+
+        if (updated != previous) {
+            metrics.recordConcurrencyLimit(route, updated);
+        }
+    }
+
+    private void endRound(long now) {
+        double average = (double) roundSumNanos / roundSamples;
+        if (longRttNanos == 0) {
+            longRttNanos = average;
+        }
+
+        if (average > longRttNanos * settings.getRttTolerance()) {
+            decrease(now);
+        } else if (roundMaxInflight * 2 >= exactLimit) {
+            // 只有并发用到上限一半以上时才说明上限不够
+            exactLimit = Math.min(settings.getMaxLimit(), exactLimit + 1);
+        }
+        longRttNanos += (average - longRttNanos) * settings.getSmoothing();
+        roundSumNanos = 0;
+        roundSamples = 0;
+        roundMaxInflight = 0;
+    }
+
+    /**
+     * 同一次拥塞会在一个平均耗时内产生多个信号，只缩减一次.
+     */
+    private void decrease(long now) {
+        if (now - lastDecrease >= longRttNanos) {
+            exactLimit = Math.max(settings.getMinLimit(), exactLimit * settings.getBackoffRatio());
+            lastDecrease = now;
+        }
+    }
+
+    /**
+     * 归还名额，不作为样本，例如调用被取消或在发出前失败.
+     */
+    void onIgnore() {
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * 超时与服务端过载的响应是丢包信号.
+     */
+    static boolean isDrop(Throwable failure) {
+        if (failure instanceof SocketTimeoutException || failure instanceof ConnectTimeoutException) {
+            return true;
+        }
+        if (failure instanceof HttpResponseException) {
+            int status = ((HttpResponseException) failure).getStatusCode();
+            return status == 503 || status == 429;
+        }
+        return false;
+    }
+
+    /**
+     * 一次调用占用的名额.
+     */
+    static class Permit {
+        /**
+         * 未启用限制时使用，归还什么也不做.
+         */
+        static final Permit NONE = new Permit(null);
+
+        private final ConcurrencyLimiter limiter;
+        private final long start = System.nanoTime();
+
+        private Permit(ConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        /**
+         * 调用结束时归还.
+         *
+         * @param failure 失败原因，成功时为null；拿到了非2xx响应的调用仍以耗时作为样本
+         */
+        void release(Throwable failure) {
+            if (limiter == null) {
+                return;
+            }
+
+            if (failure == null || failure instanceof HttpResponseException || isDrop(failure)) {
+                limiter.onSample(System.nanoTime() - start, isDrop(failure));
+            } else {
+                limiter.onIgnore();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package util;
+
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * 统计完整握手与会话复用次数的 SSL 连接工厂.
+ *
+ * <p>复用的会话保留最初的创建时间，早于本次握手开始时间的会话即视为复用。
+ *
+ * @author bjca
+ */
+class CountingSslSocketFactory extends SSLConnectionSocketFactory {
+    private final TlsStats stats;
+
+    CountingSslSocketFactory(SSLContext sslContext, TlsStats stats) {
+        super(sslContext, getDefaultHostnameVerifier());
+        this.stats = stats;
+    }
+
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+            throws IOException {
+        Object event = HttpEvents.get().beginTlsHandshake();
+        long start = System.currentTimeMillis();
+        Socket layered = super.createLayeredSocket(socket, target, port, context);
+        if (layered instanceof SSLSocket) {
+            SSLSession session = ((SSLSocket) layered).getSession();
+            boolean resumed = session.getCreationTime() < start;
+            stats.record(resumed);
+            if (event != null) {
+                HttpEvents.get().endTlsHandshake(event, target + ":" + port, resumed, session);
+            }
+        }
+        return layered;
+    }
+}
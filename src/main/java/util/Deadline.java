@@ -0,0 +1,113 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次调用（含重试）的截止时间，保存在执行上下文中.
+ *
+ * <p>每次尝试前把借用连接、建立连接与读取的超时缩短到剩余时间，截止时间已到时以
+ * {@link DeadlineExceededException} 失败；{@link RetryPolicy} 在剩余时间容不下下一次尝试时不再重试。
+ *
+ * @author bjca
+ */
+public class Deadline {
+    private static final String ATTRIBUTE = "util.deadline";
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+    private final String header;
+
+    /**
+     * @param timeoutMillis 从现在起的总时长
+     * @param header        向服务端传递剩余毫秒数的请求头，为null时不传递
+     */
+    Deadline(long timeoutMillis, String header) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.header = header;
+    }
+
+    /**
+     * 取得上下文中的截止时间，没有设置时返回null.
+     */
+    static Deadline of(HttpContext context) {
+        return (Deadline) context.getAttribute(ATTRIBUTE);
+    }
+
+    void attach(HttpContext context) {
+        context.setAttribute(ATTRIBUTE, this);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * 剩余毫秒数，已过期时小于等于0.
+     */
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * 把超时缩短到剩余时间.
+     *
+     * @param timeoutMillis 配置的超时，小于等于0表示不限制
+     * @return 不超过剩余时间的超时，至少为1
+     */
+    int shrink(int timeoutMillis) {
+        val remaining = Math.max(1, Math.min(Integer.MAX_VALUE, remainingMillis()));
+        return timeoutMillis <= 0 ? (int) remaining : (int) Math.min(timeoutMillis, remaining);
+    }
+
+    /**
+     * 一次尝试之前调用：缩短上下文中的超时设置，并按需设置传递剩余时间的请求头.
+     *
+     * @param route 路由，用于异常信息
+     * @throws DeadlineExceededException 截止时间已到
+     */
+    void beforeAttempt(HttpRequest request, HttpClientContext context, String route)
+            throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException(route, timeoutMillis);
+        }
+
+        val config = context.getRequestConfig();
+        context.setRequestConfig(RequestConfig.copy(config)
+                .setConnectionRequestTimeout(shrink(config.getConnectionRequestTimeout()))
+                .setConnectTimeout(shrink(config.getConnectTimeout()))
+                .setSocketTimeout(shrink(config.getSocketTimeout()))
+                .build());
+        if (header != null) {
+            request.setHeader(header, String.valueOf(Math.max(1, remainingMillis())));
+        }
+    }
+
+    /**
+     * 同步客户端使用的拦截器，在借用连接之前对每次尝试调用 {@link #beforeAttempt}.
+     */
+    static HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            val deadline = of(context);
+            if (deadline != null) {
+                deadline.beforeAttempt(request, HttpClientContext.adapt(context), Routes.of(context));
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline(" + timeoutMillis + "ms, remaining " + remainingMillis() + "ms)";
+    }
+}
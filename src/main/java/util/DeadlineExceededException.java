@@ -0,0 +1,16 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * 调用的截止时间已到，请求没有发出.
+ *
+ * @author bjca
+ */
+public class DeadlineExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String route, long timeoutMillis) {
+        super("deadline of " + timeoutMillis + "ms exceeded for " + route);
+    }
+}
@@ -0,0 +1,331 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.ByteArrayBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 把响应报文体读入内存的异步消费者，按 {@code Content-Encoding} 边接收边解压.
+ *
+ * <p>压缩的报文体不在内存中保留副本，每收到一段就送入 {@link Inflater}，只保存解压结果；
+ * 结果超过 maxBodySize 时立即失败，压缩比异常高的报文体也不会耗尽内存。
+ * 支持 gzip（含多个成员）与 deflate（zlib 格式或裸 deflate），其他编码原样保留。
+ *
+ * @author bjca
+ */
+class DecompressingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+    private static final int CHUNK_SIZE = 8192;
+    /**
+     * 按 Content-Length 预分配缓冲区的上限.
+     */
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private final String route;
+    private final long maxBodySize;
+    private final boolean decompress;
+    private final HttpMetrics metrics;
+    private HttpResponse response;
+    private ContentType contentType;
+    private ByteArrayBuffer body;
+    private byte[] chunk;
+    private Inflating inflating;
+    private long received;
+    private Object bodyRead;
+
+    /**
+     * @param route       路由，用于记录解压指标
+     * @param maxBodySize 报文体（解压后）最大字节数，小于0表示不限制
+     * @param profile     客户端配置，决定是否解压以及指标的接收端
+     */
+    DecompressingResponseConsumer(String route, long maxBodySize, ClientProfile profile) {
+        this.route = route;
+        this.maxBodySize = maxBodySize;
+        this.decompress = profile.isResponseDecompression();
+        this.metrics = profile.getMetrics();
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.response = response;
+        bodyRead = HttpEvents.get().beginBodyRead();
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        this.contentType = contentType;
+        this.chunk = new byte[CHUNK_SIZE];
+
+        val header = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        val encoding = header == null ? "" : header.getValue().trim().toLowerCase(Locale.ROOT);
+        if (decompress && ("gzip".equals(encoding) || "x-gzip".equals(encoding))) {
+            inflating = new Inflating(true);
+        } else if (decompress && "deflate".equals(encoding)) {
+            inflating = new Inflating(false);
+        }
+
+        val length = entity.getContentLength();
+        if (inflating == null && maxBodySize >= 0 && length > maxBodySize) {
+            throw new ResponseBodyTooLargeException(maxBodySize);
+        }
+        body = new ByteArrayBuffer(inflating == null && length >= 0
+                ? (int) Math.min(length, MAX_INITIAL_CAPACITY) : CHUNK_SIZE);
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        val buffer = ByteBuffer.wrap(chunk);
+        for (int n; (n = decoder.read(buffer)) > 0; buffer.clear()) {
+            received += n;
+            if (inflating == null) {
+                append(chunk, 0, n);
+            } else {
+                inflating.write(chunk, 0, n);
+            }
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) throws IOException {
+        HttpEvents.get().endBodyRead(bodyRead, route, received);
+        if (body == null) {
+            return response;
+        }
+
+        if (inflating != null) {
+            inflating.finish();
+            response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+            response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            response.removeHeaders(HttpHeaders.CONTENT_MD5);
+            metrics.recordCompression(route, "response", body.length(), received);
+        }
+        response.setEntity(new ByteArrayEntity(body.buffer(), 0, body.length(), contentType));
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (inflating != null) {
+            inflating.end();
+        }
+        chunk = null;
+    }
+
+    private void append(byte[] bytes, int off, int len) throws ResponseBodyTooLargeException {
+        if (maxBodySize >= 0 && body.length() + len > maxBodySize) {
+            throw new ResponseBodyTooLargeException(maxBodySize);
+        }
+        body.append(bytes, off, len);
+    }
+
+    /**
+     * 增量解压：输入可以在任意位置断开，gzip 的头与尾先攒在 {@link #pending} 中.
+     */
+    private final class Inflating {
+        private static final int HEADER = 0;
+        private static final int BODY = 1;
+        private static final int TRAILER = 2;
+        private static final int DONE = 3;
+
+        private final boolean gzip;
+        private final byte[] out = new byte[CHUNK_SIZE];
+        private final ByteArrayBuffer pending = new ByteArrayBuffer(32);
+        private final CRC32 crc = new CRC32();
+        private Inflater inflater;
+        private int state = HEADER;
+        private int members;
+
+        Inflating(boolean gzip) {
+            this.gzip = gzip;
+        }
+
+        void write(byte[] bytes, int off, int len) throws IOException {
+            while (len > 0) {
+                switch (state) {
+                    case HEADER:
+                        pending.append(bytes, off, len);
+                        val header = gzip ? gzipHeaderLength() : deflateHeaderLength();
+                        if (header < 0) {
+                            return;
+                        }
+                        bytes = Arrays.copyOfRange(pending.buffer(), header, pending.length());
+                        off = 0;
+                        len = bytes.length;
+                        pending.clear();
+                        break;
+                    case BODY:
+                        val consumed = inflate(bytes, off, len);
+                        off += consumed;
+                        len -= consumed;
+                        break;
+                    case TRAILER:
+                        val take = Math.min(8 - pending.length(), len);
+                        pending.append(bytes, off, take);
+                        off += take;
+                        len -= take;
+                        if (pending.length() == 8) {
+                            checkTrailer();
+                        }
+                        break;
+                    default:
+                        // 压缩流之后多余的字节，与 GZIPInputStream 一样忽略
+                        return;
+                }
+            }
+        }
+
+        /**
+         * 解压一段输入，返回消耗的字节数；压缩流在这段输入中结束时，剩余字节属于 gzip 尾.
+         */
+        private int inflate(byte[] bytes, int off, int len) throws IOException {
+            inflater.setInput(bytes, off, len);
+            try {
+                for (int n; (n = inflater.inflate(out)) > 0 || !inflater.finished() && !inflater.needsInput(); ) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("deflate dictionary is not supported");
+                    }
+                    crc.update(out, 0, n);
+                    append(out, 0, n);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+
+            if (inflater.finished()) {
+                state = gzip ? TRAILER : DONE;
+                return len - inflater.getRemaining();
+            }
+            return len;
+        }
+
+        private void checkTrailer() throws ZipException {
+            val trailer = pending.buffer();
+            if (readInt(trailer, 0) != (int) crc.getValue() || readInt(trailer, 4) != (int) inflater.getBytesWritten()) {
+                throw new ZipException("corrupt gzip trailer");
+            }
+
+            members++;
+            pending.clear();
+            state = HEADER;
+        }
+
+        /**
+         * 解析 gzip 头，返回头的长度；数据还不够时返回-1.
+         */
+        private int gzipHeaderLength() throws ZipException {
+            val b = pending.buffer();
+            val n = pending.length();
+            if (n < 2) {
+                return -1;
+            }
+            if ((b[0] & 0xFF) != 0x1F || (b[1] & 0xFF) != 0x8B) {
+                if (members > 0) {
+                    state = DONE;
+                    return -1;
+                }
+                throw new ZipException("Not in GZIP format");
+            }
+            if (n < 10) {
+                return -1;
+            }
+            if (b[2] != 8) {
+                throw new ZipException("Unsupported compression method");
+            }
+
+            val flags = b[3] & 0xFF;
+            int pos = 10;
+            if ((flags & 4) != 0) {
+                // FEXTRA
+                if (n < pos + 2) {
+                    return -1;
+                }
+                pos += 2 + ((b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8);
+            }
+            if ((flags & 8) != 0) {
+                // FNAME
+                pos = skipZeroTerminated(b, pos, n);
+            }
+            if ((flags & 16) != 0 && pos >= 0) {
+                // FCOMMENT
+                pos = skipZeroTerminated(b, pos, n);
+            }
+            if ((flags & 2) != 0 && pos >= 0) {
+                // FHCRC
+                pos += 2;
+            }
+            if (pos < 0 || pos > n) {
+                return -1;
+            }
+
+            start(true);
+            return pos;
+        }
+
+        /**
+         * deflate 编码按规范是 zlib 格式，但有的服务端发裸 deflate，按前两个字节区分.
+         */
+        private int deflateHeaderLength() {
+            val b = pending.buffer();
+            if (pending.length() < 2) {
+                return -1;
+            }
+
+            val zlib = (b[0] & 0x0F) == 8 && ((b[0] & 0xFF) << 8 | (b[1] & 0xFF)) % 31 == 0;
+            start(!zlib);
+            return 0;
+        }
+
+        private void start(boolean nowrap) {
+            if (inflater == null) {
+                inflater = new Inflater(nowrap);
+            } else {
+                inflater.reset();
+            }
+            crc.reset();
+            state = BODY;
+        }
+
+        void finish() throws ZipException {
+            val complete = state == DONE || gzip && state == HEADER && members > 0;
+            // 报文体为空时按空内容处理
+            if (!complete && received > 0) {
+                throw new ZipException("Unexpected end of compressed response body");
+            }
+        }
+
+        void end() {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+
+        private int skipZeroTerminated(byte[] b, int pos, int n) {
+            for (int i = pos; i < n; i++) {
+                if (b[i] == 0) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private int readInt(byte[] b, int pos) {
+            return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | (b[pos + 3] & 0xFF) << 24;
+        }
+    }
+}
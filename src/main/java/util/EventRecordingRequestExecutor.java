@@ -0,0 +1,111 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 同步客户端的请求执行器，为发送请求、等待响应头与读取报文体提交 {@link HttpEvents} 事件.
+ *
+ * <p>只有在录制报文体读取时才包装响应报文体以统计字节数。
+ *
+ * @author bjca
+ */
+class EventRecordingRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        val events = HttpEvents.get();
+        val event = events.beginRequestWrite();
+        val response = super.doSendRequest(request, conn, context);
+        events.endRequestWrite(event, request, context);
+        return response;
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws HttpException, IOException {
+        val events = HttpEvents.get();
+        val event = events.beginFirstByte();
+        val response = super.doReceiveResponse(request, conn, context);
+        events.endFirstByte(event, response, context);
+
+        val entity = response.getEntity();
+        val bodyRead = entity != null ? events.beginBodyRead() : null;
+        if (bodyRead != null) {
+            response.setEntity(new CountingEntity(entity, Routes.of(context), bodyRead));
+        }
+        return response;
+    }
+
+    /**
+     * 报文体读到结尾或被关闭时提交一次报文体读取事件.
+     */
+    private static final class CountingEntity extends HttpEntityWrapper {
+        private final String route;
+        private final Object event;
+        private long bytes;
+        private boolean committed;
+
+        CountingEntity(HttpEntity entity, String route, Object event) {
+            super(entity);
+            this.route = route;
+            this.event = event;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    val b = super.read();
+                    if (b < 0) {
+                        commit();
+                    } else {
+                        bytes++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    val n = super.read(b, off, len);
+                    if (n < 0) {
+                        commit();
+                    } else {
+                        bytes += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        commit();
+                    }
+                }
+            };
+        }
+
+        private void commit() {
+            if (committed) {
+                return;
+            }
+            committed = true;
+            HttpEvents.get().endBodyRead(event, route, bytes);
+        }
+    }
+}
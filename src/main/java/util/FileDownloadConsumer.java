@@ -0,0 +1,234 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.FileContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 把响应报文体直接写入文件的异步消费者，返回文件的最终长度.
+ *
+ * <p>明文连接上由解码器通过 {@link FileChannel#transferFrom} 从套接字写入文件；其他情况经由一个固定大小的
+ * 直接缓冲区中转。无论文件多大，堆内存占用都不变。
+ *
+ * <p>从 {@code offset} 续传时，206 响应从该位置接着写；200 响应说明服务端不支持范围请求，
+ * 或远端文件已经变化（{@code If-Range} 不匹配），从头覆盖文件。
+ * 416 响应的 {@code Content-Range: bytes *&#47;N} 与本地长度相同时表示文件已经完整，不做修改，否则失败。
+ *
+ * <p>200 与 206 响应的校验值（强 ETag，没有时为 Last-Modified）保存在 {@link #validatorFile} 中，
+ * 续传时作为 {@code If-Range} 发送，远端文件变化后不会把两个版本的字节拼在一起。
+ *
+ * @author bjca
+ */
+class FileDownloadConsumer extends AbstractAsyncResponseConsumer<Long> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final long offset;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long position;
+    private boolean satisfied;
+
+    FileDownloadConsumer(Path file, long offset) {
+        this.file = file;
+        this.offset = offset;
+    }
+
+    /**
+     * 保存文件校验值的文件，与下载的文件放在同一目录.
+     */
+    static Path validatorFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".validator");
+    }
+
+    /**
+     * 读取上次下载保存的校验值，没有时返回null.
+     */
+    static String readValidator(Path file) throws IOException {
+        val validator = validatorFile(file);
+        if (!Files.exists(validator)) {
+            return null;
+        }
+        val value = new String(Files.readAllBytes(validator), StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) throws IOException {
+        val status = response.getStatusLine();
+        switch (status.getStatusCode()) {
+            case HttpStatus.SC_OK:
+                position = 0;
+                saveValidator(response);
+                break;
+            case HttpStatus.SC_PARTIAL_CONTENT:
+                position = rangeStart(response);
+                if (position != offset) {
+                    throw new IOException("unexpected Content-Range " + response.getFirstHeader(HttpHeaders.CONTENT_RANGE)
+                            + ", expected start " + offset);
+                }
+                saveValidator(response);
+                break;
+            case HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE:
+                if (offset > 0) {
+                    val length = unsatisfiedLength(response);
+                    if (length != offset) {
+                        throw new IOException("remote length " + length + " differs from local length " + offset
+                                + " of " + file);
+                    }
+                    satisfied = true;
+                    position = offset;
+                    break;
+                }
+                throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+            default:
+                throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+        }
+    }
+
+    /**
+     * 保存响应的强 ETag，没有时保存 Last-Modified；都没有时删除旧的校验值，之后续传不再带 If-Range.
+     */
+    private void saveValidator(HttpResponse response) throws IOException {
+        val etag = response.getFirstHeader(HttpHeaders.ETAG);
+        val lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        String value = null;
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            value = etag.getValue();
+        } else if (lastModified != null) {
+            value = lastModified.getValue();
+        }
+
+        val validator = validatorFile(file);
+        if (value == null) {
+            Files.deleteIfExists(validator);
+        } else {
+            Files.write(validator, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        if (satisfied) {
+            return;
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(position);
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        if (channel == null) {
+            discard(decoder);
+            return;
+        }
+
+        if (decoder instanceof FileContentDecoder) {
+            val transferred = ((FileContentDecoder) decoder).transfer(channel, position, Integer.MAX_VALUE);
+            if (transferred > 0) {
+                position += transferred;
+            }
+            return;
+        }
+
+        val chunk = buffer();
+        while (decoder.read(chunk) > 0) {
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                position += channel.write(chunk, position);
+            }
+            chunk.clear();
+        }
+    }
+
+    @Override
+    protected Long buildResult(HttpContext context) throws IOException {
+        if (channel == null && !satisfied) {
+            // 没有报文体的200响应，得到空文件
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE).truncate(0).close();
+        }
+        return position;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+        buffer = null;
+    }
+
+    private void discard(ContentDecoder decoder) throws IOException {
+        val chunk = buffer();
+        while (decoder.read(chunk) > 0) {
+            chunk.clear();
+        }
+    }
+
+    private ByteBuffer buffer() {
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        return buffer;
+    }
+
+    /**
+     * 解析416响应中形如 {@code bytes *&#47;1000} 的 Content-Range 给出的完整长度.
+     */
+    private static long unsatisfiedLength(HttpResponse response) throws IOException {
+        val header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        if (header != null) {
+            val value = header.getValue().trim();
+            if (value.startsWith("bytes */")) {
+                try {
+                    return Long.parseLong(value.substring("bytes */".length()).trim());
+                } catch (NumberFormatException e) {
+                    // 下面统一报错
+                }
+            }
+        }
+        throw new IOException("invalid Content-Range " + header);
+    }
+
+    /**
+     * 解析形如 {@code bytes 100-999/1000} 的 Content-Range 的起始位置.
+     */
+    private static long rangeStart(HttpResponse response) throws IOException {
+        val header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        if (header != null) {
+            val value = header.getValue().trim();
+            val dash = value.indexOf('-');
+            if (value.startsWith("bytes ") && dash > 0) {
+                try {
+                    return Long.parseLong(value.substring("bytes ".length(), dash).trim());
+                } catch (NumberFormatException e) {
+                    // 下面统一报错
+                }
+            }
+        }
+        throw new IOException("invalid Content-Range " + header);
+    }
+}
@@ -0,0 +1,198 @@
+package util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对冲请求策略：幂等请求在延迟时间内没有返回时，再发出一个相同的请求，取先返回的结果并取消另一个.
+ *
+ * <p>延迟默认取路由最近两个统计窗口内的 p95 耗时，样本不足时使用固定延迟；对冲请求数受按路由的令牌桶限制，
+ * 默认不超过正常流量的5%。统计保存在策略对象中，多个 {@link HttpInvoker} 应共用同一个实例。
+ * 分位数在客户端的维护线程上每个窗口计算一次，发出请求时只读取结果。
+ *
+ * @author bjca
+ */
+public class HedgingPolicy {
+    /**
+     * 固定延迟，路由样本不足或未启用分位数时使用.
+     */
+    @Getter
+    private final long delayMillis;
+    /**
+     * 按路由耗时的该分位数决定延迟，小于等于0表示总是使用固定延迟.
+     */
+    @Getter
+    private final double quantile;
+    /**
+     * 路由成功请求数达到该值后才使用分位数延迟.
+     */
+    @Getter
+    private final long minSamples;
+    /**
+     * 分位数延迟的下限，避免对很快的路由过早对冲.
+     */
+    @Getter
+    private final long minDelayMillis;
+    /**
+     * 统计窗口的毫秒数，分位数按最近两个窗口的样本计算，较早的慢请求不再影响延迟.
+     */
+    @Getter
+    private final long windowMillis;
+    /**
+     * 每个请求存入对冲预算的令牌数，0.05表示对冲请求最多占5%.
+     */
+    @Getter
+    private final double budgetRatio;
+    /**
+     * 每个路由对冲预算的容量.
+     */
+    @Getter
+    private final int budgetMaxTokens;
+
+    private final Map<String, RouteLatency> latencies = new ConcurrentHashMap<>();
+    private final Map<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+    private final AtomicBoolean rotating = new AtomicBoolean();
+
+    @Builder
+    private HedgingPolicy(long delayMillis, double quantile, long minSamples, long minDelayMillis,
+                          long windowMillis, double budgetRatio, int budgetMaxTokens) {
+        this.delayMillis = delayMillis;
+        this.quantile = quantile;
+        this.minSamples = minSamples;
+        this.minDelayMillis = minDelayMillis;
+        this.windowMillis = windowMillis;
+        this.budgetRatio = budgetRatio;
+        this.budgetMaxTokens = budgetMaxTokens;
+    }
+
+    /**
+     * 创建构建器，预置默认参数：最近20秒的 p95 延迟，样本不足时50毫秒，对冲不超过5%.
+     *
+     * @return HedgingPolicyBuilder
+     */
+    public static HedgingPolicyBuilder builder() {
+        return new HedgingPolicyBuilder()
+                .delayMillis(50)
+                .quantile(0.95)
+                .minSamples(100)
+                .minDelayMillis(5)
+                .windowMillis(10_000)
+                .budgetRatio(0.05)
+                .budgetMaxTokens(10);
+    }
+
+    /**
+     * 使用固定延迟的对冲策略.
+     *
+     * @param delayMillis 延迟毫秒数
+     * @return HedgingPolicy
+     */
+    public static HedgingPolicy fixedDelay(long delayMillis) {
+        return builder().delayMillis(delayMillis).quantile(0).build();
+    }
+
+    /**
+     * 路由当前的对冲延迟.
+     *
+     * @param route 路由，见 {@link Routes}
+     * @return 延迟毫秒数
+     */
+    public long delayMillis(String route) {
+        if (quantile <= 0) {
+            return delayMillis;
+        }
+
+        RouteLatency latency = latencies.get(route);
+        return latency == null ? delayMillis : latency.delayMillis;
+    }
+
+    /**
+     * 每个调用开始时存入对冲预算.
+     */
+    void onRequest(String route) {
+        budget(route).deposit();
+    }
+
+    /**
+     * 取一个对冲令牌，预算不足时返回false.
+     */
+    boolean tryHedge(String route) {
+        return budget(route).tryWithdraw();
+    }
+
+    /**
+     * 记录一次成功请求的耗时，用于计算分位数延迟.
+     */
+    void recordLatency(String route, long nanos) {
+        if (quantile > 0) {
+            latencies.computeIfAbsent(route, r -> new RouteLatency()).current.record(nanos);
+        }
+    }
+
+    /**
+     * 首次对冲时开始在客户端的维护线程上按窗口重新计算延迟；客户端关闭后由下一个对冲的调用重新开始.
+     */
+    void startRotation(ManagedClient client) {
+        if (quantile > 0 && windowMillis > 0 && rotating.compareAndSet(false, true)) {
+            rotateLater(client);
+        }
+    }
+
+    private void rotateLater(ManagedClient client) {
+        try {
+            client.schedule(() -> {
+                rotate();
+                rotateLater(client);
+            }, windowMillis);
+        } catch (RejectedExecutionException e) {
+            rotating.set(false);
+        }
+    }
+
+    /**
+     * 结束当前窗口，按最近两个窗口的样本重新计算各路由的延迟；两个窗口都没有样本的路由不再保留.
+     */
+    void rotate() {
+        for (Iterator<RouteLatency> it = latencies.values().iterator(); it.hasNext(); ) {
+            if (!it.next().rotate()) {
+                it.remove();
+            }
+        }
+    }
+
+    private RetryBudget budget(String route) {
+        return budgets.computeIfAbsent(route, r -> new RetryBudget(budgetRatio, budgetMaxTokens));
+    }
+
+    /**
+     * 单个路由的耗时：正在记录的窗口、上一个窗口与据此算出的延迟.
+     */
+    private class RouteLatency {
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private LatencyHistogram previous = new LatencyHistogram();
+        private volatile long delayMillis = HedgingPolicy.this.delayMillis;
+
+        /**
+         * @return 最近两个窗口是否有样本
+         */
+        boolean rotate() {
+            LatencyHistogram ended = current;
+            current = new LatencyHistogram();
+            LatencyHistogram window = new LatencyHistogram();
+            window.add(previous);
+            window.add(ended);
+            previous = ended;
+
+            delayMillis = window.getCount() < minSamples ? HedgingPolicy.this.delayMillis
+                    : Math.max(minDelayMillis, TimeUnit.NANOSECONDS.toMillis(window.getValueAtQuantile(quantile)));
+            return window.getCount() > 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package util;
+
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.ByteArrayBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把 HTTP/2 响应读入内存并转换为 httpclient 4 的响应，HttpInvoker 对两种传输的响应做同样的处理.
+ *
+ * @author bjca
+ */
+class Http2ResponseConsumer extends AbstractBinResponseConsumer<org.apache.http.HttpResponse> {
+    private static final org.apache.http.ProtocolVersion HTTP_2 = new org.apache.http.ProtocolVersion("HTTP", 2, 0);
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private final long maxBodySize;
+    private BasicHttpResponse response;
+    private ByteArrayBuffer body;
+    /**
+     * 最近一次收到响应头或报文体的时间，HTTP/2 连接上没有单个流的读超时，由 {@link Http2Transport} 据此判断.
+     */
+    private volatile long lastActivityNanos = System.nanoTime();
+
+    /**
+     * @param maxBodySize 报文体最大字节数，小于0表示不限制
+     */
+    Http2ResponseConsumer(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    protected void start(HttpResponse source, ContentType contentType) throws IOException {
+        lastActivityNanos = System.nanoTime();
+        int status = source.getCode();
+        // HTTP/2 没有原因短语，取标准短语
+        response = new BasicHttpResponse(HTTP_2, status, EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null));
+        for (Header header : source.getHeaders()) {
+            response.addHeader(header.getName(), header.getValue());
+        }
+        if (contentType == null) {
+            return;
+        }
+
+        long length = contentLength(source);
+        if (maxBodySize >= 0 && length > maxBodySize) {
+            throw new ResponseBodyTooLargeException(maxBodySize);
+        }
+        body = new ByteArrayBuffer(length >= 0 ? (int) Math.min(length, MAX_INITIAL_CAPACITY) : 8192);
+    }
+
+    @Override
+    protected int capacityIncrement() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected void data(ByteBuffer src, boolean endOfStream) throws IOException {
+        lastActivityNanos = System.nanoTime();
+        int length = src.remaining();
+        if (maxBodySize >= 0 && body.length() + length > maxBodySize) {
+            throw new ResponseBodyTooLargeException(maxBodySize);
+        }
+
+        if (src.hasArray()) {
+            body.append(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+        } else {
+            while (src.hasRemaining()) {
+                body.append(src.get());
+            }
+        }
+    }
+
+    @Override
+    protected org.apache.http.HttpResponse buildResult() {
+        if (body != null) {
+            ByteArrayEntity entity = new ByteArrayEntity(body.buffer(), 0, body.length());
+            entity.setContentType(response.getFirstHeader(HttpHeaders.CONTENT_TYPE));
+            entity.setContentEncoding(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            response.setEntity(entity);
+        }
+        return response;
+    }
+
+    @Override
+    public void releaseResources() {
+        body = null;
+    }
+
+    /**
+     * 距最近一次收到数据的毫秒数，尚未收到响应时从创建时算起.
+     */
+    long idleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivityNanos);
+    }
+
+    private static long contentLength(HttpResponse source) {
+        Header header = source.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+        try {
+            return header == null ? -1 : Long.parseLong(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
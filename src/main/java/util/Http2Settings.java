@@ -0,0 +1,43 @@
+package util;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * HTTP/2 传输参数.
+ *
+ * <p>启用后，异步请求以及同步的 get/postJSON/postForm 改走 HTTP/2：每个路由只建一个连接，并发请求作为流复用该连接。
+ * HTTPS 通过 ALPN 协商，服务端不支持时自动退回 HTTP/1.1；明文 HTTP 只有在 {@link #priorKnowledge} 时才以 h2c 直连。
+ * 连接级流控窗口由客户端自动放到最大，这里只配置每个流的窗口。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class Http2Settings {
+    /**
+     * 每个路由同时进行的流数上限，超出的请求排队等待；服务端的上限更小时以服务端为准.
+     */
+    @Builder.Default
+    int maxConcurrentStreams = 100;
+    /**
+     * 每个流的初始接收窗口字节数.
+     */
+    @Builder.Default
+    int initialWindowSize = 1024 * 1024;
+    /**
+     * 接收的最大帧字节数，16384 到 16777215.
+     */
+    @Builder.Default
+    int maxFrameSize = 16 * 1024;
+    /**
+     * 明文 HTTP 是否直接以 h2c 连接（服务端须已知支持 HTTP/2），为false时明文请求仍走 HTTP/1.1.
+     */
+    boolean priorKnowledge;
+    /**
+     * 因连接被关闭或 HTTP/2 协议错误退回 HTTP/1.1 的路由，经过这段时间后重新尝试 HTTP/2，小于等于0表示不再尝试；
+     * ALPN 明确没有选中 h2 的路由一直使用 HTTP/1.1.
+     */
+    @Builder.Default
+    long fallbackRetryMillis = 10 * 60 * 1000L;
+}
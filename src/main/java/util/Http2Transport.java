@@ -0,0 +1,555 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.concurrent.CallbackContribution;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http.ssl.TLS;
+import org.apache.hc.core5.http2.H2ConnectionException;
+import org.apache.hc.core5.http2.H2CorruptFrameException;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.http2.impl.nio.ProtocolNegotiationException;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.io.ModalCloseable;
+import org.apache.hc.core5.net.NamedEndpoint;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.reactor.ssl.TransportSecurityLayer;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.util.EntityUtils;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HTTP/2 传输：每个路由一个连接，并发请求作为流复用这个连接.
+ *
+ * <p>HTTPS 通过 ALPN 协商 h2，明文只在 {@link Http2Settings#isPriorKnowledge()} 时以 h2c 直连。
+ * 协商失败（ALPN 没有选中 h2，或者首次连接时服务端不认 HTTP/2 的连接前言）的路由记为只支持 HTTP/1.1，
+ * 此后由 HTTP/1.1 异步连接池处理，协商失败的那次请求也转到 HTTP/1.1 重新发出。
+ * ALPN 的结论是确定的，一直有效；连接被关闭或协议错误也可能是暂时的网络问题，
+ * 这类回退在 {@link Http2Settings#getFallbackRetryMillis()} 后失效，路由重新尝试 HTTP/2。
+ *
+ * <p>请求与响应在两种传输之间按 httpclient 4 的对象转换，重试、熔断与指标对两种传输一视同仁。
+ *
+ * @author bjca
+ */
+@Slf4j
+class Http2Transport {
+    /**
+     * HTTP/2 禁止的逐跳头，Content-Length 由报文体决定.
+     */
+    private static final Set<String> EXCLUDED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "te",
+            "content-length"));
+
+    private final ManagedClient owner;
+    private final ClientProfile profile;
+    private final Http2Settings settings;
+    private final CircuitBreakers circuitBreakers;
+    /**
+     * 按路由记录协商结果：TRUE 为已经用 HTTP/2 成功收到响应，FALSE 为只支持 HTTP/1.1，没有记录表示尚未确定.
+     */
+    private final Map<String, Boolean> protocols = new ConcurrentHashMap<>();
+    /**
+     * 会失效的回退记录：路由到失效时刻（{@link System#nanoTime()}），ALPN 导致的回退没有记录.
+     */
+    private final Map<String, Long> fallbackExpiry = new ConcurrentHashMap<>();
+    private final Map<String, Streams> streams = new ConcurrentHashMap<>();
+    private final Lock clientLock = new ReentrantLock();
+    private volatile CloseableHttpAsyncClient client;
+
+    Http2Transport(ManagedClient owner, CircuitBreakers circuitBreakers) {
+        this.owner = owner;
+        this.profile = owner.getProfile();
+        this.settings = profile.getHttp2();
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    /**
+     * 请求是否走 HTTP/2.
+     */
+    boolean accepts(URI uri) {
+        if ("http".equalsIgnoreCase(uri.getScheme()) && !settings.isPriorKnowledge()) {
+            return false;
+        }
+        return !isFallback(Routes.of(uri));
+    }
+
+    /**
+     * 路由是否已经确认只支持 HTTP/1.1；会失效的回退到期后清除记录，下一个请求重新协商.
+     */
+    boolean isFallback(String route) {
+        if (protocols.get(route) != Boolean.FALSE) {
+            return false;
+        }
+        val expiry = fallbackExpiry.get(route);
+        if (expiry == null || System.nanoTime() - expiry < 0) {
+            return true;
+        }
+        if (fallbackExpiry.remove(route, expiry)) {
+            protocols.remove(route, Boolean.FALSE);
+        }
+        return false;
+    }
+
+    /**
+     * 记录路由退回 HTTP/1.1.
+     *
+     * @return 此前没有回退记录时返回true
+     */
+    private boolean markFallback(String route, Exception ex) {
+        val retryMillis = settings.getFallbackRetryMillis();
+        if (ex instanceof ProtocolNegotiationException || retryMillis <= 0) {
+            fallbackExpiry.remove(route);
+        } else {
+            // 先写失效时刻，看到 FALSE 的线程一定能看到它
+            fallbackExpiry.put(route, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryMillis));
+        }
+        return protocols.put(route, Boolean.FALSE) == null;
+    }
+
+    /**
+     * 以 HTTP/2 执行请求，同一路由超过 {@link Http2Settings#getMaxConcurrentStreams()} 的请求排队.
+     *
+     * @return 可以取消的 Future
+     */
+    Future<HttpResponse> execute(HttpUriRequest request, long maxBodySize, HttpClientContext context,
+                                 org.apache.http.concurrent.FutureCallback<HttpResponse> callback) {
+        val route = Routes.of(request.getURI());
+        val result = new Exchange(callback);
+        val routeStreams = streams.computeIfAbsent(route, Streams::new);
+        routeStreams.submit(() -> start(request, maxBodySize, context, route, result, routeStreams));
+        return result;
+    }
+
+    private void start(HttpUriRequest request, long maxBodySize, HttpClientContext context, String route,
+                       Exchange result, Streams routeStreams) {
+        if (result.isDone()) {
+            routeStreams.release();
+            return;
+        }
+        if (isFallback(route)) {
+            // 排队期间协商失败，改走 HTTP/1.1
+            routeStreams.release();
+            result.attach(owner.executeHttp1(request, maxBodySize, context, result.callback()));
+            return;
+        }
+
+        val deadline = Deadline.of(context);
+        if (deadline != null && deadline.isExpired()) {
+            // 排队期间截止时间已到
+            routeStreams.release();
+            result.failed(new DeadlineExceededException(route, deadline.getTimeoutMillis()));
+            return;
+        }
+
+        SimpleHttpRequest target;
+        try {
+            target = convert(request, context);
+        } catch (Exception e) {
+            routeStreams.release();
+            result.failed(e);
+            return;
+        }
+
+        val consumer = new Http2ResponseConsumer(maxBodySize);
+        val slot = routeStreams.new Slot();
+        // httpclient 5 取消或中止一个流时会关闭整个连接，所以调用方取消或流超时后只丢弃结果，流在后台结束
+        getClient().execute(SimpleRequestProducer.create(target), consumer,
+                new FutureCallback<HttpResponse>() {
+                    @Override
+                    public void completed(HttpResponse response) {
+                        protocols.putIfAbsent(route, Boolean.TRUE);
+                        slot.release();
+                        try {
+                            if (circuitBreakers != null) {
+                                circuitBreakers.responseInterceptor().process(response, context);
+                            }
+                        } catch (Exception e) {
+                            result.failed(e);
+                            return;
+                        }
+                        result.completed(response);
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        val fallback = protocols.get(route) != Boolean.TRUE && isNegotiationFailure(ex);
+                        if (fallback && markFallback(route, ex)) {
+                            log.info("{} does not support HTTP/2, falling back to HTTP/1.1: {}", route, ex.toString());
+                        }
+                        slot.release();
+                        if (result.isDone()) {
+                            return;
+                        }
+                        if (fallback) {
+                            result.attach(owner.executeHttp1(request, maxBodySize, context, result.callback()));
+                            return;
+                        }
+                        result.failed(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        slot.release();
+                        result.cancel(true);
+                    }
+                });
+        val timeout = deadline == null ? profile.getSoTimeoutMillis() : deadline.shrink(profile.getSoTimeoutMillis());
+        watch(result, consumer, slot, timeout, timeout);
+    }
+
+    /**
+     * 流超过 {@link ClientProfile#getSoTimeoutMillis()}（设置了截止时间时不超过剩余时间）没有收到数据即以读超时失败，
+     * 连接不受影响；超时的流不再占用并发名额.
+     */
+    private void watch(Exchange result, Http2ResponseConsumer consumer, Streams.Slot slot, long timeout,
+                       long delayMillis) {
+        if (timeout <= 0 || slot.isReleased()) {
+            return;
+        }
+
+        try {
+            owner.schedule(() -> {
+                val remaining = timeout - consumer.idleMillis();
+                if (remaining > 0) {
+                    watch(result, consumer, slot, timeout, remaining);
+                } else {
+                    slot.release();
+                    result.failed(new SocketTimeoutException("HTTP/2 stream read timed out after " + timeout + "ms"));
+                }
+            }, delayMillis);
+        } catch (RejectedExecutionException e) {
+            // 客户端正在关闭
+        }
+    }
+
+    /**
+     * 转换为 httpclient 5 的请求，并按 httpclient 4 客户端的顺序执行熔断与重试计数拦截器.
+     */
+    private SimpleHttpRequest convert(HttpUriRequest request, HttpClientContext context) throws Exception {
+        val uri = request.getURI();
+        context.setAttribute(HttpClientContext.HTTP_TARGET_HOST,
+                new org.apache.http.HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+        if (circuitBreakers != null) {
+            circuitBreakers.requestInterceptor().process(request, context);
+        }
+        profile.getRetryPolicy().attemptInterceptor().process(request, context);
+
+        val target = new SimpleHttpRequest(request.getMethod(), uri);
+        for (val header : request.getAllHeaders()) {
+            val name = header.getName().toLowerCase(Locale.ROOT);
+            if (!EXCLUDED_HEADERS.contains(name)) {
+                target.addHeader(name, header.getValue());
+            }
+        }
+
+        if (request instanceof HttpEntityEnclosingRequest) {
+            val entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                val contentType = entity.getContentType() != null
+                        ? ContentType.parse(entity.getContentType().getValue()) : null;
+                target.setBody(EntityUtils.toByteArray(entity), contentType);
+                if (entity.getContentEncoding() != null && !target.containsHeader("content-encoding")) {
+                    target.addHeader("content-encoding", entity.getContentEncoding().getValue());
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 首次连接时的这些失败说明服务端不支持 HTTP/2，请求还没有被处理，可以安全地改走 HTTP/1.1.
+     */
+    private static boolean isNegotiationFailure(Exception ex) {
+        return ex instanceof ProtocolNegotiationException
+                || ex instanceof H2ConnectionException
+                || ex instanceof H2CorruptFrameException
+                || ex instanceof ConnectionClosedException;
+    }
+
+    private CloseableHttpAsyncClient getClient() {
+        CloseableHttpAsyncClient result = client;
+        if (result == null) {
+            clientLock.lock();
+            try {
+                result = client;
+                if (result == null) {
+                    result = build();
+                    result.start();
+                    client = result;
+                }
+            } finally {
+                clientLock.unlock();
+            }
+        }
+        return result;
+    }
+
+    private CloseableHttpAsyncClient build() {
+        val h2Config = H2Config.custom()
+                .setPushEnabled(false)
+                .setMaxConcurrentStreams(settings.getMaxConcurrentStreams())
+                .setInitialWindowSize(settings.getInitialWindowSize())
+                .setMaxFrameSize(settings.getMaxFrameSize())
+                .build();
+        val ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .build();
+        // 连接上的读超时会关闭所有流，单个流的读超时见 watch
+        val connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(profile.getConnectTimeoutMillis()))
+                .build();
+        val tlsStrategy = ClientTlsStrategyBuilder.create()
+                .setSslContext(profile.getSslContext())
+                .setTlsVersions(TLS.V_1_3, TLS.V_1_2)
+                .build();
+
+        val builder = H2AsyncClientBuilder.create()
+                .setH2Config(h2Config)
+                .setIOReactorConfig(ioReactorConfig)
+                .setDefaultConnectionConfig(connectionConfig)
+                .setTlsStrategy(new AlpnRequired(tlsStrategy))
+                .setDnsResolver(new DnsResolverAdapter(profile.getDnsResolver()))
+                .setThreadFactory(threadFactory())
+                // 重试由 HttpInvoker 按 RetryPolicy 调度
+                .disableAutomaticRetries();
+        if (profile.getIdleEvictMillis() > 0) {
+            builder.evictIdleConnections(TimeValue.ofMilliseconds(profile.getIdleEvictMillis()));
+        }
+        return builder.build();
+    }
+
+    private ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "httpclient-h2-" + profile.getName() + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    void close() {
+        val current = client;
+        if (current != null) {
+            current.close(CloseMode.GRACEFUL);
+        }
+    }
+
+    /**
+     * 一次调用，协商失败转到 HTTP/1.1 后取消调用会同时取消 HTTP/1.1 请求.
+     */
+    private static class Exchange extends BasicFuture<HttpResponse> {
+        private final AtomicReference<Future<?>> inflight = new AtomicReference<>();
+        private final org.apache.http.concurrent.FutureCallback<HttpResponse> callback;
+
+        Exchange(org.apache.http.concurrent.FutureCallback<HttpResponse> callback) {
+            super(callback);
+            this.callback = callback;
+        }
+
+        void attach(Future<?> future) {
+            inflight.set(future);
+            if (isCancelled()) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * 转到 HTTP/1.1 后的结果仍由本对象完成.
+         */
+        org.apache.http.concurrent.FutureCallback<HttpResponse> callback() {
+            return new org.apache.http.concurrent.FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse result) {
+                    Exchange.this.completed(result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    Exchange.this.failed(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    Exchange.this.cancel(true);
+                }
+            };
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            val cancelled = super.cancel(mayInterruptIfRunning);
+            val current = inflight.get();
+            if (cancelled && current != null) {
+                current.cancel(true);
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * 一个路由上同时进行的流数不超过上限，其余请求按到达顺序排队.
+     *
+     * <p>协议确定之前只放行一个请求：由它建立连接并完成协商，避免并发的首批请求各自建连或各自协商失败。
+     */
+    private class Streams {
+        private final String route;
+        private final Lock lock = new ReentrantLock();
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        private int active;
+
+        Streams(String route) {
+            this.route = route;
+        }
+
+        void submit(Runnable task) {
+            lock.lock();
+            try {
+                waiting.add(task);
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                active--;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable next;
+                lock.lock();
+                try {
+                    val limit = protocols.containsKey(route) ? settings.getMaxConcurrentStreams() : 1;
+                    if (active >= limit || waiting.isEmpty()) {
+                        return;
+                    }
+                    next = waiting.poll();
+                    active++;
+                } finally {
+                    lock.unlock();
+                }
+                next.run();
+            }
+        }
+
+        /**
+         * 一个流占用的名额，流结束或超时时归还，只归还一次.
+         */
+        class Slot {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            void release() {
+                if (released.compareAndSet(false, true)) {
+                    Streams.this.release();
+                }
+            }
+
+            boolean isReleased() {
+                return released.get();
+            }
+        }
+    }
+
+    /**
+     * 要求 ALPN 选中 h2；httpclient 5 的 HTTP/2 客户端在服务端不支持 ALPN 时仍会直接发送 HTTP/2 连接前言.
+     */
+    private static class AlpnRequired implements TlsStrategy {
+        private final TlsStrategy delegate;
+
+        AlpnRequired(TlsStrategy delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        @Deprecated
+        public boolean upgrade(TransportSecurityLayer sessionLayer, HttpHost host, SocketAddress localAddress,
+                               SocketAddress remoteAddress, Object attachment, Timeout handshakeTimeout) {
+            return delegate.upgrade(sessionLayer, host, localAddress, remoteAddress, attachment, handshakeTimeout);
+        }
+
+        @Override
+        public void upgrade(TransportSecurityLayer sessionLayer, NamedEndpoint endpoint, Object attachment,
+                            Timeout handshakeTimeout, FutureCallback<TransportSecurityLayer> callback) {
+            delegate.upgrade(sessionLayer, endpoint, attachment, handshakeTimeout,
+                    new CallbackContribution<TransportSecurityLayer>(callback) {
+                        @Override
+                        public void completed(TransportSecurityLayer result) {
+                            val details = result.getTlsDetails();
+                            if (details != null && !"h2".equals(details.getApplicationProtocol())) {
+                                if (sessionLayer instanceof ModalCloseable) {
+                                    ((ModalCloseable) sessionLayer).close(CloseMode.IMMEDIATE);
+                                }
+                                callback.failed(new ProtocolNegotiationException(
+                                        "ALPN: server did not select h2 for " + endpoint.getHostName()));
+                                return;
+                            }
+                            callback.completed(result);
+                        }
+                    });
+        }
+    }
+
+    private static class DnsResolverAdapter implements org.apache.hc.client5.http.DnsResolver {
+        private final DnsResolver delegate;
+
+        DnsResolverAdapter(DnsResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return delegate.resolve(host);
+        }
+
+        @Override
+        public String resolveCanonicalHostname(String host) throws UnknownHostException {
+            val addresses = resolve(host);
+            return addresses.length > 0 ? addresses[0].getCanonicalHostName() : host;
+        }
+    }
+}
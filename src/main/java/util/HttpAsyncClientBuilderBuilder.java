@@ -0,0 +1,137 @@
+package util;
+
+import lombok.val;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory to create HttpAsyncClient instance.
+ *
+ * <p>超时与 {@link HttpClientBuilderBuilder} 保持一致，所有连接由少量 I/O 线程驱动。
+ *
+ * @author bjca
+ */
+public class HttpAsyncClientBuilderBuilder {
+    /**
+     * 连接池最大连接数.
+     */
+    static final int MAX_TOTAL = 1024;
+    /**
+     * 每个路由默认最大连接数.
+     */
+    static final int DEFAULT_MAX_PER_ROUTE = 256;
+    /**
+     * I/O 线程检查会话超时的间隔.
+     */
+    static final int SELECT_INTERVAL_MILLIS = 100;
+
+    private final ClientProfile profile;
+    private final HttpClientBuilderBuilder syncBuilder;
+
+    public HttpAsyncClientBuilderBuilder() {
+        this(ClientProfile.of(ClientProfile.DEFAULT));
+    }
+
+    public HttpAsyncClientBuilderBuilder(ClientProfile profile) {
+        this(profile, new HttpClientBuilderBuilder(profile));
+    }
+
+    /**
+     * 与同步客户端共用请求配置与按路由的熔断器.
+     */
+    HttpAsyncClientBuilderBuilder(ClientProfile profile, HttpClientBuilderBuilder syncBuilder) {
+        this.profile = profile;
+        this.syncBuilder = syncBuilder;
+    }
+
+    /**
+     * 创建HttpAsyncClientBuilder.
+     *
+     * @return HttpAsyncClientBuilder
+     */
+    public HttpAsyncClientBuilder build() {
+        return build(getPoolingConnectionManager());
+    }
+
+    /**
+     * 使用给定的连接池创建HttpAsyncClientBuilder.
+     *
+     * @param connManager 连接池，随客户端一起关闭
+     * @return HttpAsyncClientBuilder
+     */
+    HttpAsyncClientBuilder build(PoolingNHttpClientConnectionManager connManager) {
+        val builder = HttpAsyncClients.custom()
+                .setConnectionManager(connManager)
+                .setDefaultRequestConfig(syncBuilder.getRequestConfig())
+                .setKeepAliveStrategy(syncBuilder.getKeepAliveStrategy())
+                .setThreadFactory(getThreadFactory("httpclient-async-"))
+                // 异步重试由 HttpInvoker 调度，这里只负责计数与存入重试预算
+                .addInterceptorFirst(profile.getRetryPolicy().attemptInterceptor());
+
+        if (!profile.isConnectionReuse()) {
+            builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+        }
+        if (profile.isResponseDecompression()) {
+            // 响应由 DecompressingResponseConsumer 边接收边解压
+            builder.addInterceptorLast(new RequestAcceptEncoding());
+        }
+        val circuitBreakers = syncBuilder.getCircuitBreakers();
+        if (circuitBreakers != null) {
+            builder.addInterceptorFirst(circuitBreakers.requestInterceptor())
+                    .addInterceptorLast(circuitBreakers.responseInterceptor());
+        }
+
+        return builder;
+    }
+
+    /**
+     * 反应器线程与I/O线程都不应阻止JVM退出.
+     */
+    private ThreadFactory getThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + profile.getName() + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    PoolingNHttpClientConnectionManager getPoolingConnectionManager() {
+        val ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .setConnectTimeout(profile.getConnectTimeoutMillis())
+                .setSoTimeout(profile.getSoTimeoutMillis())
+                // 会话超时在每次 select 之后检查，默认间隔1秒会让按截止时间缩短的超时推迟触发
+                .setSelectInterval(SELECT_INTERVAL_MILLIS)
+                .build();
+
+        try {
+            val registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", new SSLIOSessionStrategy(
+                            profile.getSslContext(), SSLIOSessionStrategy.getDefaultHostnameVerifier()))
+                    .build();
+            val poolConnManager = new MeteredNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(ioReactorConfig, getThreadFactory("httpclient-io-")),
+                    registry, profile.getDnsResolver(), profile.getMetrics());
+            poolConnManager.setMaxTotal(profile.getAsyncMaxTotal());
+            poolConnManager.setDefaultMaxPerRoute(profile.getAsyncDefaultMaxPerRoute());
+            return poolConnManager;
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("初始化异步连接池失败", e);
+        }
+    }
+}
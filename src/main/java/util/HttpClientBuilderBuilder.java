@@ -1,61 +1,81 @@
 package util;
 
-import lombok.extern.slf4j.Slf4j;
 import lombok.val;
-import org.apache.http.HttpEntityEnclosingRequest;
-import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
-import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.client.cache.CachingHttpClients;
+import org.apache.http.impl.client.cache.FileResourceFactory;
+import org.apache.http.impl.client.cache.ManagedHttpCacheStorage;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.protocol.HttpContext;
-
-import javax.net.ssl.SSLException;
-import javax.net.ssl.SSLHandshakeException;
-import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.net.ConnectException;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 /**
  * Factory to create HttpClient instance.
  *
  * @author bjca
  */
-@Slf4j
 public class HttpClientBuilderBuilder {
     /**
      * 请求超时时间.
      */
-    private static final int CONNECTION_REQUEST_TIMEOUT_MILLIS = 500;
+    static final int CONNECTION_REQUEST_TIMEOUT_MILLIS = 500;
     /**
      * 建立连接超时时间.
      */
-    private static final int CONNECTION_TIMEOUT_MILLIS = 500;
+    static final int CONNECTION_TIMEOUT_MILLIS = 500;
     /**
      * 读取超时.
      */
-    private static final int SO_TIMEOUT_MILLIS = 500;
+    static final int SO_TIMEOUT_MILLIS = 500;
     /**
      * 连接池最大连接数.
      */
-    private static final int MAX_TOTAL = 30;
+    static final int MAX_TOTAL = 30;
     /**
      * 每个路由默认最大连接数.
      */
-    private static final int DEFAULT_MAX_PER_ROUTE = 30;
+    static final int DEFAULT_MAX_PER_ROUTE = 30;
+    /**
+     * 连接最长保活时间.
+     */
+    static final long KEEP_ALIVE_MAX_MILLIS = 30_000;
+    /**
+     * 闲置连接清理阈值.
+     */
+    static final long IDLE_EVICT_MILLIS = 30_000;
+    /**
+     * 后台清理间隔.
+     */
+    static final long EVICTION_INTERVAL_MILLIS = 5_000;
+    /**
+     * 闲置超过该时长的连接借出前先校验.
+     */
+    static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 1_000;
+
+    private final ClientProfile profile;
+    private final CacheStats cacheStats;
+    private final CircuitBreakers circuitBreakers;
+    private final TlsStats tlsStats = new TlsStats();
+
+    public HttpClientBuilderBuilder() {
+        this(ClientProfile.of(ClientProfile.DEFAULT));
+    }
+
+    public HttpClientBuilderBuilder(ClientProfile profile) {
+        this.profile = profile;
+        this.cacheStats = profile.getResponseCache() != null ? new CacheStats() : null;
+        this.circuitBreakers = profile.getCircuitBreaker() != null
+                ? new CircuitBreakers(profile.getCircuitBreaker()) : null;
+    }
 
     /**
      * 创建HttpClientBuilder.
@@ -63,80 +83,144 @@ public class HttpClientBuilderBuilder {
      * @return HttpClientBuilder
      */
     public HttpClientBuilder build() {
-        return HttpClients.custom()
-                .setConnectionManager(getPoolingConnectionManager())
-                .setDefaultRequestConfig(getRequestConfig())
-                .setRetryHandler(getHttpRequestRetryHandler());
+        return build(getPoolingConnectionManager());
     }
 
-    private HttpRequestRetryHandler getHttpRequestRetryHandler() {
-        return (exception, executionCount, context) -> {
-            log.warn("HttpRequestRetryHandler executionCount:{}, context:{}", executionCount, context, exception);
-
-            if (executionCount >= 3) { // 如果已经重试了3次，就放弃
-                return false;
-            }
-
-            val retryClasses = createRetryClasses();
+    /**
+     * 使用给定的连接池创建HttpClientBuilder.
+     *
+     * @param connManager 连接池，随客户端一起关闭
+     * @return HttpClientBuilder
+     */
+    HttpClientBuilder build(PoolingHttpClientConnectionManager connManager) {
+        val builder = createBuilder()
+                .setConnectionManager(connManager)
+                .setDefaultRequestConfig(getRequestConfig())
+                .setKeepAliveStrategy(getKeepAliveStrategy())
+                .setRequestExecutor(new EventRecordingRequestExecutor())
+                .addInterceptorFirst(profile.getRetryPolicy().attemptInterceptor())
+                .setRetryHandler(getHttpRequestRetryHandler())
+                .setServiceUnavailableRetryStrategy(
+                        profile.getRetryPolicy().toServiceUnavailableRetryStrategy(profile.getMetrics()));
+
+        if (!profile.isConnectionReuse()) {
+            builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+        }
+        if (!profile.isResponseDecompression()) {
+            builder.disableContentCompression();
+        }
+        if (circuitBreakers != null) {
+            builder.addInterceptorFirst(circuitBreakers.requestInterceptor())
+                    .addInterceptorLast(circuitBreakers.responseInterceptor());
+        }
+        // 最先执行：截止时间已到的尝试不经过熔断器、不计入重试次数
+        builder.addInterceptorFirst(Deadline.requestInterceptor());
+
+        return builder;
+    }
 
-            if (retryClasses.containsKey(exception.getClass())) {
-                return retryClasses.get(exception.getClass());
-            }
+    /**
+     * 响应缓存的命中统计，未启用缓存时为null.
+     *
+     * @return CacheStats
+     */
+    CacheStats getCacheStats() {
+        return cacheStats;
+    }
 
-            for (val entry : retryClasses.entrySet()) {
-                if (entry.getKey().isInstance(exception)) {
-                    return entry.getValue();
+    private HttpClientBuilder createBuilder() {
+        val cache = profile.getResponseCache();
+        if (cache == null) {
+            return HttpClients.custom();
+        }
+
+        val cacheConfig = CacheConfig.custom()
+                .setMaxCacheEntries(cache.getMaxCacheEntries())
+                .setMaxObjectSize(cache.getMaxObjectSize())
+                // 客户端私有缓存，可以缓存带 Authorization 的响应
+                .setSharedCache(false)
+                .build();
+        val memory = new WeightedHttpCacheStorage(cache.getMaxCacheEntries(), cache.getMaxTotalSize());
+        CachingHttpClientBuilder builder;
+        if (cache.getDiskCacheDir() == null) {
+            builder = CachingHttpClients.custom().setHttpCacheStorage(memory);
+        } else {
+            // 磁盘在内存之后，客户端关闭时删除报文体文件
+            final TieredHttpCacheStorage storage = new TieredHttpCacheStorage(memory,
+                    new ManagedHttpCacheStorage(cacheConfig));
+            builder = new CachingHttpClientBuilder() {
+                {
+                    addCloseable(storage);
                 }
-            }
-
-            return isIdempotent(context); // 如果请求是幂等的，就再次尝试
-        };
+            };
+            builder.setResourceFactory(new FileResourceFactory(cache.getDiskCacheDir()))
+                    .setHttpCacheStorage(storage);
+        }
+        builder.setCacheConfig(cacheConfig);
+
+        builder.addInterceptorLast(cacheStats.interceptor());
+        return builder;
     }
 
-    private Map<Class<? extends IOException>, Boolean> createRetryClasses() {
-        Map<Class<? extends IOException>, Boolean> retryClasses = new LinkedHashMap<>();
+    /**
+     * 同步连接池的TLS握手统计.
+     *
+     * @return TlsStats
+     */
+    TlsStats getTlsStats() {
+        return tlsStats;
+    }
 
-        retryClasses.put(NoHttpResponseException.class, true);
-        retryClasses.put(ConnectException.class, true);
-        retryClasses.put(SocketException.class, true);
-        retryClasses.put(SocketTimeoutException.class, true);
-        retryClasses.put(ConnectTimeoutException.class, true);
-        retryClasses.put(InterruptedIOException.class, true);
+    /**
+     * 按路由的熔断器，未启用熔断时为null.
+     *
+     * @return CircuitBreakers
+     */
+    CircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
 
-        retryClasses.put(UnknownHostException.class, false);
-        retryClasses.put(SSLHandshakeException.class, false);
-        retryClasses.put(SSLException.class, false);
+    HttpRequestRetryHandler getHttpRequestRetryHandler() {
+        val handler = profile.getRetryPolicy().toRetryHandler(profile.getMetrics());
+        if (circuitBreakers == null) {
+            return handler;
+        }
 
-        return retryClasses;
+        // 每次因异常失败都会经过重试处理器，在这里把失败记入熔断器
+        return (exception, executionCount, context) -> {
+            circuitBreakers.onFailure(context, exception);
+            return handler.retryRequest(exception, executionCount, context);
+        };
     }
 
-    private PoolingHttpClientConnectionManager getPoolingConnectionManager() {
+    RouteAwareConnectionManager getPoolingConnectionManager() {
         val registry =
                 RegistryBuilder.<ConnectionSocketFactory>create()
                         .register("http", PlainConnectionSocketFactory.getSocketFactory())
-                        .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                        .register("https", new CountingSslSocketFactory(profile.getSslContext(), tlsStats))
                         .build();
 
-        val poolConnManager = new PoolingHttpClientConnectionManager(registry);
-        poolConnManager.setMaxTotal(MAX_TOTAL);
+        val poolConnManager = new RouteAwareConnectionManager(registry, profile);
+        poolConnManager.setMaxTotal(profile.getMaxTotal());
         // 将每个路由基础的连接最大 单个路由 跟总的一致
-        poolConnManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+        poolConnManager.setDefaultMaxPerRoute(profile.getDefaultMaxPerRoute());
 
-        val socketConfig = SocketConfig.custom().setSoTimeout(SO_TIMEOUT_MILLIS).build();
+        val socketConfig = SocketConfig.custom().setSoTimeout(profile.getSoTimeoutMillis()).build();
         poolConnManager.setDefaultSocketConfig(socketConfig);
+        // 闲置过久的连接可能已被服务端关闭，借出前先校验，避免请求撞上 NoHttpResponseException 再重试
+        poolConnManager.setValidateAfterInactivity(profile.getValidateAfterInactivityMillis());
         return poolConnManager;
     }
 
-    private RequestConfig getRequestConfig() {
-        return RequestConfig.custom()
-                .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_MILLIS)
-                .setConnectTimeout(CONNECTION_TIMEOUT_MILLIS)
-                .setSocketTimeout(SO_TIMEOUT_MILLIS)
-                .build();
+    ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+        return new CappedKeepAliveStrategy(profile.getKeepAliveMaxMillis());
     }
 
-    private boolean isIdempotent(HttpContext context) {
-        val request = HttpClientContext.adapt(context).getRequest();
-        return !(request instanceof HttpEntityEnclosingRequest);
+    RequestConfig getRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(profile.getConnectionRequestTimeoutMillis())
+                .setConnectTimeout(profile.getConnectTimeoutMillis())
+                .setSocketTimeout(profile.getSoTimeoutMillis())
+                .build();
     }
 }
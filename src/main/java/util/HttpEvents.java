@@ -0,0 +1,122 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * 请求各阶段的 JFR 事件入口，本类的实现全部是空操作.
+ *
+ * <p>{@code jdk.jfr} 自 8u262 起才有，更早的 8u、OpenJ9 8 或裁掉 jdk.jfr 的 jlink 镜像上没有。
+ * 启动时检查一次 {@code jdk.jfr.Event} 能否加载，能加载才换成 {@link JfrHttpEvents}，
+ * 调用方不直接引用任何 jdk.jfr 的类。{@link JfrHttpEvents} 按名字反射加载：在 JDK 9 以上构建时它与其他类分开编译，
+ * 见 pom.xml 的 release8 配置。
+ * {@code beginXxx} 返回的对象原样交给对应的 {@code endXxx}；事件未启用时返回null，end 随之忽略。
+ *
+ * @author bjca
+ */
+class HttpEvents {
+    private static final HttpEvents INSTANCE = select("jdk.jfr.Event");
+
+    HttpEvents() {
+    }
+
+    static HttpEvents get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 按事件基类能否加载选择实现.
+     *
+     * @param eventClass JFR 事件基类的类名
+     * @return JFR 可用时为 {@link JfrHttpEvents}，否则为空操作
+     */
+    static HttpEvents select(String eventClass) {
+        try {
+            val loader = HttpEvents.class.getClassLoader();
+            Class.forName(eventClass, false, loader);
+            return (HttpEvents) Class.forName(HttpEvents.class.getPackage().getName() + ".JfrHttpEvents", true, loader)
+                    .getDeclaredMethod("create").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new HttpEvents();
+        }
+    }
+
+    /**
+     * @return 是否由 JFR 实现
+     */
+    boolean isSupported() {
+        return false;
+    }
+
+    Object beginLease() {
+        return null;
+    }
+
+    void endLease(Object lease, HttpRoute route, boolean timedOut) {
+    }
+
+    /**
+     * @return 是否需要提交借用超时事件，为true时才值得取连接池统计
+     */
+    boolean isPoolExhaustedEnabled() {
+        return false;
+    }
+
+    void poolExhausted(String route, PoolStats pool) {
+    }
+
+    Object beginConnect() {
+        return null;
+    }
+
+    void endConnect(Object connect, HttpRoute route, boolean success) {
+    }
+
+    Object beginTlsHandshake() {
+        return null;
+    }
+
+    void endTlsHandshake(Object handshake, String host, boolean resumed, SSLSession session) {
+    }
+
+    Object beginRequestWrite() {
+        return null;
+    }
+
+    void endRequestWrite(Object write, HttpRequest request, HttpContext context) {
+    }
+
+    Object beginFirstByte() {
+        return null;
+    }
+
+    void endFirstByte(Object firstByte, HttpResponse response, HttpContext context) {
+    }
+
+    /**
+     * @return 未录制报文体读取时返回null，调用方据此决定是否统计字节数
+     */
+    Object beginBodyRead() {
+        return null;
+    }
+
+    void endBodyRead(Object bodyRead, String route, long bytes) {
+    }
+
+    /**
+     * 记录一次重试决定.
+     *
+     * @param context 请求上下文，用于取路由
+     * @param attempt 已执行次数
+     * @param cause   触发重试判断的异常或状态码
+     * @param delay   {@link RetryPolicy#backoffMillis} 的结果
+     */
+    void retry(HttpContext context, int attempt, Object cause, long delay) {
+    }
+}
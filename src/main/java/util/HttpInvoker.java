@@ -3,24 +3,46 @@ package util;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpMessage;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.methods.ZeroCopyPost;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.util.EntityUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URI;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -30,18 +52,115 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public class HttpInvoker {
-    private static final CloseableHttpClient POOL_CLIENT = new HttpClientBuilderBuilder().build().build();
-    private static final String UTF_8 = "UTF-8";
     private static final ContentType CONTENT_TYPE_JSON = ContentType.create("application/json", Consts.UTF_8);
 
-    private boolean pooling;
+    /**
+     * 使用的客户端配置名，见 {@link ClientRegistry}.
+     */
+    private final String profileName;
+    /**
+     * 响应报文体最大字节数，小于0表示不限制.
+     */
+    private long maxBodySize = -1;
+    /**
+     * GET请求的对冲策略，为null时不对冲.
+     */
+    private HedgingPolicy hedging;
+    /**
+     * 是否合并相同的并发GET请求.
+     */
+    private boolean coalescing;
+    /**
+     * 每次调用（含重试）的总时长，小于等于0表示不限制.
+     */
+    private long deadlineMillis;
+    /**
+     * 向服务端传递剩余毫秒数的请求头，为null时不传递.
+     */
+    private String deadlineHeader;
 
     public HttpInvoker() {
         this(true);
     }
 
+    /**
+     * @param pooling 为false时使用 {@link ClientProfile#NON_POOLING}：每个请求结束后关闭连接，
+     *                不限制并发连接数，也不设超时
+     */
     public HttpInvoker(boolean pooling) {
-        this.pooling = pooling;
+        this(pooling ? ClientProfile.DEFAULT : ClientProfile.NON_POOLING);
+    }
+
+    /**
+     * 使用 {@link ClientRegistry#getDefault()} 中登记的指定配置.
+     *
+     * @param profileName 客户端配置名
+     */
+    public HttpInvoker(String profileName) {
+        this.profileName = profileName;
+    }
+
+    /**
+     * 设置响应报文体最大字节数，超过时请求以 {@link ResponseBodyTooLargeException} 失败。
+     *
+     * @param maxBodySize 最大字节数，小于0表示不限制
+     * @return this
+     */
+    public HttpInvoker withMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * 对GET请求启用对冲：延迟时间内没有返回时再发一个相同请求，取先返回的结果。
+     *
+     * <p>对冲请求经由异步客户端发出；多个调用方应共用同一个 {@link HedgingPolicy}，以共享耗时统计与预算。
+     *
+     * @param hedging 对冲策略，为null时关闭对冲
+     * @return this
+     */
+    public HttpInvoker withHedging(HedgingPolicy hedging) {
+        this.hedging = hedging;
+        return this;
+    }
+
+    /**
+     * 合并相同的并发GET请求：URL、参数与请求头都相同的请求进行中时，后来者等待并共享同一个响应报文体。
+     *
+     * <p>只合并同一客户端配置上同时进行的请求，请求结束后不保留结果。
+     *
+     * @param coalescing 是否合并
+     * @return this
+     */
+    public HttpInvoker withCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    /**
+     * 限制每次调用（含重试）的总时长：每次尝试的借用连接、建立连接与读取超时都缩短到剩余时间，
+     * 剩余时间容不下下一次尝试时不再重试，截止时间已到时以 {@link DeadlineExceededException} 失败。
+     *
+     * <p>对返回报文体字符串的调用生效，流式读取与文件传输不受限制。
+     *
+     * @param timeoutMillis 总时长毫秒数，小于等于0表示不限制
+     * @return this
+     */
+    public HttpInvoker withDeadline(long timeoutMillis) {
+        return withDeadline(timeoutMillis, null);
+    }
+
+    /**
+     * 同 {@link #withDeadline(long)}，并在每次尝试的请求头中告知服务端剩余的毫秒数.
+     *
+     * @param timeoutMillis 总时长毫秒数，小于等于0表示不限制
+     * @param header        传递剩余毫秒数的请求头，例如 X-Request-Timeout；为null时不传递
+     * @return this
+     */
+    public HttpInvoker withDeadline(long timeoutMillis, String header) {
+        this.deadlineMillis = timeoutMillis;
+        this.deadlineHeader = header;
+        return this;
     }
 
     /**
@@ -53,25 +172,28 @@ public class HttpInvoker {
      * @return 响应报文体
      */
     public String get(String url, Map<String, String> params, Map<String, String> headers) {
-        HttpGet httpGet = new HttpGet(url);
-
-        if (params != null && !params.isEmpty()) {
-            val paramList = params.entrySet().stream()
-                    .map(entry -> new BasicNameValuePair(entry.getKey(), entry.getValue()))
-                    .collect(Collectors.toList());
-
-            try {
-                val str = EntityUtils.toString(new UrlEncodedFormEntity(paramList, UTF_8), UTF_8);
-                httpGet.setURI(new URI(httpGet.getURI().toString() + "?" + str));
-            } catch (Exception e) {
-                log.error("get请求 参数设置异常", e);
-                throw new RuntimeException("get请求 参数设置异常", e);
-            }
+        if (coalescing) {
+            val request = createGet(url, params, headers);
+            return join(client().getSingleFlight().execute(coalescingKey(request, headers),
+                    () -> CompletableFuture.completedFuture(get(request))));
         }
+        return get(createGet(url, params, headers));
+    }
 
-        setHeaders(headers, httpGet);
-
-        return execute(httpGet, "get请求异常");
+    /**
+     * 异步执行GET请求。
+     *
+     * @param url     请求地址，例如 http://127.0.0.1:9001/say
+     * @param params  查询参数。没有参数时，传null
+     * @param headers 请求头。没有请求头时，传null
+     * @return 响应报文体的Future
+     */
+    public CompletableFuture<String> getAsync(String url, Map<String, String> params, Map<String, String> headers) {
+        if (coalescing) {
+            val request = createGet(url, params, headers);
+            return client().getSingleFlight().execute(coalescingKey(request, headers), () -> getAsync(request));
+        }
+        return getAsync(createGet(url, params, headers));
     }
 
     /**
@@ -82,10 +204,18 @@ public class HttpInvoker {
      * @return 响应报文体
      */
     public String postJSON(String url, String jsonContent) {
-        val post = new HttpPost(url);
-        post.setEntity(new StringEntity(jsonContent, CONTENT_TYPE_JSON));
-        post.setHeader("Content-Type", "application/Json");
-        return execute(post, "post json body 请求异常");
+        return execute(createPostJSON(url, jsonContent), "post json body 请求异常");
+    }
+
+    /**
+     * 异步执行POST请求。
+     *
+     * @param url         请求地址，例如 http://127.0.0.1:9001/say
+     * @param jsonContent JSON请求体
+     * @return 响应报文体的Future
+     */
+    public CompletableFuture<String> postJSONAsync(String url, String jsonContent) {
+        return executeAsync(createPostJSON(url, jsonContent), "post json body 请求异常");
     }
 
     /**
@@ -97,46 +227,712 @@ public class HttpInvoker {
      * @return 响应报文体
      */
     public String postForm(String url, Map<String, String> params, Map<String, String> headers) {
+        return postForm(url, params, headers, Consts.UTF_8);
+    }
+
+    /**
+     * 按指定字符集编码表单参数，执行表单POST请求。
+     *
+     * @param url     请求地址，例如 http://127.0.0.1:9001/say
+     * @param params  表单参数，没有参数时，传null
+     * @param headers 请求头，没有请求头时，传null
+     * @param charset 表单参数的字符集
+     * @return 响应报文体
+     */
+    public String postForm(String url, Map<String, String> params, Map<String, String> headers, Charset charset) {
+        return execute(createPostForm(url, params, headers, charset), "post表单请求异常");
+    }
+
+    /**
+     * 异步执行表单POST请求。
+     *
+     * @param url     请求地址，例如 http://127.0.0.1:9001/say
+     * @param params  表单参数，没有参数时，传null
+     * @param headers 请求头，没有请求头时，传null
+     * @return 响应报文体的Future
+     */
+    public CompletableFuture<String> postFormAsync(String url, Map<String, String> params, Map<String, String> headers) {
+        return executeAsync(createPostForm(url, params, headers, Consts.UTF_8), "post表单请求异常");
+    }
+
+    /**
+     * 以流的方式执行GET请求。
+     *
+     * <p>调用方必须关闭返回的流；读到末尾时连接归还连接池，提前关闭则断开连接。
+     * 并发名额占用到流关闭为止；截止时间只约束到拿到响应头，之后的读取只受读超时限制。
+     * 每个调用方需要自己的流，{@link #withCoalescing(boolean)} 对本方法不起作用。
+     *
+     * @param url     请求地址，例如 http://127.0.0.1:9001/say
+     * @param params  查询参数。没有参数时，传null
+     * @param headers 请求头。没有请求头时，传null
+     * @return 响应报文体输入流
+     */
+    public InputStream getStream(String url, Map<String, String> params, Map<String, String> headers) {
+        return executeStream(createGet(url, params, headers), "get请求异常");
+    }
+
+    /**
+     * 执行GET请求，把响应报文体写入输出流。
+     *
+     * @param url     请求地址，例如 http://127.0.0.1:9001/say
+     * @param params  查询参数。没有参数时，传null
+     * @param headers 请求头。没有请求头时，传null
+     * @param out     报文体写入的目标，不会被关闭
+     * @return 写入的字节数
+     */
+    public long getTo(String url, Map<String, String> params, Map<String, String> headers, OutputStream out) {
+        return getChunked(url, params, headers, chunk -> out.write(chunk.array(), chunk.position(), chunk.remaining()));
+    }
+
+    /**
+     * 执行GET请求，把响应报文体写入通道。
+     *
+     * @param url     请求地址，例如 http://127.0.0.1:9001/say
+     * @param params  查询参数。没有参数时，传null
+     * @param headers 请求头。没有请求头时，传null
+     * @param channel 报文体写入的目标，不会被关闭
+     * @return 写入的字节数
+     */
+    public long getTo(String url, Map<String, String> params, Map<String, String> headers,
+                      WritableByteChannel channel) {
+        return getChunked(url, params, headers, chunk -> {
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        });
+    }
+
+    /**
+     * 执行GET请求，把响应报文体按块交给回调处理。
+     *
+     * <p>与 {@link #get} 一样受并发名额与截止时间约束；报文体交给各自的回调，{@link #withCoalescing(boolean)}
+     * 对本方法及 {@code getTo} 不起作用。
+     *
+     * @param url      请求地址，例如 http://127.0.0.1:9001/say
+     * @param params   查询参数。没有参数时，传null
+     * @param headers  请求头。没有请求头时，传null
+     * @param consumer 分块回调
+     * @return 读取的字节数
+     */
+    public long getChunked(String url, Map<String, String> params, Map<String, String> headers,
+                           BodyChunkConsumer consumer) {
+        val total = execute(createGet(url, params, headers),
+                BodyResponseHandlers.chunked(maxBodySize, consumer), "get请求异常");
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * 上传文件，报文体为文件内容。
+     *
+     * <p>文件不读入堆内存，明文连接上通过 {@link java.nio.channels.FileChannel#transferTo} 直接写入套接字。
+     *
+     * @param url  请求地址，例如 http://127.0.0.1:9001/upload
+     * @param file 上传的文件
+     * @return 响应报文体
+     */
+    public String uploadFile(String url, Path file) {
+        return join(uploadFileAsync(url, file));
+    }
+
+    /**
+     * 异步上传文件，见 {@link #uploadFile(String, Path)}.
+     *
+     * @param url  请求地址，例如 http://127.0.0.1:9001/upload
+     * @param file 上传的文件
+     * @return 响应报文体
+     */
+    public CompletableFuture<String> uploadFileAsync(String url, Path file) {
+        ZeroCopyPost producer;
+        try {
+            producer = new ZeroCopyPost(url, file.toFile(), ContentType.APPLICATION_OCTET_STREAM);
+        } catch (FileNotFoundException e) {
+            return failedFuture("POST", url, "上传文件异常", e);
+        }
+        val consumer = new DecompressingResponseConsumer(Routes.of(producer.getTarget()), maxBodySize,
+                client().getProfile());
+        return executeAsync(new HttpPost(url), producer, consumer, "上传文件异常")
+                .thenApply(response -> {
+                    try {
+                        return BodyResponseHandlers.string(maxBodySize).handleResponse(response);
+                    } catch (IOException e) {
+                        log.error("上传文件异常", e);
+                        throw new CompletionException(new RuntimeException("POST " + url + " exception 上传文件异常", e));
+                    }
+                });
+    }
+
+    /**
+     * 下载文件，覆盖已有内容，见 {@link #download(String, Path, boolean)}.
+     *
+     * @param url  请求地址，例如 http://127.0.0.1:9001/file
+     * @param file 保存的文件
+     * @return 文件长度
+     */
+    public long download(String url, Path file) {
+        return download(url, file, false);
+    }
+
+    /**
+     * 下载文件。
+     *
+     * <p>报文体不经过堆内存，明文连接上通过 {@link java.nio.channels.FileChannel#transferFrom} 直接写入文件。
+     * 续传时按已有文件长度发送 {@code Range} 请求，服务端不支持范围请求时从头下载；下载中断后可以再次续传。
+     * 文件的校验值保存在同目录的 {@code 文件名.validator} 中，续传时作为 {@code If-Range} 发送，远端文件变化后从头下载；
+     * 文件已经完整时核对远端长度，不一致则失败。
+     *
+     * @param url    请求地址，例如 http://127.0.0.1:9001/file
+     * @param file   保存的文件
+     * @param resume 是否从已有文件的末尾续传
+     * @return 文件长度
+     */
+    public long download(String url, Path file, boolean resume) {
+        return join(downloadAsync(url, file, resume));
+    }
+
+    /**
+     * 异步下载文件，见 {@link #download(String, Path, boolean)}.
+     *
+     * @param url    请求地址，例如 http://127.0.0.1:9001/file
+     * @param file   保存的文件
+     * @param resume 是否从已有文件的末尾续传
+     * @return 文件长度
+     */
+    public CompletableFuture<Long> downloadAsync(String url, Path file, boolean resume) {
+        long offset;
+        String validator;
+        try {
+            offset = resume && Files.exists(file) ? Files.size(file) : 0;
+            validator = offset > 0 ? FileDownloadConsumer.readValidator(file) : null;
+        } catch (IOException e) {
+            return failedFuture("GET", url, "下载文件异常", e);
+        }
+
+        val request = new HttpGet(url);
+        // 文件按原样保存，范围也按原始字节计算
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+        if (offset > 0) {
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            if (validator != null) {
+                // 远端文件已经变化时服务端返回完整的200响应，从头下载
+                request.setHeader(HttpHeaders.IF_RANGE, validator);
+            }
+        }
+        return executeAsync(request, HttpAsyncMethods.create(request), new FileDownloadConsumer(file, offset),
+                "下载文件异常");
+    }
+
+    /**
+     * 批量执行请求，使用默认参数，见 {@link #executeAll(List, BatchOptions)}.
+     *
+     * @param requests 请求列表
+     * @return 与输入顺序一致的结果
+     */
+    public List<BatchResult> executeAll(List<Request> requests) {
+        return executeAll(requests, BatchOptions.defaults());
+    }
+
+    /**
+     * 批量执行请求，等待全部完成或到达截止时间。
+     *
+     * <p>请求经由异步客户端按输入顺序发起，同时进行的请求数不超过 {@link BatchOptions#getMaxConcurrency()}，
+     * 每个路由同时进行的请求数不超过该路由的连接上限。单个请求失败不影响其他请求。
+     *
+     * @param requests 请求列表
+     * @param options  批量参数
+     * @return 与输入顺序一致的结果
+     */
+    public List<BatchResult> executeAll(List<Request> requests, BatchOptions options) {
+        return executeAllAsync(requests, options).join();
+    }
+
+    /**
+     * 异步批量执行请求，见 {@link #executeAll(List, BatchOptions)}.
+     *
+     * @param requests 请求列表
+     * @param options  批量参数
+     * @return 全部完成后得到与输入顺序一致的结果
+     */
+    public CompletableFuture<List<BatchResult>> executeAllAsync(List<Request> requests, BatchOptions options) {
+        return new BatchExecution(requests, options, this::executeAsync, client()).start();
+    }
+
+    private CompletableFuture<String> executeAsync(Request request) {
+        switch (request.getType()) {
+            case GET:
+                return getAsync(createGet(request.getUrl(), request.getParams(), request.getHeaders()));
+            case POST_JSON:
+                return executeAsync(createPostJSON(request.getUrl(), request.getJsonContent()),
+                        "post json body 请求异常");
+            default:
+                return executeAsync(createPostForm(request.getUrl(), request.getParams(), request.getHeaders(),
+                        Consts.UTF_8), "post表单请求异常");
+        }
+    }
+
+    private String get(HttpGet request) {
+        if (hedging != null) {
+            return join(getAsync(request));
+        }
+        return execute(request, "get请求异常");
+    }
+
+    private CompletableFuture<String> getAsync(HttpGet request) {
+        if (hedging != null) {
+            return executeHedged(request, "get请求异常");
+        }
+        return executeAsync(request, "get请求异常");
+    }
+
+    /**
+     * 合并请求的键：最终的请求URI、请求头与报文体大小限制都相同才合并.
+     */
+    private String coalescingKey(HttpGet request, Map<String, String> headers) {
+        val key = new StringBuilder(request.getURI().toString()).append('\n').append(maxBodySize);
+        if (headers != null && !headers.isEmpty()) {
+            key.append('\n').append(new TreeMap<>(headers));
+        }
+        return key.toString();
+    }
+
+    private HttpGet createGet(String url, Map<String, String> params, Map<String, String> headers) {
+        HttpGet httpGet = new HttpGet(RequestEncoder.appendQuery(url, params, Consts.UTF_8));
+        setHeaders(headers, httpGet);
+        return httpGet;
+    }
+
+    private HttpPost createPostJSON(String url, String jsonContent) {
         val post = new HttpPost(url);
+        post.setEntity(compress(post, new StringEntity(jsonContent, CONTENT_TYPE_JSON)));
+        post.setHeader("Content-Type", "application/Json");
+        return post;
+    }
 
+    private HttpPost createPostForm(String url, Map<String, String> params, Map<String, String> headers,
+                                    Charset charset) {
+        val post = new HttpPost(url);
         if (params != null && !params.isEmpty()) {
-            val paramStr = new StringBuilder();
-            for (val entry : params.entrySet()) {
-                paramStr.append("&").append(entry.getKey()).append("=").append(entry.getValue());
-            }
-            val reqEntity = new StringEntity(paramStr.substring(1), UTF_8);
-            reqEntity.setContentType("application/x-www-form-urlencoded");
-            post.setEntity(reqEntity);
+            post.setEntity(compress(post, RequestEncoder.formEntity(params, charset)));
         }
 
         setHeaders(headers, post);
+        return post;
+    }
 
-        return execute(post, "post表单请求异常");
+    private HttpEntity compress(HttpUriRequest request, HttpEntity entity) {
+        val compression = client().getRequestCompression();
+        return compression == null ? entity : compression.compress(request.getURI(), entity);
     }
 
     private String execute(HttpUriRequest request, String exceptionMsg) {
-        val client = pooling ? POOL_CLIENT : HttpClients.custom()
-                .setConnectionManager(new BasicHttpClientConnectionManager()).build();
+        if (LoadBalancer.isLoadBalanced(request.getURI()) || client().isHttp2(request.getURI())) {
+            // HTTP/2 只有异步传输；负载均衡的重试要换端点，由异步路径上的重试循环完成。同步调用等待异步结果
+            return join(executeAsync(request, exceptionMsg));
+        }
+        return execute(request, BodyResponseHandlers.string(maxBodySize), exceptionMsg);
+    }
+
+    private <T> T execute(HttpUriRequest request, ResponseHandler<T> handler, String exceptionMsg) {
+        return execute(request, handler, exceptionMsg, newDeadline());
+    }
+
+    private <T> T execute(HttpUriRequest request, ResponseHandler<T> handler, String exceptionMsg,
+                          Deadline deadline) {
+        val client = client();
+        val start = System.nanoTime();
+        val permit = acquirePermit(client, request, start, exceptionMsg);
+        val context = HttpClientContext.create();
+        if (deadline != null) {
+            deadline.attach(context);
+        }
         try {
-            return client.execute(request, new BasicResponseHandler());
+            val result = client.getClient().execute(request, handler, context);
+            permit.release(null);
+            record(client, request, start, null);
+            return result;
         } catch (Exception e) {
+            permit.release(e);
+            record(client, request, start, e);
             log.error(exceptionMsg, e);
             throw new RuntimeException(
                     request.getMethod() + " " + request.getURI() + " exception " + exceptionMsg, e);
         } finally {
-            if (!pooling) {
-                try {
-                    client.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
             // This will make sure that the client doesn't have to consume the entire body of the request
             // to release the connection:
             request.abort();
         }
     }
 
+    private InputStream executeStream(HttpUriRequest request, String exceptionMsg) {
+        val client = client();
+        val start = System.nanoTime();
+        val permit = acquirePermit(client, request, start, exceptionMsg);
+        val context = HttpClientContext.create();
+        val deadline = newDeadline();
+        if (deadline != null) {
+            deadline.attach(context);
+        }
+        try {
+            val response = client.getClient().execute(request, context);
+            val status = response.getStatusLine();
+            val entity = response.getEntity();
+            if (status.getStatusCode() >= 300) {
+                EntityUtils.consumeQuietly(entity);
+                response.close();
+                throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+            }
+
+            val content = entity == null
+                    ? new ByteArrayInputStream(new byte[0])
+                    : BodyResponseHandlers.limit(entity.getContent(), entity.getContentLength(), maxBodySize);
+            record(client, request, start, null);
+            return new ResponseInputStream(content, response, permit);
+        } catch (Exception e) {
+            permit.release(e);
+            record(client, request, start, e);
+            request.abort();
+            log.error(exceptionMsg, e);
+            throw new RuntimeException(
+                    request.getMethod() + " " + request.getURI() + " exception " + exceptionMsg, e);
+        }
+    }
+
+    /**
+     * 取得路由的并发名额.
+     *
+     * <p>达到上限时记录一次失败并抛出与其他失败相同的 RuntimeException；拒绝是过载保护的正常结果，不打印错误日志。
+     */
+    private static ConcurrencyLimiter.Permit acquirePermit(ManagedClient client, HttpUriRequest request, long start,
+                                                           String exceptionMsg) {
+        try {
+            return client.acquirePermit(request.getURI());
+        } catch (ConcurrencyLimitExceededException e) {
+            record(client, request, start, e);
+            throw new RuntimeException(request.getMethod() + " " + request.getURI() + " exception " + exceptionMsg, e);
+        }
+    }
+
+    /**
+     * {@code lb://服务名/路径} 形式的调用由服务的 {@link LoadBalancer} 在每次尝试前选定端点.
+     */
+    private static void beginLoadBalancing(ManagedClient client, HttpUriRequest request, HttpClientContext context) {
+        val uri = request.getURI();
+        if (!LoadBalancer.isLoadBalanced(uri)) {
+            return;
+        }
+
+        val balancer = client.getLoadBalancer(uri.getHost());
+        if (balancer == null) {
+            throw new IllegalArgumentException("unknown service " + uri.getHost() + " in " + uri);
+        }
+        balancer.begin(uri, context);
+    }
+
+    private ManagedClient client() {
+        return ClientRegistry.getDefault().get(profileName);
+    }
+
+    /**
+     * 记录一次调用的耗时，失败时同时记录异常.
+     */
+    private static void record(ManagedClient client, HttpUriRequest request, long start, Throwable failure) {
+        val metrics = client.getProfile().getMetrics();
+        val route = Routes.of(request.getURI());
+        metrics.recordRequest(request.getMethod(), route, System.nanoTime() - start, failure == null);
+        if (failure != null) {
+            metrics.recordException(request.getMethod(), route, failure);
+        }
+    }
+
+    /**
+     * 新调用的截止时间，没有限制时返回null.
+     */
+    private Deadline newDeadline() {
+        return deadlineMillis > 0 ? new Deadline(deadlineMillis, deadlineHeader) : null;
+    }
+
+    private CompletableFuture<String> executeAsync(HttpUriRequest request, String exceptionMsg) {
+        return executeAsync(request, exceptionMsg, newDeadline());
+    }
+
+    private CompletableFuture<String> executeAsync(HttpUriRequest request, String exceptionMsg, Deadline deadline) {
+        val client = client();
+        val uri = request.getURI();
+        val executor = client.getCallExecutor();
+        if (executor != null && !LoadBalancer.isLoadBalanced(uri) && !client.isHttp2(uri)) {
+            return executeBlocking(executor, request, exceptionMsg, deadline);
+        }
+
+        val start = System.nanoTime();
+        val future = new CompletableFuture<String>();
+        // 各次重试共用同一个上下文，重试次数与重试预算按整个调用计算
+        val context = HttpClientContext.create();
+        if (deadline != null) {
+            deadline.attach(context);
+        }
+        ConcurrencyLimiter.Permit permit;
+        try {
+            beginLoadBalancing(client, request, context);
+            // 负载均衡的调用在每次尝试时占用所选端点的名额
+            permit = LoadBalancer.isLoadBalanced(uri)
+                    ? ConcurrencyLimiter.Permit.NONE : acquirePermit(client, request, start, exceptionMsg);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        val inflight = new AtomicReference<Future<HttpResponse>>();
+        future.whenComplete((result, ex) -> {
+            permit.release(future.isCancelled() ? ex : ex == null || ex.getCause() == null ? ex : ex.getCause());
+            if (future.isCancelled()) {
+                // 调用方取消Future时，同时取消底层的异步请求，释放连接；取消不计入请求指标
+                val pending = inflight.get();
+                if (pending != null) {
+                    pending.cancel(true);
+                }
+                return;
+            }
+            record(client, request, start, ex == null || ex.getCause() == null ? ex : ex.getCause());
+        });
+
+        context.setAttribute(HttpClientContext.HTTP_REQUEST, request);
+        executeAsync(request, exceptionMsg, context, 1, future, inflight);
+        return future;
+    }
+
+    private void executeAsync(HttpUriRequest request, String exceptionMsg, HttpClientContext context,
+                              int executionCount, CompletableFuture<String> future,
+                              AtomicReference<Future<HttpResponse>> inflight) {
+        if (future.isDone()) {
+            return;
+        }
+
+        val client = client();
+        val policy = client.getProfile().getRetryPolicy();
+        val call = LoadBalancer.Call.of(context);
+        if (call != null) {
+            // 每次尝试重新选择端点，重试优先发往没有尝试过的端点
+            try {
+                call.next((HttpRequestBase) request, client);
+            } catch (ConcurrencyLimitExceededException e) {
+                future.completeExceptionally(new RuntimeException(
+                        request.getMethod() + " " + request.getURI() + " exception " + exceptionMsg, e));
+                return;
+            }
+        }
+        inflight.set(client.execute(request, maxBodySize, context, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                val status = response.getStatusLine();
+                if (call != null) {
+                    call.complete(status.getStatusCode() >= 500
+                            ? new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()) : null);
+                }
+                val delay = policy.backoffMillis(response, executionCount, context);
+                if (delay >= 0) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    retry(delay, new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+                    return;
+                }
+
+                try {
+                    future.complete(BodyResponseHandlers.string(maxBodySize).handleResponse(response));
+                } catch (Exception e) {
+                    // 已经拿到响应，不再重试
+                    fail(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                if (call != null) {
+                    call.complete(ex);
+                }
+                client.onFailure(context, ex);
+                val delay = ex instanceof IOException
+                        ? policy.backoffMillis((IOException) ex, executionCount, context)
+                        : RetryPolicy.NO_RETRY;
+                if (delay >= 0) {
+                    retry(delay, ex);
+                    return;
+                }
+
+                fail(ex);
+            }
+
+            /**
+             * 退避期间不占用I/O线程，到期后在维护线程上重新发起请求.
+             */
+            private void retry(long delay, Exception cause) {
+                client.getProfile().getMetrics().recordRetry(Routes.of(request.getURI()), cause);
+                try {
+                    client.schedule(() -> executeAsync(request, exceptionMsg, context, executionCount + 1,
+                            future, inflight), delay);
+                } catch (RejectedExecutionException e) {
+                    fail(cause);
+                }
+            }
+
+            private void fail(Exception ex) {
+                log.error(exceptionMsg, ex);
+                future.completeExceptionally(new RuntimeException(
+                        request.getMethod() + " " + request.getURI() + " exception " + exceptionMsg, ex));
+            }
+
+            @Override
+            public void cancelled() {
+                if (call != null) {
+                    call.cancel();
+                }
+                future.cancel(false);
+            }
+        }));
+    }
+
+    /**
+     * 在虚拟线程上执行同步调用；调用方取消 Future 时中止请求，释放连接.
+     */
+    private CompletableFuture<String> executeBlocking(ExecutorService executor, HttpUriRequest request,
+                                                      String exceptionMsg, Deadline deadline) {
+        val future = new CompletableFuture<String>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(execute(request, BodyResponseHandlers.string(maxBodySize), exceptionMsg,
+                            deadline));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return failedFuture(request.getMethod(), request.getURI().toString(), exceptionMsg, e);
+        }
+        future.whenComplete((result, ex) -> {
+            if (future.isCancelled()) {
+                request.abort();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 以指定的请求生产者与响应消费者执行一次异步请求，不重试；报文体由两者以流的方式处理.
+     */
+    private <T> CompletableFuture<T> executeAsync(HttpUriRequest request, HttpAsyncRequestProducer producer,
+                                                  HttpAsyncResponseConsumer<T> consumer, String exceptionMsg) {
+        val client = client();
+        val start = System.nanoTime();
+        val context = HttpClientContext.create();
+        val future = new CompletableFuture<T>();
+        val inflight = client.getAsyncClient().execute(producer, consumer, context, new FutureCallback<T>() {
+            @Override
+            public void completed(T result) {
+                record(client, request, start, null);
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                client.onFailure(context, ex);
+                record(client, request, start, ex);
+                log.error(exceptionMsg, ex);
+                future.completeExceptionally(new RuntimeException(
+                        request.getMethod() + " " + request.getURI() + " exception " + exceptionMsg, ex));
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        future.whenComplete((result, ex) -> {
+            if (future.isCancelled()) {
+                inflight.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 先发出一个请求，到对冲延迟仍未完成且预算允许时再发出一个，取先成功的结果并取消其余的.
+     */
+    private CompletableFuture<String> executeHedged(HttpGet primary, String exceptionMsg) {
+        val policy = hedging;
+        // 负载均衡的调用会改写请求地址，对冲请求用原始地址另选端点
+        val uri = primary.getURI();
+        val route = Routes.of(uri);
+        val result = new CompletableFuture<String>();
+        val attempts = new CopyOnWriteArrayList<CompletableFuture<String>>();
+        val running = new AtomicInteger();
+
+        // 对冲请求与首个请求共用同一个截止时间
+        val deadline = newDeadline();
+
+        policy.onRequest(route);
+        policy.startRotation(client());
+        result.whenComplete((body, ex) -> attempts.forEach(attempt -> attempt.cancel(true)));
+        hedge(primary, exceptionMsg, deadline, policy, route, result, attempts, running);
+
+        try {
+            client().schedule(() -> {
+                if (!result.isDone() && policy.tryHedge(route)) {
+                    log.debug("hedging {} {}", primary.getMethod(), uri);
+                    HttpGet copy = new HttpGet(uri);
+                    copy.setHeaders(primary.getAllHeaders());
+                    hedge(copy, exceptionMsg, deadline, policy, route, result, attempts, running);
+                }
+            }, policy.delayMillis(route));
+        } catch (RejectedExecutionException e) {
+            // 客户端正在关闭，只保留首个请求
+        }
+        return result;
+    }
+
+    private void hedge(HttpUriRequest request, String exceptionMsg, Deadline deadline, HedgingPolicy policy,
+                       String route, CompletableFuture<String> result, List<CompletableFuture<String>> attempts,
+                       AtomicInteger running) {
+        running.incrementAndGet();
+        val start = System.nanoTime();
+        val attempt = executeAsync(request, exceptionMsg, deadline);
+        attempts.add(attempt);
+        attempt.whenComplete((body, ex) -> {
+            if (ex == null) {
+                policy.recordLatency(route, System.nanoTime() - start);
+                result.complete(body);
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        });
+
+        if (result.isDone()) {
+            attempt.cancel(true);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(String method, String url, String exceptionMsg,
+                                                         Exception cause) {
+        log.error(exceptionMsg, cause);
+        val future = new CompletableFuture<T>();
+        future.completeExceptionally(new RuntimeException(method + " " + url + " exception " + exceptionMsg, cause));
+        return future;
+    }
+
+    /**
+     * 等待异步结果，失败时抛出与同步调用相同的 RuntimeException.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     private void setHeaders(Map<String, String> headMap, HttpMessage httpMessage) {
         if (headMap == null) {
             return;
@@ -0,0 +1,129 @@
+package util;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPoolControl;
+
+/**
+ * 请求级指标的接收端，所有方法默认什么也不做.
+ *
+ * <p>实现必须线程安全且足够轻量，它们在请求路径上被同步调用。路由形如 {@code http://host:port}。
+ * 内置实现见 {@link MetricsRegistry}。
+ *
+ * <p>借用、建立连接与收发字节数由同步与异步（HTTP/1.1）连接池报告；HTTP/2 传输每个路由复用一个连接，
+ * 不经过连接池，不报告这三项。
+ *
+ * @author bjca
+ */
+public interface HttpMetrics {
+    /**
+     * 不记录任何指标.
+     */
+    HttpMetrics NOOP = new HttpMetrics() {
+    };
+
+    /**
+     * 一次完整调用（含重试）结束.
+     *
+     * @param method  请求方法
+     * @param route   路由
+     * @param nanos   耗时
+     * @param success 是否成功拿到2xx响应
+     */
+    default void recordRequest(String method, String route, long nanos, boolean success) {
+    }
+
+    /**
+     * 从连接池借用连接结束.
+     *
+     * @param route    路由
+     * @param nanos    等待时间
+     * @param timedOut 是否超时
+     */
+    default void recordLease(String route, long nanos, boolean timedOut) {
+    }
+
+    /**
+     * 建立连接（含TLS握手）结束.
+     *
+     * @param route   路由
+     * @param nanos   耗时
+     * @param success 是否成功
+     */
+    default void recordConnect(String route, long nanos, boolean success) {
+    }
+
+    /**
+     * 连接归还连接池时记录本次借用期间收发的字节数.
+     *
+     * @param route    路由
+     * @param sent     发送字节数
+     * @param received 接收字节数
+     */
+    default void recordBytes(String route, long sent, long received) {
+    }
+
+    /**
+     * 压缩或解压一个报文体.
+     *
+     * @param route           路由
+     * @param direction       {@code request} 表示压缩请求报文体，{@code response} 表示解压响应报文体
+     * @param originalBytes   未压缩的字节数
+     * @param compressedBytes 压缩后的字节数
+     */
+    default void recordCompression(String route, String direction, long originalBytes, long compressedBytes) {
+    }
+
+    /**
+     * 决定重试一次请求.
+     *
+     * @param route     路由
+     * @param exception 触发重试的异常
+     */
+    default void recordRetry(String route, Throwable exception) {
+    }
+
+    /**
+     * 路由的自适应并发上限发生变化.
+     *
+     * @param route 路由
+     * @param limit 新的上限
+     */
+    default void recordConcurrencyLimit(String route, int limit) {
+    }
+
+    /**
+     * 调用因达到并发上限被拒绝.
+     *
+     * @param route 路由
+     */
+    default void recordConcurrencyRejection(String route) {
+    }
+
+    /**
+     * 调用最终失败.
+     *
+     * @param method    请求方法
+     * @param route     路由
+     * @param exception 异常
+     */
+    default void recordException(String method, String route, Throwable exception) {
+    }
+
+    /**
+     * 登记一个连接池，供实现导出已借出、等待中与空闲的连接数.
+     *
+     * @param client 客户端配置名
+     * @param pool   连接池
+     */
+    default void bindPool(String client, ConnPoolControl<HttpRoute> pool) {
+    }
+
+    /**
+     * 登记异步调用的连接池，在首次异步调用创建连接池时调用.
+     *
+     * @param client 客户端配置名
+     * @param pool   异步连接池
+     */
+    default void bindAsyncPool(String client, ConnPoolControl<HttpRoute> pool) {
+    }
+}
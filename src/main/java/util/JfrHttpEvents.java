@@ -0,0 +1,292 @@
+package util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import lombok.val;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * 以 JFR 事件实现的 {@link HttpEvents}，类别为 {@value #CATEGORY}，只在 JFR 可用时加载.
+ *
+ * <p>没有录制时 begin 返回null，字段只在 {@code shouldCommit()} 时填充，可以常开。
+ *
+ * @author bjca
+ */
+final class JfrHttpEvents extends HttpEvents {
+    static final String CATEGORY = "HTTP Client";
+
+    private JfrHttpEvents() {
+    }
+
+    /**
+     * 由 {@link HttpEvents#select} 反射调用.
+     */
+    static HttpEvents create() {
+        return new JfrHttpEvents();
+    }
+
+    private static <T extends Event> T begin(T event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    boolean isSupported() {
+        return true;
+    }
+
+    @Override
+    Object beginLease() {
+        return begin(new Lease());
+    }
+
+    @Override
+    void endLease(Object lease, HttpRoute route, boolean timedOut) {
+        val event = (Lease) lease;
+        if (event != null && event.shouldCommit()) {
+            event.route = Routes.of(route);
+            event.timedOut = timedOut;
+            event.commit();
+        }
+    }
+
+    @Override
+    boolean isPoolExhaustedEnabled() {
+        return new PoolExhausted().shouldCommit();
+    }
+
+    @Override
+    void poolExhausted(String route, PoolStats pool) {
+        val event = new PoolExhausted();
+        if (event.shouldCommit()) {
+            event.route = route;
+            event.leased = pool.getLeased();
+            event.pending = pool.getPending();
+            event.max = pool.getMax();
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginConnect() {
+        return begin(new Connect());
+    }
+
+    @Override
+    void endConnect(Object connect, HttpRoute route, boolean success) {
+        val event = (Connect) connect;
+        if (event != null && event.shouldCommit()) {
+            event.route = Routes.of(route);
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginTlsHandshake() {
+        return begin(new TlsHandshake());
+    }
+
+    @Override
+    void endTlsHandshake(Object handshake, String host, boolean resumed, SSLSession session) {
+        val event = (TlsHandshake) handshake;
+        if (event != null && event.shouldCommit()) {
+            event.host = host;
+            event.resumed = resumed;
+            event.protocol = session.getProtocol();
+            event.cipherSuite = session.getCipherSuite();
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginRequestWrite() {
+        return begin(new RequestWrite());
+    }
+
+    @Override
+    void endRequestWrite(Object write, HttpRequest request, HttpContext context) {
+        val event = (RequestWrite) write;
+        if (event != null && event.shouldCommit()) {
+            event.route = Routes.of(context);
+            event.method = request.getRequestLine().getMethod();
+            event.bytes = request instanceof HttpEntityEnclosingRequest
+                    && ((HttpEntityEnclosingRequest) request).getEntity() != null
+                    ? ((HttpEntityEnclosingRequest) request).getEntity().getContentLength() : 0;
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginFirstByte() {
+        return begin(new FirstByte());
+    }
+
+    @Override
+    void endFirstByte(Object firstByte, HttpResponse response, HttpContext context) {
+        val event = (FirstByte) firstByte;
+        if (event != null && event.shouldCommit()) {
+            event.route = Routes.of(context);
+            event.status = response.getStatusLine().getStatusCode();
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginBodyRead() {
+        return begin(new BodyRead());
+    }
+
+    @Override
+    void endBodyRead(Object bodyRead, String route, long bytes) {
+        val event = (BodyRead) bodyRead;
+        if (event != null && event.shouldCommit()) {
+            event.route = route;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    void retry(HttpContext context, int attempt, Object cause, long delay) {
+        val event = new Retry();
+        if (event.shouldCommit()) {
+            event.route = Routes.of(context);
+            event.attempt = attempt;
+            event.cause = String.valueOf(cause);
+            event.retry = delay >= 0;
+            event.backoff = Math.max(0, delay);
+            event.commit();
+        }
+    }
+
+    @Name("httpclient.ConnectionLease")
+    @Label("Connection Lease")
+    @Description("从连接池借用连接，包括等待空闲连接的时间")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Lease extends Event {
+        @Label("Route")
+        String route;
+        @Label("Timed Out")
+        boolean timedOut;
+    }
+
+    @Name("httpclient.PoolExhausted")
+    @Label("Pool Exhausted")
+    @Description("借用连接超时，路由的连接全部借出")
+    @Category(CATEGORY)
+    static final class PoolExhausted extends Event {
+        @Label("Route")
+        String route;
+        @Label("Leased")
+        int leased;
+        @Label("Pending")
+        int pending;
+        @Label("Max")
+        int max;
+    }
+
+    @Name("httpclient.Connect")
+    @Label("Connect")
+    @Description("建立连接，https 连接包括 TLS 握手")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Connect extends Event {
+        @Label("Route")
+        String route;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("httpclient.TlsHandshake")
+    @Label("TLS Handshake")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TlsHandshake extends Event {
+        @Label("Host")
+        String host;
+        @Label("Resumed")
+        boolean resumed;
+        @Label("Protocol")
+        String protocol;
+        @Label("Cipher Suite")
+        String cipherSuite;
+    }
+
+    @Name("httpclient.RequestWrite")
+    @Label("Request Write")
+    @Description("发送请求头与报文体")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class RequestWrite extends Event {
+        @Label("Route")
+        String route;
+        @Label("Method")
+        String method;
+        @Label("Body Size")
+        @Description("请求报文体字节数，未知时为-1")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("httpclient.FirstByte")
+    @Label("First Byte")
+    @Description("请求发出后等待并读取响应头")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class FirstByte extends Event {
+        @Label("Route")
+        String route;
+        @Label("Status")
+        int status;
+    }
+
+    @Name("httpclient.BodyRead")
+    @Label("Body Read")
+    @Description("读取响应报文体，从响应头之后到报文体结束或关闭")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class BodyRead extends Event {
+        @Label("Route")
+        String route;
+        @Label("Body Size")
+        @Description("收到的报文体字节数（解压前）")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("httpclient.Retry")
+    @Label("Retry Decision")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Retry extends Event {
+        @Label("Route")
+        String route;
+        @Label("Attempt")
+        int attempt;
+        @Label("Cause")
+        String cause;
+        @Label("Retry")
+        boolean retry;
+        @Label("Backoff")
+        @Timespan(Timespan.MILLISECONDS)
+        long backoff;
+    }
+}
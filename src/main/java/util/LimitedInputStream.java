@@ -0,0 +1,57 @@
+package util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 读取超过限定字节数时抛出 {@link ResponseBodyTooLargeException} 的输入流.
+ *
+ * @author bjca
+ */
+class LimitedInputStream extends FilterInputStream {
+    private final long maxBodySize;
+    private long count;
+
+    LimitedInputStream(InputStream in, long maxBodySize) {
+        super(in);
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) throws IOException {
+        count += n;
+        if (count > maxBodySize) {
+            throw new ResponseBodyTooLargeException(maxBodySize);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个逻辑服务的客户端负载均衡，规则见 {@link ServiceDefinition}.
+ *
+ * @author bjca
+ */
+@Slf4j
+public class LoadBalancer {
+    /**
+     * 负载均衡地址的协议，形如 {@code lb://服务名/路径}.
+     */
+    public static final String SCHEME = "lb";
+    /**
+     * 平均耗时的平滑系数.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final ServiceDefinition definition;
+    private final List<Endpoint> endpoints;
+    private final long ejectionNanos;
+    private final double defaultLatencyNanos;
+
+    LoadBalancer(ServiceDefinition definition) {
+        if (definition.getEndpoints().isEmpty()) {
+            throw new IllegalArgumentException("service " + definition.getName() + " has no endpoints");
+        }
+        this.definition = definition;
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(definition.getEjectionMillis());
+        this.defaultLatencyNanos = definition.getDefaultLatencyMillis() * 1e6;
+        val list = new ArrayList<Endpoint>();
+        for (val url : definition.getEndpoints()) {
+            list.add(new Endpoint(url));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+    }
+
+    public String getName() {
+        return definition.getName();
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 是否为 {@code lb://} 地址.
+     */
+    static boolean isLoadBalanced(URI uri) {
+        return SCHEME.equalsIgnoreCase(uri.getScheme());
+    }
+
+    /**
+     * 挑选一个端点，优先选没有被摘除且不在 {@code tried} 中的.
+     */
+    Endpoint choose(List<Endpoint> tried) {
+        val now = System.nanoTime();
+        List<Endpoint> candidates = filter(tried, now, true);
+        if (candidates.isEmpty()) {
+            candidates = filter(tried, now, false);
+        }
+        if (candidates.isEmpty()) {
+            candidates = endpoints;
+        }
+
+        val size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        val random = ThreadLocalRandom.current();
+        val first = random.nextInt(size);
+        val second = (first + 1 + random.nextInt(size - 1)) % size;
+        val a = candidates.get(first);
+        val b = candidates.get(second);
+        val unknown = a.latencyNanos == 0 || b.latencyNanos == 0 ? medianLatencyNanos() : 0;
+        return a.score(unknown, now) <= b.score(unknown, now) ? a : b;
+    }
+
+    /**
+     * 有成功样本的端点平均耗时的中位数，都没有样本时为 {@link ServiceDefinition#getDefaultLatencyMillis()}.
+     */
+    private double medianLatencyNanos() {
+        val known = new double[endpoints.size()];
+        int count = 0;
+        for (val endpoint : endpoints) {
+            val latency = endpoint.latencyNanos;
+            if (latency > 0) {
+                known[count++] = latency;
+            }
+        }
+        if (count == 0) {
+            return defaultLatencyNanos;
+        }
+        Arrays.sort(known, 0, count);
+        return count % 2 == 1 ? known[count / 2] : (known[count / 2 - 1] + known[count / 2]) / 2;
+    }
+
+    private List<Endpoint> filter(List<Endpoint> tried, long now, boolean healthyOnly) {
+        val result = new ArrayList<Endpoint>(endpoints.size());
+        for (val endpoint : endpoints) {
+            if (!tried.contains(endpoint) && !(healthyOnly && endpoint.isEjected(now))) {
+                result.add(endpoint);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 开始一次调用，之后每次尝试前由 {@link Call#next(HttpRequestBase)} 选定端点.
+     *
+     * @param context 调用的执行上下文，各次重试共用
+     */
+    void begin(URI logical, HttpClientContext context) {
+        context.setAttribute(Call.ATTRIBUTE, new Call(this, logical));
+    }
+
+    /**
+     * 一个端点及其统计.
+     */
+    public class Endpoint {
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        /**
+         * 成功请求的平均耗时，0表示还没有样本.
+         */
+        private volatile double latencyNanos;
+        /**
+         * 平滑后的失败率，0到1.
+         */
+        private volatile double failureRate;
+        private volatile long lastFailure;
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+
+        Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /**
+         * 进行中的请求数.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * 成功请求的平均耗时毫秒数.
+         */
+        public double getLatencyMillis() {
+            return latencyNanos / 1e6;
+        }
+
+        /**
+         * 平滑后的失败率，0到1.
+         */
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        /**
+         * 当前是否被摘除.
+         */
+        public boolean isEjected() {
+            return isEjected(System.nanoTime());
+        }
+
+        private boolean isEjected(long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        /**
+         * @param unknownLatencyNanos 没有成功样本时使用的平均耗时
+         */
+        private double score(double unknownLatencyNanos, long now) {
+            val latency = latencyNanos;
+            return (latency > 0 ? latency : unknownLatencyNanos) * (outstanding.get() + 1)
+                    * (1 + definition.getFailurePenalty() * failureRate * penaltyWeight(now));
+        }
+
+        /**
+         * 惩罚在最后一次失败后的摘除时长内线性减弱到0，失败后不再被选中的端点不会一直得不到请求.
+         */
+        private double penaltyWeight(long now) {
+            if (ejectionNanos <= 0) {
+                return 0;
+            }
+            return Math.max(0, 1 - (double) (now - lastFailure) / ejectionNanos);
+        }
+
+        private void onResult(long nanos, boolean failure) {
+            outstanding.decrementAndGet();
+            val rate = failureRate;
+            failureRate = rate + ((failure ? 1 : 0) - rate) * SMOOTHING;
+            if (!failure) {
+                consecutiveFailures.set(0);
+                val current = latencyNanos;
+                latencyNanos = current == 0 ? nanos : current + (nanos - current) * SMOOTHING;
+                return;
+            }
+
+            lastFailure = System.nanoTime();
+            if (consecutiveFailures.incrementAndGet() >= definition.getEjectionThreshold()) {
+                consecutiveFailures.set(0);
+                ejectedUntil = System.nanoTime() + ejectionNanos;
+                ejected = true;
+                log.warn("service {} ejected {} for {}ms", definition.getName(), baseUrl,
+                        definition.getEjectionMillis());
+            }
+        }
+
+        /**
+         * 把逻辑地址的路径与查询串接到端点的基础地址上.
+         */
+        URI resolve(URI logical) {
+            val url = new StringBuilder(baseUrl);
+            if (logical.getRawPath() != null) {
+                url.append(logical.getRawPath());
+            }
+            if (logical.getRawQuery() != null) {
+                url.append('?').append(logical.getRawQuery());
+            }
+            return URI.create(url.toString());
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+
+    /**
+     * 一次调用（含重试）的端点选择状态，保存在执行上下文中.
+     */
+    static class Call {
+        private static final String ATTRIBUTE = "util.loadbalancer.call";
+
+        private final LoadBalancer balancer;
+        private final URI logical;
+        private final List<Endpoint> tried = new ArrayList<>();
+        private Endpoint current;
+        private ConcurrencyLimiter.Permit permit;
+        private long attemptStart;
+
+        Call(LoadBalancer balancer, URI logical) {
+            this.balancer = balancer;
+            this.logical = logical;
+        }
+
+        /**
+         * 取得上下文中的调用，不是负载均衡的调用时返回null.
+         */
+        static Call of(HttpClientContext context) {
+            return context.getAttribute(ATTRIBUTE, Call.class);
+        }
+
+        /**
+         * 为下一次尝试选定端点、取得端点路由的并发名额并改写请求地址.
+         *
+         * @throws ConcurrencyLimitExceededException 所选端点已达到并发上限
+         */
+        synchronized void next(HttpRequestBase request, ManagedClient client) throws ConcurrencyLimitExceededException {
+            val endpoint = balancer.choose(tried);
+            val uri = endpoint.resolve(logical);
+            permit = client.acquirePermit(uri);
+            current = endpoint;
+            tried.add(endpoint);
+            endpoint.outstanding.incrementAndGet();
+            attemptStart = System.nanoTime();
+            request.setURI(uri);
+        }
+
+        /**
+         * 记录本次尝试的结果.
+         *
+         * @param failure IOException 或 5xx 响应对应的 HttpResponseException，成功时为null
+         */
+        synchronized void complete(Throwable failure) {
+            if (current != null) {
+                current.onResult(System.nanoTime() - attemptStart, failure != null);
+                permit.release(failure);
+                current = null;
+            }
+        }
+
+        /**
+         * 本次尝试被取消，不计入统计.
+         */
+        synchronized void cancel() {
+            if (current != null) {
+                current.outstanding.decrementAndGet();
+                permit.release(new CancellationException());
+                current = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return SCHEME + "://" + definition.getName() + " " + endpoints;
+    }
+}
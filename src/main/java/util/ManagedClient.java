@@ -0,0 +1,473 @@
+package util;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 {@link ClientProfile} 创建的共享客户端，由 {@link ClientRegistry} 管理生命周期.
+ *
+ * <p>同步客户端在创建时即可用；异步客户端在第一次使用时才启动I/O线程。
+ *
+ * @author bjca
+ */
+@Slf4j
+public class ManagedClient {
+    @Getter
+    private final ClientProfile profile;
+    private final RouteAwareConnectionManager connectionManager;
+    @Getter
+    private final CloseableHttpClient client;
+    /**
+     * 响应缓存的命中统计，未启用缓存时为null.
+     */
+    @Getter
+    private final CacheStats cacheStats;
+    /**
+     * 同步连接池的TLS握手统计.
+     */
+    @Getter
+    private final TlsStats tlsStats;
+
+    private final RequestCompression requestCompression;
+    private final CircuitBreakers circuitBreakers;
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final Map<String, ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+    private final Map<String, LoadBalancer> loadBalancers = new HashMap<>();
+    private final HttpAsyncClientBuilderBuilder asyncBuilder;
+    private final RequestConfig requestConfig;
+    private final Http2Transport http2;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService callExecutor;
+    private final Lock asyncClientLock = new ReentrantLock();
+    private volatile PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private volatile CloseableHttpAsyncClient asyncClient;
+    private final ScheduledFuture<?> evictionTask;
+    private final ScheduledFuture<?> poolSizingTask;
+
+    ManagedClient(ClientProfile profile, ScheduledExecutorService scheduler) {
+        // 运行时不支持虚拟线程时在创建任何资源之前失败
+        this.callExecutor = profile.isVirtualThreads()
+                ? VirtualThreads.newThreadPerTaskExecutor("httpclient-virtual-" + profile.getName() + "-") : null;
+        val builder = new HttpClientBuilderBuilder(profile);
+        this.profile = profile;
+        this.connectionManager = builder.getPoolingConnectionManager();
+        this.client = builder.build(connectionManager).build();
+        this.cacheStats = builder.getCacheStats();
+        this.tlsStats = builder.getTlsStats();
+        this.circuitBreakers = builder.getCircuitBreakers();
+        this.requestCompression = profile.getRequestCompression() != null
+                ? new RequestCompression(profile.getRequestCompression(), profile.getMetrics()) : null;
+        this.asyncBuilder = new HttpAsyncClientBuilderBuilder(profile, builder);
+        this.requestConfig = builder.getRequestConfig();
+        this.scheduler = scheduler;
+        this.http2 = profile.getHttp2() != null ? new Http2Transport(this, circuitBreakers) : null;
+        for (val service : profile.getServices()) {
+            loadBalancers.put(service.getName().toLowerCase(Locale.ROOT), new LoadBalancer(service));
+        }
+        profile.getMetrics().bindPool(profile.getName(), connectionManager);
+
+        val interval = profile.getEvictionIntervalMillis();
+        this.evictionTask = interval > 0
+                ? scheduler.scheduleWithFixedDelay(this::evictConnections, interval, interval, TimeUnit.MILLISECONDS)
+                : null;
+
+        val sizing = profile.getAdaptivePoolSizing();
+        this.poolSizingTask = sizing != null
+                ? scheduler.scheduleWithFixedDelay(connectionManager::adjustRouteLimits,
+                sizing.getIntervalMillis(), sizing.getIntervalMillis(), TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * 同步连接池各路由的连接数与借用等待统计.
+     *
+     * @return 每个出现过的路由一条
+     */
+    public List<RoutePoolStats> getRouteStats() {
+        return connectionManager.getRouteStats();
+    }
+
+    /**
+     * 按 {@link ClientProfile#getWarmUpRoutes()} 预先建立连接.
+     *
+     * @param timeout 等待时长
+     * @param unit    时间单位
+     * @return 新建立的连接数
+     */
+    public int warmUp(long timeout, TimeUnit unit) {
+        return warmUp(profile.getWarmUpRoutes(), profile.getWarmUpConnectionsPerRoute(), timeout, unit);
+    }
+
+    /**
+     * 为每个路由预先建立连接（包括TLS握手）并放入同步连接池，避免启动后的第一批请求承担建连耗时.
+     *
+     * <p>同一路由的连接依次建立，后面的连接可以复用前面的TLS会话。单个路由失败只记录日志。
+     * 只预热同步调用的连接池：异步连接池在首次异步调用时才创建，不为预热提前启动 I/O 线程；
+     * 两者使用同一个 SSLContext，异步调用新建连接时仍可复用这里握手得到的会话。
+     *
+     * @param urls                路由或任意URL，只取协议、主机与端口
+     * @param connectionsPerRoute 每个路由的连接数，不超过路由的连接上限
+     * @param timeout             等待时长
+     * @param unit                时间单位
+     * @return 新建立的连接数
+     */
+    public int warmUp(Collection<String> urls, int connectionsPerRoute, long timeout, TimeUnit unit) {
+        val deadline = System.nanoTime() + unit.toNanos(timeout);
+        int opened = 0;
+        for (val url : urls) {
+            val route = toRoute(URI.create(url));
+            val count = Math.min(connectionsPerRoute, connectionManager.getMaxPerRoute(route));
+            val leased = new ArrayList<HttpClientConnection>(count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    val remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                    val conn = connectionManager.requestConnection(route, null)
+                            .get(remaining, TimeUnit.MILLISECONDS);
+                    leased.add(conn);
+                    if (!conn.isOpen()) {
+                        val context = HttpClientContext.create();
+                        connectionManager.connect(conn, route, profile.getConnectTimeoutMillis(), context);
+                        connectionManager.routeComplete(conn, route, context);
+                        opened++;
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("warm up {} failed: {}", route, e.toString());
+            } finally {
+                // 打开且已完成 routeComplete 的连接放回池中，其余的关闭
+                for (val conn : leased) {
+                    connectionManager.releaseConnection(conn, null,
+                            profile.getKeepAliveMaxMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        log.info("client {} warmed up {} connections, {}", profile.getName(), opened, tlsStats);
+        return opened;
+    }
+
+    /**
+     * 异步调用实际使用的连接池中URL所属路由的连接上限：启用虚拟线程时为同步连接池，否则为异步连接池.
+     */
+    int getRouteLimit(URI uri) {
+        val route = toRoute(uri);
+        if (callExecutor != null) {
+            return connectionManager.getRouteLimit(route);
+        }
+        getAsyncClient();
+        return asyncConnectionManager.getMaxPerRoute(route);
+    }
+
+    private static HttpRoute toRoute(URI uri) {
+        val secure = "https".equalsIgnoreCase(uri.getScheme());
+        val port = uri.getPort() > 0 ? uri.getPort() : secure ? 443 : 80;
+        return new HttpRoute(new HttpHost(uri.getHost(), port, secure ? "https" : "http"), null, secure);
+    }
+
+    /**
+     * 路由的熔断器，未启用熔断时返回null.
+     *
+     * @param route 路由，形如 {@code http://host:port}
+     * @return CircuitBreaker
+     */
+    public CircuitBreaker getCircuitBreaker(String route) {
+        return circuitBreakers == null ? null : circuitBreakers.get(route);
+    }
+
+    /**
+     * 路由的自适应并发限制器，未启用并发限制时返回null.
+     *
+     * @param route 路由，形如 {@code http://host:port}
+     * @return ConcurrencyLimiter
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter(String route) {
+        val settings = profile.getConcurrencyLimit();
+        return settings == null ? null : concurrencyLimiters.computeIfAbsent(route,
+                r -> new ConcurrencyLimiter(r, settings, profile.getMetrics()));
+    }
+
+    /**
+     * 为一次调用取得URL所属路由的并发名额，未启用并发限制时返回 {@link ConcurrencyLimiter.Permit#NONE}.
+     *
+     * @throws ConcurrencyLimitExceededException 已达到路由的并发上限
+     */
+    ConcurrencyLimiter.Permit acquirePermit(URI uri) throws ConcurrencyLimitExceededException {
+        val limiter = getConcurrencyLimiter(Routes.of(uri));
+        return limiter == null ? ConcurrencyLimiter.Permit.NONE : limiter.acquire();
+    }
+
+    /**
+     * 逻辑服务的负载均衡，没有登记该服务时返回null.
+     *
+     * @param service 服务名
+     * @return LoadBalancer
+     */
+    public LoadBalancer getLoadBalancer(String service) {
+        return loadBalancers.get(service.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 合并后没有实际发出的GET请求数.
+     *
+     * @return 请求数
+     */
+    public long getCoalescedCount() {
+        return singleFlight.getCoalescedCount();
+    }
+
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * 请求报文体压缩，未启用时为null.
+     */
+    RequestCompression getRequestCompression() {
+        return requestCompression;
+    }
+
+    /**
+     * 记录异步请求因异常失败，同步请求由重试处理器记录.
+     */
+    void onFailure(HttpContext context, Throwable exception) {
+        if (circuitBreakers != null) {
+            circuitBreakers.onFailure(context, exception);
+        }
+        if (exception instanceof ConnectionPoolTimeoutException) {
+            recordExhausted(context);
+        }
+    }
+
+    /**
+     * 异步连接池借用超时，同步连接池由 {@link RouteAwareConnectionManager} 记录.
+     */
+    private void recordExhausted(HttpContext context) {
+        val events = HttpEvents.get();
+        val manager = asyncConnectionManager;
+        if (events.isPoolExhaustedEnabled() && manager != null) {
+            val route = HttpClientContext.adapt(context).getHttpRoute();
+            PoolStats pool = route instanceof HttpRoute
+                    ? manager.getStats((HttpRoute) route) : manager.getTotalStats();
+            events.poolExhausted(Routes.of(context), pool);
+        }
+    }
+
+    /**
+     * 获取异步客户端，首次调用时创建并启动.
+     *
+     * @return 已启动的异步客户端
+     */
+    public CloseableHttpAsyncClient getAsyncClient() {
+        CloseableHttpAsyncClient result = asyncClient;
+        if (result == null) {
+            // 不用 synchronized：创建与启动客户端期间等待的虚拟线程不会占住载体线程
+            asyncClientLock.lock();
+            try {
+                result = asyncClient;
+                if (result == null) {
+                    asyncConnectionManager = asyncBuilder.getPoolingConnectionManager();
+                    profile.getMetrics().bindAsyncPool(profile.getName(), asyncConnectionManager);
+                    result = asyncBuilder.build(asyncConnectionManager).build();
+                    result.start();
+                    asyncClient = result;
+                }
+            } finally {
+                asyncClientLock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在虚拟线程上执行同步调用的执行器，没有启用 {@link ClientProfile#isVirtualThreads()} 时为null.
+     *
+     * @return 每个任务一个虚拟线程的执行器
+     */
+    ExecutorService getCallExecutor() {
+        return callExecutor;
+    }
+
+    /**
+     * URL所属路由的异步请求是否走 HTTP/2.
+     */
+    boolean isHttp2(URI uri) {
+        return http2 != null && http2.accepts(uri);
+    }
+
+    /**
+     * 路由是否因为协商失败已经回退到 HTTP/1.1.
+     *
+     * @param route 路由，形如 {@code https://host:port}
+     * @return 回退过返回true
+     */
+    public boolean isHttp2Fallback(String route) {
+        return http2 != null && http2.isFallback(route);
+    }
+
+    /**
+     * 执行一次异步请求，响应报文体读入内存并解压；启用 HTTP/2 的路由走多路复用连接，其余走 HTTP/1.1 连接池.
+     */
+    Future<HttpResponse> execute(HttpUriRequest request, long maxBodySize, HttpClientContext context,
+                                 FutureCallback<HttpResponse> callback) {
+        val deadline = Deadline.of(context);
+        if (deadline != null) {
+            // 异步客户端只在上下文没有设置时使用默认配置，这里先放入默认配置再按剩余时间缩短
+            if (context.getAttribute(HttpClientContext.REQUEST_CONFIG) == null) {
+                context.setRequestConfig(requestConfig);
+            }
+            try {
+                deadline.beforeAttempt(request, context, Routes.of(request.getURI()));
+            } catch (DeadlineExceededException e) {
+                val expired = new BasicFuture<HttpResponse>(callback);
+                expired.failed(e);
+                return expired;
+            }
+        }
+        if (isHttp2(request.getURI())) {
+            return http2.execute(request, maxBodySize, context, callback);
+        }
+        return executeHttp1(request, maxBodySize, context, callback);
+    }
+
+    Future<HttpResponse> executeHttp1(HttpUriRequest request, long maxBodySize, HttpClientContext context,
+                                      FutureCallback<HttpResponse> callback) {
+        val consumer = new DecompressingResponseConsumer(Routes.of(request.getURI()), maxBodySize, profile);
+        return getAsyncClient().execute(HttpAsyncMethods.create(request), consumer, context, callback);
+    }
+
+    /**
+     * 获取异步连接池，异步客户端尚未创建时返回null.
+     *
+     * @return 异步连接池
+     */
+    public PoolingNHttpClientConnectionManager getAsyncConnectionManager() {
+        return asyncConnectionManager;
+    }
+
+    /**
+     * 在维护线程上延迟执行任务，用于异步重试的退避，任务本身不能阻塞.
+     *
+     * @param task        任务
+     * @param delayMillis 延迟毫秒数
+     * @return 可用于取消的任务
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭过期（超过保活时间）与闲置过久的连接.
+     */
+    void evictConnections() {
+        val idle = profile.getIdleEvictMillis();
+        connectionManager.closeExpiredConnections();
+        if (idle > 0) {
+            connectionManager.closeIdleConnections(idle, TimeUnit.MILLISECONDS);
+        }
+
+        val async = asyncConnectionManager;
+        if (async != null) {
+            async.closeExpiredConnections();
+            if (idle > 0) {
+                async.closeIdleConnections(idle, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 等待已借出的连接归还后关闭客户端，超时后强制关闭.
+     *
+     * @param timeout 等待时长
+     * @param unit    时间单位
+     */
+    void close(long timeout, TimeUnit unit) {
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+        }
+        if (poolSizingTask != null) {
+            poolSizingTask.cancel(false);
+        }
+
+        if (callExecutor != null) {
+            // 不再接受新调用，进行中的调用随连接池等待结束
+            callExecutor.shutdown();
+        }
+
+        val deadline = System.nanoTime() + unit.toNanos(timeout);
+        awaitIdle(connectionManager, deadline);
+        closeQuietly(client);
+
+        val async = asyncClient;
+        if (async != null) {
+            awaitIdle(asyncConnectionManager, deadline);
+            closeQuietly(async);
+        }
+        if (http2 != null) {
+            http2.close();
+        }
+    }
+
+    private void awaitIdle(ConnPoolControl<?> pool, long deadline) {
+        while (pool.getTotalStats().getLeased() > 0 && System.nanoTime() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        val leased = pool.getTotalStats().getLeased();
+        if (leased > 0) {
+            log.warn("client {} closing with {} leased connections", profile.getName(), leased);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package util;
+
+import lombok.val;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 向 {@link HttpMetrics} 报告借用等待、建立连接耗时与收发字节数的异步连接池.
+ *
+ * <p>与 {@link RouteAwareConnectionManager} 报告相同的指标。异步连接池在借用过程中建立新连接，
+ * 因此新连接的建立耗时是从请求借用到拿到连接的时间，包含排队时间，不含之后在 I/O 线程上完成的 TLS 握手；
+ * 借用超时之外的借用失败记为一次建立连接失败。
+ *
+ * @author bjca
+ */
+class MeteredNHttpClientConnectionManager extends PoolingNHttpClientConnectionManager {
+    private final HttpMetrics metrics;
+    /**
+     * 借出中的连接所属的路由，归还时据此统计收发字节数.
+     */
+    private final ConcurrentMap<NHttpClientConnection, HttpRoute> leasedRoutes = new ConcurrentHashMap<>();
+
+    MeteredNHttpClientConnectionManager(ConnectingIOReactor ioReactor, Registry<SchemeIOSessionStrategy> registry,
+                                        DnsResolver dnsResolver, HttpMetrics metrics) {
+        super(ioReactor, null, registry, dnsResolver);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Future<NHttpClientConnection> requestConnection(HttpRoute route, Object state, long connectTimeout,
+                                                           long leaseTimeout, TimeUnit unit,
+                                                           FutureCallback<NHttpClientConnection> callback) {
+        val start = System.nanoTime();
+        val name = Routes.of(route);
+        return super.requestConnection(route, state, connectTimeout, leaseTimeout, unit,
+                new FutureCallback<NHttpClientConnection>() {
+                    @Override
+                    public void completed(NHttpClientConnection conn) {
+                        val nanos = System.nanoTime() - start;
+                        leasedRoutes.put(conn, route);
+                        metrics.recordLease(name, nanos, false);
+                        if (!isRouteComplete(conn)) {
+                            metrics.recordConnect(name, nanos, true);
+                        }
+                        if (callback != null) {
+                            callback.completed(conn);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        val nanos = System.nanoTime() - start;
+                        val timedOut = e instanceof TimeoutException;
+                        metrics.recordLease(name, nanos, timedOut);
+                        if (!timedOut) {
+                            metrics.recordConnect(name, nanos, false);
+                        }
+                        if (callback != null) {
+                            callback.failed(e);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        metrics.recordLease(name, System.nanoTime() - start, false);
+                        if (callback != null) {
+                            callback.cancelled();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void releaseConnection(NHttpClientConnection managedConn, Object state, long keepAlive, TimeUnit unit) {
+        val route = leasedRoutes.remove(managedConn);
+        try {
+            val connMetrics = managedConn.getMetrics();
+            if (route != null) {
+                metrics.recordBytes(Routes.of(route), connMetrics.getSentBytesCount(),
+                        connMetrics.getReceivedBytesCount());
+            }
+            connMetrics.reset();
+        } catch (RuntimeException e) {
+            // 连接已经脱离连接池，没有可统计的数据
+        }
+        super.releaseConnection(managedConn, state, keepAlive, unit);
+    }
+}
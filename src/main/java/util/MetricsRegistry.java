@@ -0,0 +1,403 @@
+package util;
+
+import lombok.val;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.ConnPoolControl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存中的 {@link HttpMetrics} 实现：按方法与路由分别记录耗时直方图和计数器，并导出连接池状态.
+ *
+ * <p>{@link #scrape()} 以 Prometheus 文本格式输出全部指标，耗时单位为秒。
+ * 直方图与计数器都是无锁的，适合放在请求路径上；每个路由的指标首次记录时登记一次，
+ * 之后按路由与方法从缓存中取出，不再拼接指标键。
+ *
+ * @author bjca
+ */
+public class MetricsRegistry implements HttpMetrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final SeriesId LEASE = new SeriesId("httpclient_lease_seconds");
+    private static final SeriesId LEASE_TIMEOUTS = new SeriesId("httpclient_lease_timeouts_total");
+    private static final SeriesId CONNECT_SUCCESS = new SeriesId("httpclient_connect_seconds", "outcome", "success");
+    private static final SeriesId CONNECT_FAILURE = new SeriesId("httpclient_connect_seconds", "outcome", "failure");
+    private static final SeriesId SENT = new SeriesId("httpclient_sent_bytes_total");
+    private static final SeriesId RECEIVED = new SeriesId("httpclient_received_bytes_total");
+    private static final SeriesId CONCURRENCY_LIMIT = new SeriesId("httpclient_concurrency_limit");
+    private static final SeriesId CONCURRENCY_REJECTIONS = new SeriesId("httpclient_concurrency_rejections_total");
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConnPoolControl<HttpRoute>> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConnPoolControl<HttpRoute>> asyncPools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RouteSeries> routes = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordRequest(String method, String route, long nanos, boolean success) {
+        route(route).request(method, success).record(nanos);
+    }
+
+    @Override
+    public void recordLease(String route, long nanos, boolean timedOut) {
+        val series = route(route);
+        series.histogram(LEASE).record(nanos);
+        if (timedOut) {
+            series.counter(LEASE_TIMEOUTS).increment();
+        }
+    }
+
+    @Override
+    public void recordConnect(String route, long nanos, boolean success) {
+        route(route).histogram(success ? CONNECT_SUCCESS : CONNECT_FAILURE).record(nanos);
+    }
+
+    @Override
+    public void recordBytes(String route, long sent, long received) {
+        val series = route(route);
+        series.counter(SENT).add(sent);
+        series.counter(RECEIVED).add(received);
+    }
+
+    @Override
+    public void recordCompression(String route, String direction, long originalBytes, long compressedBytes) {
+        val compression = route(route).compression(direction);
+        compression[0].add(originalBytes);
+        compression[1].add(compressedBytes);
+    }
+
+    @Override
+    public void recordRetry(String route, Throwable exception) {
+        route(route).retry(exception.getClass()).increment();
+    }
+
+    @Override
+    public void recordConcurrencyLimit(String route, int limit) {
+        route(route).gauge(CONCURRENCY_LIMIT).set(limit);
+    }
+
+    @Override
+    public void recordConcurrencyRejection(String route) {
+        route(route).counter(CONCURRENCY_REJECTIONS).increment();
+    }
+
+    @Override
+    public void recordException(String method, String route, Throwable exception) {
+        route(route).exception(method, exception.getClass()).increment();
+    }
+
+    @Override
+    public void bindPool(String client, ConnPoolControl<HttpRoute> pool) {
+        pools.put(client, pool);
+    }
+
+    @Override
+    public void bindAsyncPool(String client, ConnPoolControl<HttpRoute> pool) {
+        asyncPools.put(client, pool);
+    }
+
+    /**
+     * 取得请求耗时直方图，没有记录时返回null.
+     *
+     * @param method  请求方法
+     * @param route   路由，形如 {@code http://host:port}
+     * @param success 成功或失败的调用
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getRequestHistogram(String method, String route, boolean success) {
+        return histograms.get(key("httpclient_request_seconds", "method", method, "route", route,
+                "outcome", success ? "success" : "failure"));
+    }
+
+    /**
+     * 取得压缩率，即压缩后与压缩前的字节数之比.
+     *
+     * @param route     路由，形如 {@code http://host:port}
+     * @param direction {@code request} 或 {@code response}
+     * @return 压缩率，没有记录时为 NaN
+     */
+    public double getCompressionRatio(String route, String direction) {
+        val original = getCount("httpclient_compression_original_bytes_total", "route", route, "direction", direction);
+        val compressed = getCount("httpclient_compression_compressed_bytes_total", "route", route,
+                "direction", direction);
+        return original == 0 ? Double.NaN : (double) compressed / original;
+    }
+
+    /**
+     * 取得计数器当前值.
+     *
+     * @param name   指标名，例如 {@code httpclient_retries_total}
+     * @param labels 交替给出的标签名与标签值
+     * @return 计数，没有记录时为0
+     */
+    public long getCount(String name, String... labels) {
+        val counter = counters.get(key(name, labels));
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 取得最近一次记录的指标值.
+     *
+     * @param name   指标名，例如 {@code httpclient_concurrency_limit}
+     * @param labels 交替给出的标签名与标签值
+     * @return 指标值，没有记录时为-1
+     */
+    public long getGauge(String name, String... labels) {
+        val gauge = gauges.get(key(name, labels));
+        return gauge == null ? -1 : gauge.get();
+    }
+
+    /**
+     * 以 Prometheus 文本格式导出所有指标，每个指标名前有一行 {@code # TYPE}.
+     *
+     * <p>耗时直方图导出为 summary，最大值另作一个 {@code _max} 结尾的 gauge。
+     *
+     * @return 指标文本
+     */
+    public String scrape() {
+        val out = new StringBuilder();
+
+        val summaries = new TreeMap<String, StringBuilder>();
+        val maxima = new TreeMap<String, StringBuilder>();
+        for (val entry : new TreeMap<>(histograms).entrySet()) {
+            val name = nameOf(entry.getKey());
+            val labels = entry.getKey().substring(name.length() + 1, entry.getKey().length() - 1);
+            val histogram = entry.getValue();
+            val summary = summaries.computeIfAbsent(name, k -> new StringBuilder());
+            for (double quantile : QUANTILES) {
+                summary.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.getValueAtQuantile(quantile))).append('\n');
+            }
+            summary.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+            summary.append(name).append("_sum{").append(labels).append("} ")
+                    .append(seconds(histogram.getSumNanos())).append('\n');
+            maxima.computeIfAbsent(name + "_max", k -> new StringBuilder())
+                    .append(name).append("_max{").append(labels).append("} ")
+                    .append(seconds(histogram.getMaxNanos())).append('\n');
+        }
+        appendFamilies(out, "summary", summaries);
+        appendFamilies(out, "gauge", maxima);
+
+        val counterLines = new TreeMap<String, StringBuilder>();
+        for (val entry : new TreeMap<>(counters).entrySet()) {
+            counterLines.computeIfAbsent(nameOf(entry.getKey()), k -> new StringBuilder())
+                    .append(entry.getKey()).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        appendFamilies(out, "counter", counterLines);
+
+        val gaugeLines = new TreeMap<String, StringBuilder>();
+        for (val entry : new TreeMap<>(gauges).entrySet()) {
+            gaugeLines.computeIfAbsent(nameOf(entry.getKey()), k -> new StringBuilder())
+                    .append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        appendFamilies(out, "gauge", gaugeLines);
+
+        val poolStats = new ArrayList<PoolRow>();
+        for (val entry : new TreeMap<>(pools).entrySet()) {
+            addPool(poolStats, "client=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        }
+        for (val entry : new TreeMap<>(asyncPools).entrySet()) {
+            addPool(poolStats, "client=\"" + escape(entry.getKey()) + "\",pool=\"async\"", entry.getValue());
+        }
+        appendPool(out, "httpclient_pool_leased", poolStats, 0);
+        appendPool(out, "httpclient_pool_pending", poolStats, 1);
+        appendPool(out, "httpclient_pool_available", poolStats, 2);
+        appendPool(out, "httpclient_pool_max", poolStats, 3);
+
+        return out.toString();
+    }
+
+    private static void appendFamilies(StringBuilder out, String type, Map<String, StringBuilder> families) {
+        for (val family : families.entrySet()) {
+            out.append("# TYPE ").append(family.getKey()).append(' ').append(type).append('\n')
+                    .append(family.getValue());
+        }
+    }
+
+    private static void addPool(List<PoolRow> rows, String labels, ConnPoolControl<HttpRoute> pool) {
+        val total = pool.getTotalStats();
+        rows.add(new PoolRow(labels, total.getLeased(), total.getPending(), total.getAvailable(), total.getMax()));
+        if (pool instanceof RouteAwareConnectionManager) {
+            for (val route : ((RouteAwareConnectionManager) pool).getRouteStats()) {
+                rows.add(new PoolRow(labels + ",route=\"" + escape(route.getRoute()) + "\"",
+                        route.getLeased(), route.getPending(), route.getAvailable(), route.getMax()));
+            }
+        } else if (pool instanceof PoolingNHttpClientConnectionManager) {
+            val manager = (PoolingNHttpClientConnectionManager) pool;
+            for (val route : manager.getRoutes()) {
+                val stats = manager.getStats(route);
+                rows.add(new PoolRow(labels + ",route=\"" + escape(Routes.of(route)) + "\"",
+                        stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax()));
+            }
+        }
+    }
+
+    private static void appendPool(StringBuilder out, String name, List<PoolRow> rows, int column) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        for (val row : rows) {
+            out.append(name).append('{').append(row.labels).append("} ").append(row.values[column]).append('\n');
+        }
+    }
+
+    private RouteSeries route(String route) {
+        val name = String.valueOf(route);
+        val series = routes.get(name);
+        return series != null ? series : routes.computeIfAbsent(name, RouteSeries::new);
+    }
+
+    private LatencyHistogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(key(name, labels), k -> new LatencyHistogram());
+    }
+
+    private LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(key(name, labels), k -> new LongAdder());
+    }
+
+    private static String nameOf(String key) {
+        return key.substring(0, key.indexOf('{'));
+    }
+
+    private static String key(String name, String... labels) {
+        val key = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return key.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    /**
+     * 只带路由标签（及固定的附加标签）的指标，按对象身份作缓存键.
+     */
+    private static final class SeriesId {
+        private final String name;
+        private final String[] labels;
+
+        SeriesId(String name, String... labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        String[] labels(String route) {
+            val all = new String[labels.length + 2];
+            all[0] = "route";
+            all[1] = route;
+            System.arraycopy(labels, 0, all, 2, labels.length);
+            return all;
+        }
+    }
+
+    private static final class PoolRow {
+        private final String labels;
+        private final int[] values;
+
+        PoolRow(String labels, int leased, int pending, int available, int max) {
+            this.labels = labels;
+            this.values = new int[]{leased, pending, available, max};
+        }
+    }
+
+    /**
+     * 一个路由已登记的指标，键只在首次记录时拼接一次.
+     */
+    private final class RouteSeries {
+        private final String route;
+        private final ConcurrentMap<SeriesId, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+        private final ConcurrentMap<SeriesId, LongAdder> counters = new ConcurrentHashMap<>();
+        private final ConcurrentMap<SeriesId, AtomicLong> gauges = new ConcurrentHashMap<>();
+        /**
+         * 按方法分别缓存成功与失败的请求耗时.
+         */
+        private final ConcurrentMap<String, LatencyHistogram[]> requests = new ConcurrentHashMap<>();
+        /**
+         * 按方向分别缓存压缩前与压缩后的字节数.
+         */
+        private final ConcurrentMap<String, LongAdder[]> compression = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, LongAdder> retries = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, ConcurrentMap<Class<?>, LongAdder>> exceptions = new ConcurrentHashMap<>();
+
+        RouteSeries(String route) {
+            this.route = route;
+        }
+
+        LatencyHistogram histogram(SeriesId id) {
+            val histogram = histograms.get(id);
+            return histogram != null ? histogram
+                    : histograms.computeIfAbsent(id, k -> MetricsRegistry.this.histogram(k.name, k.labels(route)));
+        }
+
+        LongAdder counter(SeriesId id) {
+            val counter = counters.get(id);
+            return counter != null ? counter
+                    : counters.computeIfAbsent(id, k -> MetricsRegistry.this.counter(k.name, k.labels(route)));
+        }
+
+        AtomicLong gauge(SeriesId id) {
+            val gauge = gauges.get(id);
+            return gauge != null ? gauge : gauges.computeIfAbsent(id,
+                    k -> MetricsRegistry.this.gauges.computeIfAbsent(key(k.name, k.labels(route)), g -> new AtomicLong()));
+        }
+
+        LatencyHistogram request(String method, boolean success) {
+            LatencyHistogram[] byOutcome = requests.get(method);
+            if (byOutcome == null) {
+                byOutcome = requests.computeIfAbsent(method, m -> new LatencyHistogram[]{
+                        MetricsRegistry.this.histogram("httpclient_request_seconds",
+                                "method", m, "route", route, "outcome", "success"),
+                        MetricsRegistry.this.histogram("httpclient_request_seconds",
+                                "method", m, "route", route, "outcome", "failure")});
+            }
+            return byOutcome[success ? 0 : 1];
+        }
+
+        LongAdder[] compression(String direction) {
+            val counters = compression.get(direction);
+            return counters != null ? counters : compression.computeIfAbsent(direction, d -> new LongAdder[]{
+                    MetricsRegistry.this.counter("httpclient_compression_original_bytes_total",
+                            "route", route, "direction", d),
+                    MetricsRegistry.this.counter("httpclient_compression_compressed_bytes_total",
+                            "route", route, "direction", d)});
+        }
+
+        LongAdder retry(Class<?> exception) {
+            val counter = retries.get(exception);
+            return counter != null ? counter : retries.computeIfAbsent(exception,
+                    e -> MetricsRegistry.this.counter("httpclient_retries_total",
+                            "route", route, "exception", e.getSimpleName()));
+        }
+
+        LongAdder exception(String method, Class<?> exception) {
+            ConcurrentMap<Class<?>, LongAdder> byException = exceptions.get(method);
+            if (byException == null) {
+                byException = exceptions.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+            }
+            val counter = byException.get(exception);
+            return counter != null ? counter : byException.computeIfAbsent(exception,
+                    e -> MetricsRegistry.this.counter("httpclient_exceptions_total",
+                            "method", method, "route", route, "exception", e.getSimpleName()));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package util;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * 批量执行中的一个请求，见 {@link HttpInvoker#executeAll}.
+ *
+ * @author bjca
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class Request {
+    /**
+     * 请求类型.
+     */
+    public enum Type {
+        GET, POST_JSON, POST_FORM
+    }
+
+    Type type;
+    String url;
+    Map<String, String> params;
+    Map<String, String> headers;
+    String jsonContent;
+
+    /**
+     * GET请求.
+     *
+     * @param url     请求地址
+     * @param params  查询参数，没有参数时，传null
+     * @param headers 请求头，没有请求头时，传null
+     * @return Request
+     */
+    public static Request get(String url, Map<String, String> params, Map<String, String> headers) {
+        return new Request(Type.GET, url, params, headers, null);
+    }
+
+    /**
+     * JSON请求体的POST请求.
+     *
+     * @param url         请求地址
+     * @param jsonContent JSON请求体
+     * @return Request
+     */
+    public static Request postJSON(String url, String jsonContent) {
+        return new Request(Type.POST_JSON, url, null, null, jsonContent);
+    }
+
+    /**
+     * 表单POST请求.
+     *
+     * @param url     请求地址
+     * @param params  表单参数，没有参数时，传null
+     * @param headers 请求头，没有请求头时，传null
+     * @return Request
+     */
+    public static Request postForm(String url, Map<String, String> params, Map<String, String> headers) {
+        return new Request(Type.POST_FORM, url, params, headers, null);
+    }
+}
@@ -0,0 +1,119 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.ByteArrayBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 按 {@link CompressionSettings} 压缩请求报文体，并记录压缩前后的字节数.
+ *
+ * @author bjca
+ */
+@Slf4j
+class RequestCompression {
+    private final CompressionSettings settings;
+    private final HttpMetrics metrics;
+    private final Map<RoutePattern, Boolean> rules = new LinkedHashMap<>();
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+    RequestCompression(CompressionSettings settings, HttpMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+        for (val entry : settings.getRoutes().entrySet()) {
+            rules.put(RoutePattern.parse(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * 需要时把报文体压缩为带 Content-Encoding 的新实体，否则原样返回.
+     *
+     * <p>只压缩长度已知且可重复的实体，已经编码过的实体不再压缩；压缩失败时原样返回.
+     */
+    HttpEntity compress(URI uri, HttpEntity entity) {
+        val length = entity.getContentLength();
+        if (length < settings.getMinSize() || !entity.isRepeatable() || entity.getContentEncoding() != null) {
+            return entity;
+        }
+
+        val route = Routes.of(uri);
+        if (!decisions.computeIfAbsent(route, this::isEnabled)) {
+            return entity;
+        }
+
+        val buffer = new ByteArrayBuffer((int) Math.min(length / 2 + 64, Integer.MAX_VALUE));
+        try (val out = open(new BufferOutputStream(buffer))) {
+            entity.writeTo(out);
+        } catch (IOException e) {
+            log.warn("compress request body for {} failed, sending it uncompressed: {}", uri, e.toString());
+            return entity;
+        }
+
+        val compressed = new ByteArrayEntity(buffer.buffer(), 0, buffer.length());
+        compressed.setContentType(entity.getContentType());
+        compressed.setContentEncoding(settings.getEncoding().getToken());
+        metrics.recordCompression(route, "request", length, buffer.length());
+        return compressed;
+    }
+
+    private boolean isEnabled(String route) {
+        val target = URI.create(route);
+        for (val entry : rules.entrySet()) {
+            if (entry.getKey().matches(target.getHost(), target.getPort())) {
+                return entry.getValue();
+            }
+        }
+        return settings.isEnabledByDefault();
+    }
+
+    private DeflaterOutputStream open(OutputStream out) throws IOException {
+        val level = settings.getLevel();
+        if (settings.getEncoding() == CompressionSettings.Encoding.DEFLATE) {
+            return new DeflaterOutputStream(out, new Deflater(level)) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    def.end();
+                }
+            };
+        }
+
+        return new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * 直接写入 ByteArrayBuffer，省去 ByteArrayOutputStream 在取结果时的复制.
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final ByteArrayBuffer buffer;
+
+        BufferOutputStream(ByteArrayBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.append(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.append(b, off, len);
+        }
+    }
+}
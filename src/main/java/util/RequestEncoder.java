@@ -0,0 +1,217 @@
+package util;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * 查询串与表单报文体的编码器.
+ *
+ * <p>按 application/x-www-form-urlencoded 规则（与 {@code URLEncodedUtils.format} 一致，空格编码为 {@code +}）
+ * 把参数直接写入线程内复用的字节缓冲区，不创建 NameValuePair、实体或中间字符串。
+ *
+ * @author bjca
+ */
+public final class RequestEncoder {
+    /**
+     * 不需要编码的字符.
+     */
+    private static final BitSet SAFE = new BitSet(128);
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * 线程内缓冲区超过该大小时用完即丢弃，避免长期占用内存.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            SAFE.set(c);
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            SAFE.set(c);
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            SAFE.set(c);
+        }
+        SAFE.set('_');
+        SAFE.set('-');
+        SAFE.set('.');
+        SAFE.set('*');
+    }
+
+    private RequestEncoder() {
+    }
+
+    /**
+     * 把参数编码后追加到URL的查询串.
+     *
+     * @param url     请求地址，可以已经带有查询串
+     * @param params  参数，为null或为空时原样返回URL
+     * @param charset 字符集
+     * @return 带查询串的URL
+     */
+    public static String appendQuery(String url, Map<String, String> params, Charset charset) {
+        if (params == null || params.isEmpty()) {
+            return url;
+        }
+
+        Buffer buffer = BUFFER.get();
+        try {
+            appendUrl(buffer, url);
+            buffer.append(url.indexOf('?') < 0 ? '?' : '&');
+            encode(buffer, params, charset);
+            // 编码结果只含ASCII，按 ISO-8859-1 解码即可，不再经过字符集转换
+            return new String(buffer.bytes, 0, buffer.length, StandardCharsets.ISO_8859_1);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * 把参数编码为表单报文体.
+     *
+     * @param params  参数
+     * @param charset 字符集
+     * @return Content-Type 为 application/x-www-form-urlencoded 的可重复实体
+     */
+    public static HttpEntity formEntity(Map<String, String> params, Charset charset) {
+        Buffer buffer = BUFFER.get();
+        try {
+            encode(buffer, params, charset);
+            return new ByteArrayEntity(Arrays.copyOf(buffer.bytes, buffer.length),
+                    ContentType.create(ContentType.APPLICATION_FORM_URLENCODED.getMimeType(), charset));
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * 原样写入URL，其中的非ASCII字符按UTF-8转义.
+     */
+    private static void appendUrl(Buffer buffer, String url) {
+        int length = url.length();
+        for (int i = 0; i < length; i++) {
+            char c = url.charAt(i);
+            if (c < 128) {
+                buffer.append(c);
+            } else {
+                i = encodeUtf8(buffer, url, i);
+            }
+        }
+    }
+
+    /**
+     * 把参数编码后写入缓冲区，形如 {@code a=1&b=2}.
+     */
+    private static void encode(Buffer buffer, Map<String, String> params, Charset charset) {
+        boolean first = true;
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            if (!first) {
+                buffer.append('&');
+            }
+            first = false;
+            encode(buffer, entry.getKey(), charset);
+            if (entry.getValue() != null) {
+                buffer.append('=');
+                encode(buffer, entry.getValue(), charset);
+            }
+        }
+    }
+
+    private static void encode(Buffer buffer, String value, Charset charset) {
+        boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128 && SAFE.get(c)) {
+                buffer.append(c);
+            } else if (c == ' ') {
+                buffer.append('+');
+            } else if (c < 128) {
+                buffer.appendEscaped(c);
+            } else if (utf8) {
+                i = encodeUtf8(buffer, value, i);
+            } else {
+                int end = Character.isHighSurrogate(c) && i + 1 < length ? i + 2 : i + 1;
+                for (byte b : value.substring(i, end).getBytes(charset)) {
+                    buffer.appendEscaped(b & 0xFF);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    /**
+     * 把非ASCII字符按UTF-8编码并转义.
+     *
+     * @return 最后处理的字符下标
+     */
+    private static int encodeUtf8(Buffer buffer, String value, int i) {
+        char c = value.charAt(i);
+        if (c < 0x800) {
+            buffer.appendEscaped(0xC0 | c >> 6);
+            buffer.appendEscaped(0x80 | c & 0x3F);
+            return i;
+        }
+
+        if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, value.charAt(i + 1));
+            buffer.appendEscaped(0xF0 | cp >> 18);
+            buffer.appendEscaped(0x80 | cp >> 12 & 0x3F);
+            buffer.appendEscaped(0x80 | cp >> 6 & 0x3F);
+            buffer.appendEscaped(0x80 | cp & 0x3F);
+            return i + 1;
+        }
+
+        if (Character.isSurrogate(c)) {
+            // 不成对的代理字符，与 String.getBytes 一样替换为 '?'
+            buffer.appendEscaped('?');
+            return i;
+        }
+
+        buffer.appendEscaped(0xE0 | c >> 12);
+        buffer.appendEscaped(0x80 | c >> 6 & 0x3F);
+        buffer.appendEscaped(0x80 | c & 0x3F);
+        return i;
+    }
+
+    /**
+     * 可增长的字节缓冲区.
+     */
+    private static final class Buffer {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        void append(char c) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) c;
+        }
+
+        void appendEscaped(int b) {
+            ensureCapacity(3);
+            bytes[length++] = '%';
+            bytes[length++] = HEX[b >> 4 & 0xF];
+            bytes[length++] = HEX[b & 0xF];
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void reset() {
+            length = 0;
+            if (bytes.length > MAX_RETAINED_BUFFER) {
+                bytes = new byte[256];
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * 响应报文体超过允许的最大长度.
+ *
+ * @author bjca
+ */
+public class ResponseBodyTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ResponseBodyTooLargeException(long maxBodySize) {
+        super("响应报文体超过最大限制 " + maxBodySize + " 字节");
+    }
+}
@@ -0,0 +1,43 @@
+package util;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+
+/**
+ * 客户端响应缓存参数.
+ *
+ * <p>遵循 {@code Cache-Control}/{@code Expires} 语义，按URL（含查询参数）与 {@code Vary} 指定的请求头区分缓存项，
+ * 过期后用 {@code If-None-Match}/{@code If-Modified-Since} 条件请求重新校验。
+ * 报文体保存在内存中，按字节数做LRU淘汰；设置 {@link #diskCacheDir} 后所有报文体写入磁盘，
+ * 内存作为前一级只保留最近从磁盘读到的报文体。
+ *
+ * <p>缓存只在同步客户端上生效。异步调用、对冲调用、HTTP/2 与 {@code lb://} 调用都走异步客户端，
+ * 不读也不写缓存；{@link HttpInvoker#withCoalescing(boolean)} 合并的异步GET同样不经过缓存。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class ResponseCacheSettings {
+    /**
+     * 最多缓存的响应数.
+     */
+    @Builder.Default
+    int maxCacheEntries = 1000;
+    /**
+     * 单个响应报文体的最大字节数，超过的响应不缓存.
+     */
+    @Builder.Default
+    long maxObjectSize = 1024 * 1024;
+    /**
+     * 内存中所有报文体的总字节数上限，使用磁盘缓存时限制的是内存一级.
+     */
+    @Builder.Default
+    long maxTotalSize = 64 * 1024 * 1024;
+    /**
+     * 报文体写入的磁盘目录，为null时只使用内存；客户端关闭时删除其中的缓存文件.
+     */
+    File diskCacheDir;
+}
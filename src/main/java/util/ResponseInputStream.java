@@ -0,0 +1,72 @@
+package util;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 响应报文体输入流，关闭时释放底层响应并归还并发名额.
+ *
+ * <p>读到末尾后关闭，连接归还连接池；未读到末尾就关闭时先关闭响应，连接随之断开，
+ * 不读取剩余的报文体，大报文体也能立即返回。
+ *
+ * @author bjca
+ */
+class ResponseInputStream extends FilterInputStream {
+    private final CloseableHttpResponse response;
+    private final ConcurrencyLimiter.Permit permit;
+    private boolean eof;
+    private boolean closed;
+
+    ResponseInputStream(InputStream in, CloseableHttpResponse response, ConcurrencyLimiter.Permit permit) {
+        super(in);
+        this.response = response;
+        this.permit = permit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            eof = true;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n == -1) {
+            eof = true;
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        permit.release(null);
+        if (!eof) {
+            // 关闭报文体流会读完剩余内容以复用连接，且不受 maxBodySize 限制；先关闭响应直接断开连接
+            response.close();
+            try {
+                super.close();
+            } catch (IOException e) {
+                // 连接已断开，报文体不完整是预期的
+            }
+            return;
+        }
+
+        try {
+            super.close();
+        } finally {
+            response.close();
+        }
+    }
+}
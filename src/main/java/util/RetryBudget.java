@@ -0,0 +1,56 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶形式的重试预算：每个新请求存入 ratio 个令牌，每次重试取出1个令牌，令牌不足时不再重试.
+ *
+ * <p>于是重试带来的额外负载不会超过正常流量的 ratio 倍，后端故障时不会因为重试而被放大。
+ *
+ * @author bjca
+ */
+class RetryBudget {
+    /**
+     * 令牌以千分之一为单位计数，避免浮点运算.
+     */
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long maxTokens;
+    private final AtomicLong tokens;
+
+    /**
+     * @param ratio     每个请求存入的令牌数，例如0.1表示最多增加10%的负载
+     * @param maxTokens 桶容量，也是初始令牌数，允许低流量时少量重试
+     */
+    RetryBudget(double ratio, int maxTokens) {
+        this.deposit = (long) (ratio * SCALE);
+        this.maxTokens = maxTokens * SCALE;
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    void deposit() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= maxTokens) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(maxTokens, current + deposit)));
+    }
+
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    double getTokens() {
+        return tokens.get() / (double) SCALE;
+    }
+}
@@ -0,0 +1,419 @@
+package util;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ServiceUnavailableRetryStrategy;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 重试策略：异常分类、指数退避加抖动、按路由的重试预算，以及按状态码（503/429）重试.
+ *
+ * <p>同步客户端通过 {@link #toRetryHandler} 与 {@link #toServiceUnavailableRetryStrategy} 接入，
+ * 异步调用直接使用 {@link #backoffMillis} 的结果在调度线程上延迟重发，不占用I/O线程。
+ *
+ * @author bjca
+ */
+@Slf4j
+public class RetryPolicy {
+    /**
+     * 表示不重试的退避时长.
+     */
+    public static final long NO_RETRY = -1;
+
+    private static final String ATTEMPTS = "util.retry.attempts";
+
+    /**
+     * 最多执行次数（含首次）.
+     */
+    @Getter
+    private final int maxAttempts;
+    /**
+     * 首次重试前的退避时长.
+     */
+    @Getter
+    private final long initialBackoffMillis;
+    /**
+     * 退避时长上限.
+     */
+    @Getter
+    private final long maxBackoffMillis;
+    /**
+     * 每次重试退避时长的增长倍数.
+     */
+    @Getter
+    private final double multiplier;
+    /**
+     * 抖动比例，取值0~1，实际退避时长在 [base * (1 - jitter), base] 之间均匀分布.
+     */
+    @Getter
+    private final double jitter;
+    /**
+     * 需要重试的响应状态码，只对幂等请求生效.
+     */
+    @Getter
+    private final Set<Integer> retryStatusCodes;
+    /**
+     * Retry-After 超过该时长时不再重试.
+     */
+    @Getter
+    private final long maxRetryAfterMillis;
+    /**
+     * 每个请求存入重试预算的令牌数，0.1表示重试最多带来10%的额外请求，小于等于0表示不限制.
+     */
+    @Getter
+    private final double budgetRatio;
+    /**
+     * 每个路由重试预算的容量.
+     */
+    @Getter
+    private final int budgetMaxTokens;
+    /**
+     * 调用设置了截止时间时，退避之后剩余时间少于该时长就不再重试.
+     */
+    @Getter
+    private final long minAttemptMillis;
+
+    private final ClassValue<Decision> classifier;
+    private final Map<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+    private final ThreadLocal<Long> retryInterval = new ThreadLocal<>();
+
+    @Builder
+    private RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double multiplier,
+                        double jitter, @Singular Map<Class<? extends IOException>, Boolean> exceptions,
+                        @Singular Set<Integer> retryStatusCodes, long maxRetryAfterMillis,
+                        double budgetRatio, int budgetMaxTokens, long minAttemptMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.multiplier = multiplier;
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        this.retryStatusCodes = retryStatusCodes;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+        this.budgetRatio = budgetRatio;
+        this.budgetMaxTokens = budgetMaxTokens;
+        this.minAttemptMillis = minAttemptMillis;
+        this.classifier = new ClassValue<Decision>() {
+            @Override
+            protected Decision computeValue(Class<?> type) {
+                return classify(exceptions, type);
+            }
+        };
+    }
+
+    /**
+     * 创建构建器，预置默认的异常分类与退避参数.
+     *
+     * <p>默认对连接失败、超时、服务端断开重试；对域名解析失败、SSL异常与报文体超限不重试；
+     * 其他 IOException 只对幂等请求重试。调用 {@code clearExceptions()} 可清空预置的分类。
+     *
+     * @return RetryPolicyBuilder
+     */
+    public static RetryPolicyBuilder builder() {
+        return new RetryPolicyBuilder()
+                .maxAttempts(3)
+                .initialBackoffMillis(50)
+                .maxBackoffMillis(2_000)
+                .multiplier(2)
+                .jitter(0.5)
+                .exception(NoHttpResponseException.class, true)
+                .exception(ConnectException.class, true)
+                .exception(SocketException.class, true)
+                .exception(SocketTimeoutException.class, true)
+                .exception(ConnectTimeoutException.class, true)
+                .exception(InterruptedIOException.class, true)
+                .exception(UnknownHostException.class, false)
+                .exception(SSLHandshakeException.class, false)
+                .exception(SSLException.class, false)
+                .exception(ResponseBodyTooLargeException.class, false)
+                .retryStatusCode(429)
+                .retryStatusCode(503)
+                .maxRetryAfterMillis(5_000)
+                .budgetRatio(0.1)
+                .budgetMaxTokens(10)
+                .minAttemptMillis(50);
+    }
+
+    /**
+     * 使用默认参数创建重试策略.
+     *
+     * @return RetryPolicy
+     */
+    public static RetryPolicy defaults() {
+        return builder().build();
+    }
+
+    /**
+     * 请求因异常失败后，决定是否重试.
+     *
+     * @param exception      失败原因
+     * @param executionCount 已执行次数
+     * @param context        请求上下文
+     * @return 重试前应等待的毫秒数，不重试时返回 {@link #NO_RETRY}
+     */
+    public long backoffMillis(IOException exception, int executionCount, HttpContext context) {
+        val delay = decide(exception, executionCount, context);
+        HttpEvents.get().retry(context, executionCount, exception, delay);
+        return delay;
+    }
+
+    private long decide(IOException exception, int executionCount, HttpContext context) {
+        val attempts = Math.max(executionCount, attemptsOf(context));
+        // 熔断拒绝或截止时间已到的请求没有发出，重试也只会再次被拒绝
+        if (attempts >= maxAttempts || exception instanceof CircuitBreakerOpenException
+                || exception instanceof DeadlineExceededException) {
+            return NO_RETRY;
+        }
+
+        val decision = classifier.get(exception.getClass());
+        if (decision == Decision.ABORT || decision == Decision.IDEMPOTENT_ONLY && !isIdempotent(context)) {
+            return NO_RETRY;
+        }
+
+        val route = Routes.of(context);
+        val delay = computeBackoff(attempts);
+        if (!fitsDeadline(context, delay)) {
+            log.debug("deadline too close for {}, giving up after {}", route, exception.toString());
+            return NO_RETRY;
+        }
+        if (!withdraw(route)) {
+            log.debug("retry budget exhausted for {}, giving up after {}", route, exception.toString());
+            return NO_RETRY;
+        }
+
+        log.debug("retry {} in {}ms, attempt:{}, cause:{}", route, delay, attempts, exception.toString());
+        return delay;
+    }
+
+    /**
+     * 收到响应后，按状态码与 Retry-After 决定是否重试.
+     *
+     * @param response       响应
+     * @param executionCount 已执行次数
+     * @param context        请求上下文
+     * @return 重试前应等待的毫秒数，不重试时返回 {@link #NO_RETRY}
+     */
+    public long backoffMillis(HttpResponse response, int executionCount, HttpContext context) {
+        val status = response.getStatusLine().getStatusCode();
+        if (!retryStatusCodes.contains(status)) {
+            return NO_RETRY;
+        }
+
+        val delay = decide(response, status, executionCount, context);
+        HttpEvents.get().retry(context, executionCount, response.getStatusLine(), delay);
+        return delay;
+    }
+
+    private long decide(HttpResponse response, int status, int executionCount, HttpContext context) {
+
+        val attempts = Math.max(executionCount, attemptsOf(context));
+        if (attempts >= maxAttempts || !isIdempotent(context)) {
+            return NO_RETRY;
+        }
+
+        val retryAfter = parseRetryAfter(response);
+        if (retryAfter > maxRetryAfterMillis) {
+            return NO_RETRY;
+        }
+
+        val route = Routes.of(context);
+        val delay = retryAfter >= 0 ? retryAfter : computeBackoff(attempts);
+        if (!fitsDeadline(context, delay)) {
+            log.debug("deadline too close for {}, giving up after status {}", route, status);
+            return NO_RETRY;
+        }
+        if (!withdraw(route)) {
+            log.debug("retry budget exhausted for {}, giving up after status {}", route, status);
+            return NO_RETRY;
+        }
+
+        log.debug("retry {} in {}ms, attempt:{}, status:{}", route, delay, attempts, status);
+        return delay;
+    }
+
+    /**
+     * 路由当前剩余的重试令牌数，未启用预算时返回 {@link Double#POSITIVE_INFINITY}.
+     *
+     * @param route 路由，见 {@link Routes}
+     * @return 剩余令牌数
+     */
+    public double getBudgetTokens(String route) {
+        return budgetRatio <= 0 ? Double.POSITIVE_INFINITY : budget(route).getTokens();
+    }
+
+    /**
+     * 每次发送请求时计数；同一上下文的首次发送向路由的重试预算存入令牌.
+     *
+     * @return HttpRequestInterceptor
+     */
+    HttpRequestInterceptor attemptInterceptor() {
+        return (request, context) -> {
+            AtomicInteger attempts = (AtomicInteger) context.getAttribute(ATTEMPTS);
+            if (attempts == null) {
+                attempts = new AtomicInteger();
+                context.setAttribute(ATTEMPTS, attempts);
+                if (budgetRatio > 0) {
+                    budget(Routes.of(context)).deposit();
+                }
+            }
+            attempts.incrementAndGet();
+        };
+    }
+
+    /**
+     * 同步客户端使用的异常重试处理器，退避期间阻塞调用线程（此时连接已释放）.
+     *
+     * @param metrics 重试次数的接收端
+     * @return HttpRequestRetryHandler
+     */
+    HttpRequestRetryHandler toRetryHandler(HttpMetrics metrics) {
+        return (exception, executionCount, context) -> {
+            long delay = backoffMillis(exception, executionCount, context);
+            if (delay < 0 || !sleep(delay)) {
+                return false;
+            }
+
+            metrics.recordRetry(Routes.of(context), exception);
+            return true;
+        };
+    }
+
+    /**
+     * 同步客户端使用的状态码重试策略.
+     *
+     * @param metrics 重试次数的接收端
+     * @return ServiceUnavailableRetryStrategy
+     */
+    ServiceUnavailableRetryStrategy toServiceUnavailableRetryStrategy(HttpMetrics metrics) {
+        return new ServiceUnavailableRetryStrategy() {
+            @Override
+            public boolean retryRequest(HttpResponse response, int executionCount, HttpContext context) {
+                val delay = backoffMillis(response, executionCount, context);
+                if (delay < 0) {
+                    return false;
+                }
+
+                // ServiceUnavailableRetryExec 在同一线程上紧接着调用 getRetryInterval
+                retryInterval.set(delay);
+                val status = response.getStatusLine();
+                metrics.recordRetry(Routes.of(context),
+                        new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+                return true;
+            }
+
+            @Override
+            public long getRetryInterval() {
+                val delay = retryInterval.get();
+                retryInterval.remove();
+                return delay == null ? 0 : delay;
+            }
+        };
+    }
+
+    /**
+     * 没有截止时间，或退避之后剩余时间还够一次尝试.
+     */
+    private boolean fitsDeadline(HttpContext context, long delay) {
+        val deadline = Deadline.of(context);
+        return deadline == null || deadline.remainingMillis() - delay >= minAttemptMillis;
+    }
+
+    private long computeBackoff(int attempts) {
+        val base = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(multiplier, attempts - 1));
+        return (long) (base * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * 解析 Retry-After，支持秒数与HTTP日期两种格式.
+     *
+     * @return 毫秒数，没有或无法解析时返回-1
+     */
+    private static long parseRetryAfter(HttpResponse response) {
+        val header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null) {
+            return -1;
+        }
+
+        val value = header.getValue().trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            val date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private boolean withdraw(String route) {
+        return budgetRatio <= 0 || budget(route).tryWithdraw();
+    }
+
+    private RetryBudget budget(String route) {
+        return budgets.computeIfAbsent(route, r -> new RetryBudget(budgetRatio, budgetMaxTokens));
+    }
+
+    private static int attemptsOf(HttpContext context) {
+        val attempts = (AtomicInteger) context.getAttribute(ATTEMPTS);
+        return attempts == null ? 0 : attempts.get();
+    }
+
+    private static boolean isIdempotent(HttpContext context) {
+        val request = HttpClientContext.adapt(context).getRequest();
+        return !(request instanceof HttpEntityEnclosingRequest);
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Decision classify(Map<Class<? extends IOException>, Boolean> exceptions, Class<?> type) {
+        val exact = exceptions.get(type);
+        if (exact != null) {
+            return exact ? Decision.RETRY : Decision.ABORT;
+        }
+
+        for (val entry : exceptions.entrySet()) {
+            if (entry.getKey().isAssignableFrom(type)) {
+                return entry.getValue() ? Decision.RETRY : Decision.ABORT;
+            }
+        }
+
+        return Decision.IDEMPOTENT_ONLY;
+    }
+
+    private enum Decision {
+        RETRY, ABORT, IDEMPOTENT_ONLY
+    }
+}
@@ -0,0 +1,330 @@
+package util;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 支持按路由设置连接上限、记录借用等待时间的连接池.
+ *
+ * <p>借用等待、建立连接耗时以及每次借用期间收发的字节数都会报告给 {@link ClientProfile#getMetrics()}。
+ * 路由第一次出现时按 {@link ClientProfile#getRouteLimits()} 中第一条匹配的规则设置上限；
+ * 配置了 {@link AdaptivePoolSizing} 时，{@link #adjustRouteLimits()} 根据借用等待与使用率周期性调整上限，
+ * 匹配了规则的路由不会超过规则给出的上限，用于隔离慢后端的限制不会被扩容突破。
+ * 启用 {@link ClientProfile#isVirtualThreads()} 时，借用先在路由的公平信号量上排队：
+ * 连接池每次归还连接都会唤醒所有等待者，等待者成千上万时排队只唤醒下一个。
+ *
+ * @author bjca
+ */
+@Slf4j
+class RouteAwareConnectionManager extends PoolingHttpClientConnectionManager {
+    private final Map<RoutePattern, Integer> routeLimits = new LinkedHashMap<>();
+    private final AdaptivePoolSizing adaptive;
+    private final HttpMetrics metrics;
+    private final ConcurrentMap<HttpRoute, LeaseStats> leaseStats = new ConcurrentHashMap<>();
+    /**
+     * 借出中的连接所属的路由，归还时据此统计收发字节数.
+     */
+    private final ConcurrentMap<HttpClientConnection, HttpRoute> leasedRoutes = new ConcurrentHashMap<>();
+    /**
+     * 按路由的借用排队，未启用虚拟线程时为null.
+     */
+    private final ConcurrentMap<HttpRoute, LeaseGate> leaseGates;
+
+    RouteAwareConnectionManager(Registry<ConnectionSocketFactory> registry, ClientProfile profile) {
+        super(registry, null, profile.getDnsResolver());
+        for (val entry : profile.getRouteLimits().entrySet()) {
+            routeLimits.put(RoutePattern.parse(entry.getKey()), entry.getValue());
+        }
+        this.adaptive = profile.getAdaptivePoolSizing();
+        this.metrics = profile.getMetrics();
+        this.leaseGates = profile.isVirtualThreads() ? new ConcurrentHashMap<>() : null;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        val stats = leaseStats.computeIfAbsent(route, this::initRoute);
+        val request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                val event = HttpEvents.get().beginLease();
+                val start = System.nanoTime();
+                val gate = gate(route);
+                boolean timedOut = false;
+                boolean entered = false;
+                boolean leased = false;
+                try {
+                    val remaining = enter(gate, timeout, unit, start);
+                    entered = true;
+                    val conn = request.get(remaining, TimeUnit.NANOSECONDS);
+                    leasedRoutes.put(conn, route);
+                    leased = true;
+                    return conn;
+                } catch (ConnectionPoolTimeoutException e) {
+                    timedOut = true;
+                    stats.timeouts.incrementAndGet();
+                    recordExhausted(route);
+                    throw e;
+                } finally {
+                    if (gate != null && entered && !leased) {
+                        gate.release();
+                    }
+                    val waitNanos = System.nanoTime() - start;
+                    stats.leases.incrementAndGet();
+                    stats.waitNanos.addAndGet(waitNanos);
+                    metrics.recordLease(Routes.of(route), waitNanos, timedOut);
+                    HttpEvents.get().endLease(event, route, timedOut);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    private LeaseGate gate(HttpRoute route) {
+        return leaseGates == null ? null : leaseGates.computeIfAbsent(route, r -> new LeaseGate(getMaxPerRoute(r)));
+    }
+
+    /**
+     * 在路由的借用排队中等到名额.
+     *
+     * @return 留给连接池的等待纳秒数，0表示不限制
+     */
+    private static long enter(LeaseGate gate, long timeout, TimeUnit unit, long start)
+            throws InterruptedException, ConnectionPoolTimeoutException {
+        if (gate == null) {
+            return unit.toNanos(timeout);
+        }
+        if (timeout <= 0) {
+            gate.acquire();
+            return 0;
+        }
+
+        val timeoutNanos = unit.toNanos(timeout);
+        if (!gate.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            throw new ConnectionPoolTimeoutException("Timeout waiting for connection from pool");
+        }
+        // 名额与连接上限相同，连接池通常不再等待；剩余时间至少1纳秒，避免0被当作不限制
+        return Math.max(1, timeoutNanos - (System.nanoTime() - start));
+    }
+
+    @Override
+    public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context)
+            throws IOException {
+        val event = HttpEvents.get().beginConnect();
+        val start = System.nanoTime();
+        boolean success = false;
+        try {
+            super.connect(managedConn, route, connectTimeout, context);
+            success = true;
+        } finally {
+            metrics.recordConnect(Routes.of(route), System.nanoTime() - start, success);
+            HttpEvents.get().endConnect(event, route, success);
+        }
+    }
+
+    private void recordExhausted(HttpRoute route) {
+        val events = HttpEvents.get();
+        if (events.isPoolExhaustedEnabled()) {
+            events.poolExhausted(Routes.of(route), getStats(route));
+        }
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection managedConn, Object state, long keepAlive, TimeUnit unit) {
+        val route = leasedRoutes.remove(managedConn);
+        try {
+            val connMetrics = managedConn.getMetrics();
+            if (route != null) {
+                metrics.recordBytes(Routes.of(route), connMetrics.getSentBytesCount(),
+                        connMetrics.getReceivedBytesCount());
+            }
+            connMetrics.reset();
+        } catch (RuntimeException e) {
+            // 连接已经脱离连接池，没有可统计的数据
+        }
+        super.releaseConnection(managedConn, state, keepAlive, unit);
+        // 连接归还之后再放行下一个，它借用时不必再等连接池
+        val gate = route != null && leaseGates != null ? leaseGates.get(route) : null;
+        if (gate != null) {
+            gate.release();
+        }
+    }
+
+    @Override
+    public void setMaxPerRoute(HttpRoute route, int max) {
+        super.setMaxPerRoute(route, max);
+        val gate = leaseGates != null ? leaseGates.get(route) : null;
+        if (gate != null) {
+            gate.resize(max);
+        }
+    }
+
+    /**
+     * 各路由的连接池统计.
+     *
+     * @return 每个出现过的路由一条
+     */
+    List<RoutePoolStats> getRouteStats() {
+        val result = new ArrayList<RoutePoolStats>();
+        for (val entry : leaseStats.entrySet()) {
+            val pool = getStats(entry.getKey());
+            val stats = entry.getValue();
+            val leases = stats.leases.get();
+            val pending = getPending(entry.getKey(), pool.getPending());
+            result.add(new RoutePoolStats(Routes.of(entry.getKey()),
+                    pool.getLeased(), pending, pool.getAvailable(), pool.getMax(),
+                    leases, leases == 0 ? 0 : stats.waitNanos.get() / 1e6 / leases, stats.timeouts.get()));
+        }
+        return result;
+    }
+
+    /**
+     * 根据上一周期的借用等待与当前使用率调整每个路由的连接上限.
+     */
+    void adjustRouteLimits() {
+        for (val entry : leaseStats.entrySet()) {
+            val route = entry.getKey();
+            val stats = entry.getValue();
+            val window = stats.drainWindow();
+            val pool = getStats(route);
+            val max = pool.getMax();
+            val avgWaitMillis = window[0] == 0 ? 0 : window[1] / 1e6 / window[0];
+            val pending = getPending(route, pool.getPending());
+            val starved = pending > 0 || window[2] > 0 || avgWaitMillis > adaptive.getLeaseWaitThresholdMillis();
+
+            val ceiling = Math.min(adaptive.getMaxPerRoute(), stats.ruleLimit);
+            val floor = Math.min(adaptive.getMinPerRoute(), ceiling);
+            int target = max;
+            if (starved && pool.getLeased() >= max * adaptive.getHighUtilization()) {
+                target = Math.min(ceiling, max + adaptive.getStep());
+            } else if (!starved && pool.getLeased() < max * adaptive.getLowUtilization()) {
+                target = Math.max(floor, max - adaptive.getStep());
+            }
+
+            if (target != max) {
+                log.debug("route {} max connections {} -> {}, leased:{}, pending:{}, avgLeaseWait:{}ms",
+                        route, max, target, pool.getLeased(), pending, avgWaitMillis);
+                setMaxPerRoute(route, target);
+            }
+        }
+    }
+
+    /**
+     * 路由的连接上限；路由还没有借用过时按规则计算，不登记借用统计，避免按需调整把它当作空闲路由缩小.
+     */
+    int getRouteLimit(HttpRoute route) {
+        if (leaseStats.containsKey(route)) {
+            return getMaxPerRoute(route);
+        }
+        for (val entry : routeLimits.entrySet()) {
+            if (entry.getKey().matches(route)) {
+                return entry.getValue();
+            }
+        }
+        return getDefaultMaxPerRoute();
+    }
+
+    /**
+     * 等待连接的请求数，包括在借用排队中的.
+     */
+    private int getPending(HttpRoute route, int poolPending) {
+        val gate = leaseGates != null ? leaseGates.get(route) : null;
+        return gate == null ? poolPending : poolPending + gate.getQueueLength();
+    }
+
+    private LeaseStats initRoute(HttpRoute route) {
+        for (val entry : routeLimits.entrySet()) {
+            if (entry.getKey().matches(route)) {
+                setMaxPerRoute(route, entry.getValue());
+                return new LeaseStats(entry.getValue());
+            }
+        }
+        return new LeaseStats(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 单个路由的借用排队，名额等于路由的连接上限，按到达顺序放行.
+     */
+    private static final class LeaseGate extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private int limit;
+
+        LeaseGate(int limit) {
+            super(limit, true);
+            this.limit = limit;
+        }
+
+        /**
+         * 调整名额；减少时借出中的连接归还后才生效.
+         */
+        synchronized void resize(int newLimit) {
+            val delta = newLimit - limit;
+            limit = newLimit;
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
+            }
+        }
+    }
+
+    /**
+     * 单个路由的借用统计，累计值与上次调整时的快照.
+     */
+    private static final class LeaseStats {
+        /**
+         * 规则给出的上限，没有匹配的规则时不限制.
+         */
+        final int ruleLimit;
+        final AtomicLong leases = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        private long lastLeases;
+        private long lastWaitNanos;
+        private long lastTimeouts;
+
+        LeaseStats(int ruleLimit) {
+            this.ruleLimit = ruleLimit;
+        }
+
+        /**
+         * 返回自上次调用以来的 {借用次数, 等待纳秒, 超时次数}，只由调整线程调用.
+         */
+        long[] drainWindow() {
+            long leaseCount = leases.get();
+            long wait = waitNanos.get();
+            long timeoutCount = timeouts.get();
+            long[] window = {leaseCount - lastLeases, wait - lastWaitNanos, timeoutCount - lastTimeouts};
+            lastLeases = leaseCount;
+            lastWaitNanos = wait;
+            lastTimeouts = timeoutCount;
+            return window;
+        }
+    }
+}
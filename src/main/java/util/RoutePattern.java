@@ -0,0 +1,74 @@
+package util;
+
+import lombok.EqualsAndHashCode;
+import org.apache.http.conn.routing.HttpRoute;
+
+import java.util.Locale;
+
+/**
+ * 路由匹配规则，形如 {@code host}、{@code host:port}、{@code *.example.com:443}、{@code *:8080} 或 {@code *}.
+ *
+ * <p>主机名只支持完全匹配或以 {@code *.} 开头的后缀匹配；省略端口时匹配任意端口。
+ *
+ * @author bjca
+ */
+@EqualsAndHashCode
+public final class RoutePattern {
+    private final String pattern;
+    private final String host;
+    private final int port;
+
+    private RoutePattern(String pattern, String host, int port) {
+        this.pattern = pattern;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * 解析路由匹配规则.
+     *
+     * @param pattern 规则文本
+     * @return RoutePattern
+     */
+    public static RoutePattern parse(String pattern) {
+        String text = pattern.trim().toLowerCase(Locale.ROOT);
+        int colon = text.lastIndexOf(':');
+        if (colon < 0) {
+            return new RoutePattern(pattern, text, -1);
+        }
+
+        String portText = text.substring(colon + 1);
+        try {
+            int port = "*".equals(portText) ? -1 : Integer.parseInt(portText);
+            return new RoutePattern(pattern, text.substring(0, colon), port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid route pattern " + pattern, e);
+        }
+    }
+
+    public boolean matches(HttpRoute route) {
+        return matches(route.getTargetHost().getHostName(), route.getTargetHost().getPort());
+    }
+
+    public boolean matches(String hostName, int targetPort) {
+        if (port >= 0 && port != targetPort) {
+            return false;
+        }
+
+        if ("*".equals(host)) {
+            return true;
+        }
+
+        String name = hostName.toLowerCase(Locale.ROOT);
+        if (host.startsWith("*.")) {
+            return name.endsWith(host.substring(1));
+        }
+
+        return name.equals(host);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,46 @@
+package util;
+
+import lombok.Value;
+
+/**
+ * 单个路由的连接池运行统计.
+ *
+ * <p>连接数来自 {@code PoolingHttpClientConnectionManager.getStats(route)}，借用等待为自客户端创建以来的累计值。
+ *
+ * @author bjca
+ */
+@Value
+public class RoutePoolStats {
+    /**
+     * 路由，形如 {@code http://host:port}.
+     */
+    String route;
+    /**
+     * 已借出的连接数.
+     */
+    int leased;
+    /**
+     * 等待借用连接的请求数.
+     */
+    int pending;
+    /**
+     * 池中空闲的连接数.
+     */
+    int available;
+    /**
+     * 当前连接上限.
+     */
+    int max;
+    /**
+     * 借用次数.
+     */
+    long leaseCount;
+    /**
+     * 平均借用等待时间.
+     */
+    double avgLeaseWaitMillis;
+    /**
+     * 借用超时次数.
+     */
+    long leaseTimeouts;
+}
@@ -0,0 +1,53 @@
+package util;
+
+import lombok.val;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.protocol.HttpContext;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * 统一路由的文字表示，形如 {@code http://host:port}，端口总是显式给出.
+ *
+ * @author bjca
+ */
+final class Routes {
+    private Routes() {
+    }
+
+    static String of(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equals(scheme) ? 443 : 80;
+        }
+        return scheme + "://" + uri.getHost() + ":" + port;
+    }
+
+    static String of(RouteInfo route) {
+        return of(route.getTargetHost());
+    }
+
+    /**
+     * 从执行上下文中取路由，取不到时返回 {@code unknown}.
+     */
+    static String of(HttpContext context) {
+        val clientContext = HttpClientContext.adapt(context);
+        if (clientContext.getHttpRoute() != null) {
+            return of(clientContext.getHttpRoute());
+        }
+        return clientContext.getTargetHost() != null ? of(clientContext.getTargetHost()) : "unknown";
+    }
+
+    static String of(HttpHost host) {
+        String scheme = host.getSchemeName();
+        int port = host.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(scheme) ? 443 : 80;
+        }
+        return scheme + "://" + host.getHostName() + ":" + port;
+    }
+}
@@ -0,0 +1,55 @@
+package util;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * 一个逻辑服务及其后端端点，以 {@code lb://服务名/路径} 的形式调用.
+ *
+ * <p>每次调用按二选一（power of two choices）挑选端点：随机取两个可用端点，
+ * 选平均耗时 ×（进行中请求数 + 1）×（1 + {@link #failurePenalty} × 失败率）较小的。
+ * 还没有成功样本的端点按其他端点平均耗时的中位数计算，所有端点都没有样本时按 {@link #defaultLatencyMillis}。
+ * 连续失败 {@link #ejectionThreshold} 次（IOException 或 5xx）的端点被摘除 {@link #ejectionMillis}，
+ * 可用端点全部被摘除时忽略摘除状态。重试优先发往本次调用还没有尝试过的端点。
+ * 配置了 {@link ClientProfile#getConcurrencyLimit()} 时，每次尝试占用所选端点路由的并发名额，而不是逻辑服务的。
+ *
+ * @author bjca
+ */
+@Value
+@Builder
+public class ServiceDefinition {
+    /**
+     * 服务名，作为 {@code lb://} 地址的主机名.
+     */
+    @NonNull
+    String name;
+    /**
+     * 端点的基础地址，例如 {@code http://10.0.0.1:8080} 或 {@code http://10.0.0.1:8080/api}.
+     */
+    @Singular
+    List<String> endpoints;
+    /**
+     * 连续失败达到该次数时摘除端点.
+     */
+    @Builder.Default
+    int ejectionThreshold = 5;
+    /**
+     * 摘除时长，到期后端点重新参与选择.
+     */
+    @Builder.Default
+    long ejectionMillis = 30_000;
+    /**
+     * 所有端点都还没有成功样本时假定的平均耗时.
+     */
+    @Builder.Default
+    double defaultLatencyMillis = 100;
+    /**
+     * 失败率的惩罚系数，失败率为1的端点得分放大到 1 + failurePenalty 倍；惩罚在最后一次失败后的 {@link #ejectionMillis} 内减弱到0.
+     */
+    @Builder.Default
+    double failurePenalty = 10;
+}
@@ -0,0 +1,56 @@
+package util;
+
+import org.apache.http.ssl.SSLContexts;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * 所有客户端配置共用的 SSLContext.
+ *
+ * <p>JSSE 按 SSLContext 缓存客户端会话，共用同一个实例时，连接同一主机的新连接可以复用会话，
+ * 省去完整握手。不指定 SSLContext 时，每构建一个客户端就由 {@code SSLContexts.createDefault()} 新建一个，
+ * 同一客户端内可以复用会话，但同步与异步客户端之间、不同客户端配置之间不能。
+ *
+ * @author bjca
+ */
+public final class SharedSslContext {
+    /**
+     * 客户端会话缓存条目数.
+     */
+    static final int SESSION_CACHE_SIZE = 10_000;
+    /**
+     * 客户端会话缓存有效期.
+     */
+    static final int SESSION_TIMEOUT_SECONDS = 3_600;
+
+    private static final SSLContext DEFAULT = tune(SSLContexts.createDefault(),
+            SESSION_CACHE_SIZE, SESSION_TIMEOUT_SECONDS);
+
+    private SharedSslContext() {
+    }
+
+    /**
+     * 使用系统信任库的共享 SSLContext.
+     *
+     * @return SSLContext
+     */
+    public static SSLContext getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 设置 SSLContext 的客户端会话缓存.
+     *
+     * @param sslContext     SSLContext
+     * @param cacheSize      缓存条目数，0表示不限制
+     * @param timeoutSeconds 会话有效期，0表示不过期
+     * @return 传入的 sslContext
+     */
+    public static SSLContext tune(SSLContext sslContext, int cacheSize, int timeoutSeconds) {
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        sessions.setSessionCacheSize(cacheSize);
+        sessions.setSessionTimeout(timeoutSeconds);
+        return sslContext;
+    }
+}
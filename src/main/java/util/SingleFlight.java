@@ -0,0 +1,57 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同的并发调用：同一个键的调用进行中时，后来者等待同一个结果，而不是再发一次请求.
+ *
+ * <p>调用结束即移除，不缓存结果。
+ *
+ * @author bjca
+ */
+class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<String>> calls = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 执行或加入键对应的调用.
+     *
+     * @param key  调用的键
+     * @param call 没有进行中的调用时发起调用；同步调用可以直接返回已完成的Future
+     * @return 每个调用方各自的Future，取消它不影响其他调用方
+     */
+    CompletableFuture<String> execute(String key, Supplier<CompletableFuture<String>> call) {
+        CompletableFuture<String> shared = new CompletableFuture<>();
+        CompletableFuture<String> existing = calls.putIfAbsent(key, shared);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.thenApply(body -> body);
+        }
+
+        try {
+            call.get().whenComplete((body, ex) -> {
+                calls.remove(key, shared);
+                if (ex != null) {
+                    shared.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                } else {
+                    shared.complete(body);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, shared);
+            shared.completeExceptionally(e);
+        }
+        return shared.thenApply(body -> body);
+    }
+
+    /**
+     * 加入进行中调用的次数，即节省的请求数.
+     */
+    long getCoalescedCount() {
+        return coalesced.sum();
+    }
+}
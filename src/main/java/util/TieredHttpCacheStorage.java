@@ -0,0 +1,93 @@
+package util;
+
+import lombok.val;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.impl.client.cache.ManagedHttpCacheStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 内存在前、磁盘在后的两级缓存存储.
+ *
+ * <p>新写入的报文体只落盘；从磁盘读到的条目复制一份到内存，之后的命中不再读文件。
+ * 写入或更新时先改磁盘再删除内存中的副本，提升时复制完再确认磁盘上仍是同一条目，避免留下旧副本。
+ * 关闭时删除磁盘上的报文体文件。
+ *
+ * @author bjca
+ */
+class TieredHttpCacheStorage implements HttpCacheStorage, Closeable {
+    private final WeightedHttpCacheStorage memory;
+    private final ManagedHttpCacheStorage disk;
+
+    TieredHttpCacheStorage(WeightedHttpCacheStorage memory, ManagedHttpCacheStorage disk) {
+        this.memory = memory;
+        this.disk = disk;
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+        disk.putEntry(key, entry);
+        memory.removeEntry(key);
+        // 删除被淘汰条目的文件
+        disk.cleanResources();
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) throws IOException {
+        val cached = memory.getEntry(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        val stored = disk.getEntry(key);
+        if (stored == null) {
+            return null;
+        }
+        val copy = toHeap(stored);
+        memory.putEntry(key, copy);
+        if (disk.getEntry(key) != stored) {
+            // 复制期间条目已被替换或删除
+            memory.removeEntry(key);
+        }
+        return copy;
+    }
+
+    @Override
+    public void removeEntry(String key) throws IOException {
+        disk.removeEntry(key);
+        memory.removeEntry(key);
+    }
+
+    @Override
+    public void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+        disk.updateEntry(key, callback);
+        memory.removeEntry(key);
+    }
+
+    @Override
+    public void close() {
+        disk.shutdown();
+    }
+
+    private static HttpCacheEntry toHeap(HttpCacheEntry entry) throws IOException {
+        if (entry.getResource() == null) {
+            return entry;
+        }
+
+        val body = new ByteArrayOutputStream((int) entry.getResource().length());
+        try (val in = entry.getResource().getInputStream()) {
+            val buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                body.write(buffer, 0, n);
+            }
+        }
+        return new HttpCacheEntry(entry.getRequestDate(), entry.getResponseDate(), entry.getStatusLine(),
+                entry.getAllHeaders(), new HeapResource(body.toByteArray()), entry.getVariantMap(),
+                entry.getRequestMethod());
+    }
+}
@@ -0,0 +1,44 @@
+package util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TLS握手统计：完整握手与会话复用的次数.
+ *
+ * @author bjca
+ */
+public class TlsStats {
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedSessions = new LongAdder();
+
+    /**
+     * 完整握手次数.
+     *
+     * @return 次数
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    /**
+     * 复用已有会话的握手次数.
+     *
+     * @return 次数
+     */
+    public long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    void record(boolean resumed) {
+        if (resumed) {
+            resumedSessions.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TlsStats(fullHandshakes=" + getFullHandshakes() + ", resumedSessions=" + getResumedSessions() + ")";
+    }
+}
@@ -0,0 +1,37 @@
+package util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 虚拟线程的创建入口.
+ *
+ * <p>这是 Java 8 基线的实现，不支持虚拟线程；jar 是 Multi-Release 的，Java 21 及以上加载
+ * {@code META-INF/versions/21} 中的同名类（源码在 src/main/java21）。
+ *
+ * @author bjca
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程.
+     *
+     * @return Java 21 及以上返回true
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器.
+     *
+     * @param prefix 线程名前缀
+     * @return ExecutorService
+     * @throws UnsupportedOperationException 运行时不支持虚拟线程
+     */
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        throw new UnsupportedOperationException("virtual threads require Java 21 or later, running on "
+                + System.getProperty("java.version"));
+    }
+}
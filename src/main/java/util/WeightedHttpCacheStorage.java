@@ -0,0 +1,96 @@
+package util;
+
+import lombok.val;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按报文体字节数与条目数限制容量的内存LRU缓存存储.
+ *
+ * @author bjca
+ */
+class WeightedHttpCacheStorage implements HttpCacheStorage {
+    private final int maxEntries;
+    private final long maxTotalSize;
+    private final LinkedHashMap<String, HttpCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long totalSize;
+
+    WeightedHttpCacheStorage(int maxEntries, long maxTotalSize) {
+        this.maxEntries = maxEntries;
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) {
+        lock.lock();
+        try {
+            put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeEntry(String key) {
+        lock.lock();
+        try {
+            totalSize -= weight(entries.remove(key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+        lock.lock();
+        try {
+            val updated = callback.update(entries.get(key));
+            if (updated != null) {
+                put(key, updated);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getTotalSize() {
+        lock.lock();
+        try {
+            return totalSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(String key, HttpCacheEntry entry) {
+        totalSize += weight(entry) - weight(entries.put(key, entry));
+
+        Iterator<Map.Entry<String, HttpCacheEntry>> eldest = entries.entrySet().iterator();
+        while ((totalSize > maxTotalSize || entries.size() > maxEntries) && eldest.hasNext()) {
+            totalSize -= weight(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(HttpCacheEntry entry) {
+        return entry == null || entry.getResource() == null ? 0 : entry.getResource().length();
+    }
+}
@@ -0,0 +1,33 @@
+package util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 虚拟线程的创建入口，Java 21 及以上的实现.
+ *
+ * @author bjca
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程.
+     *
+     * @return true
+     */
+    static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器.
+     *
+     * @param prefix 线程名前缀
+     * @return ExecutorService
+     */
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory());
+    }
+}
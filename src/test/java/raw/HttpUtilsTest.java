@@ -0,0 +1,72 @@
+package raw;
+
+import org.junit.Test;
+import util.ResponseBodyTooLargeException;
+import util.StubServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class HttpUtilsTest {
+    private static final String BODY = "0123456789abcdef";
+    private static final Map<String, String> PARAMS = Collections.singletonMap("name", "张三");
+
+    @Test
+    public void getStreamEncodesQueryWithCharset() throws Exception {
+        try (StubServer server = new StubServer().handle("/query", exchange -> StubServer.send(exchange, 200,
+                URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "GBK")))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = HttpUtils.excuteGetStream(server.url("/query"), PARAMS, null, "GBK")) {
+                byte[] buffer = new byte[3];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            assertThat(out.toString("UTF-8")).isEqualTo("name=张三");
+        }
+    }
+
+    @Test
+    public void limitsBodySize() throws Exception {
+        try (StubServer server = new StubServer().respond("/body", 200, BODY)) {
+            try {
+                HttpUtils.excuteGet(server.url("/body"), null, null, "UTF-8", 8);
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getCause()).isInstanceOf(ResponseBodyTooLargeException.class);
+            }
+            try {
+                HttpUtils.sendPost(server.url("/body"), "{}", 8);
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getCause()).isInstanceOf(ResponseBodyTooLargeException.class);
+            }
+
+            assertThat(HttpUtils.excuteGet(server.url("/body"), null, null, "UTF-8", 16)).isEqualTo(BODY);
+        }
+    }
+
+    @Test
+    public void limitedPostFormEncodesWithCharset() throws Exception {
+        try (StubServer server = new StubServer().handle("/form", exchange -> {
+            byte[] body = new byte[256];
+            int length = 0;
+            try (InputStream in = exchange.getRequestBody()) {
+                for (int n; (n = in.read(body, length, body.length - length)) > 0; ) {
+                    length += n;
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            StubServer.send(exchange, 200, URLDecoder.decode(new String(body, 0, length, "ISO-8859-1"), "GBK"));
+        })) {
+            assertThat(HttpUtils.excutePostForm(server.url("/form"), PARAMS, null, "GBK", 1024))
+                    .isEqualTo("name=张三");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BatchTest {
+
+    @Test
+    public void resultsInInputOrderWithinRouteLimit() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("batch").asyncDefaultMaxPerRoute(3).build());
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        try (StubServer server = new StubServer()
+                .handle("/item", exchange -> {
+                    peak.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    concurrent.decrementAndGet();
+                    StubServer.send(exchange, 200, exchange.getRequestURI().getQuery());
+                })
+                .respond("/missing", 404, "")) {
+            List<Request> requests = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                requests.add(Request.get(server.url("/item?i=" + i), null, null));
+            }
+            requests.add(Request.get(server.url("/missing"), null, null));
+            requests.add(Request.get("http://bad host/", null, null));
+
+            List<BatchResult> streamed = new CopyOnWriteArrayList<>();
+            List<BatchResult> results = new HttpInvoker("batch").executeAll(requests,
+                    BatchOptions.builder().maxConcurrency(8).listener(streamed::add).build());
+
+            assertThat(results).hasSize(22);
+            for (int i = 0; i < 20; i++) {
+                assertThat(results.get(i).getIndex()).isEqualTo(i);
+                assertThat(results.get(i).getBody()).isEqualTo("i=" + i);
+            }
+            assertThat(results.get(20).isSuccess()).isFalse();
+            assertThat(results.get(21).getError()).isInstanceOf(IllegalArgumentException.class);
+            assertThat(streamed).hasSize(22);
+            assertThat(peak.get()).isAtMost(3);
+            // 批量只走异步连接池，同步连接池不应出现这个路由
+            assertThat(ClientRegistry.getDefault().get("batch").getRouteStats()).isEmpty();
+        }
+    }
+
+    @Test
+    public void deadlineCancelsOutstandingCalls() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("batch-deadline")
+                .soTimeoutMillis(5_000).build());
+
+        try (StubServer server = new StubServer().handle("/slow", exchange -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(2_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StubServer.send(exchange, 200, "late");
+        })) {
+            List<Request> requests = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                requests.add(Request.get(server.url("/slow"), null, null));
+            }
+
+            long start = System.nanoTime();
+            List<BatchResult> results = new HttpInvoker("batch-deadline").executeAll(requests,
+                    BatchOptions.builder().maxConcurrency(2).timeoutMillis(100).build());
+
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1_000L);
+            for (BatchResult result : results) {
+                assertThat(result.getError()).isInstanceOf(TimeoutException.class);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package util;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class CachingDnsResolverTest {
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicBoolean down = new AtomicBoolean();
+
+    private InetAddress[] lookup(String host) throws UnknownHostException {
+        lookups.incrementAndGet();
+        if (down.get()) {
+            throw new UnknownHostException(host);
+        }
+        return new InetAddress[]{
+                InetAddress.getByAddress(host, new byte[]{10, 0, 0, 1}),
+                InetAddress.getByAddress(host, new byte[]{10, 0, 0, 2})};
+    }
+
+    @Test
+    public void cachesAndRotates() throws Exception {
+        CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(this::lookup).build();
+
+        InetAddress first = resolver.resolve("backend")[0];
+        InetAddress second = resolver.resolve("backend")[0];
+        assertThat(first).isNotEqualTo(second);
+        assertThat(resolver.resolve("backend")).hasLength(2);
+        assertThat(lookups.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void refreshesInBackground() throws Exception {
+        CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(this::lookup)
+                .refreshAfterMillis(0).refreshExecutor(Runnable::run).build();
+
+        resolver.resolve("backend");
+        resolver.resolve("backend");
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void servesStaleOnFailure() throws Exception {
+        CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(this::lookup)
+                .ttlMillis(10).maxStaleMillis(60_000).build();
+
+        resolver.resolve("backend");
+        down.set(true);
+        TimeUnit.MILLISECONDS.sleep(20);
+        assertThat(resolver.resolve("backend")).hasLength(2);
+
+        try {
+            resolver.resolve("other");
+            fail();
+        } catch (UnknownHostException e) {
+            // expected: nothing cached
+        }
+    }
+
+    @Test
+    public void servesStaleWithoutWaitingAndRefreshesOnce() throws Exception {
+        List<Runnable> refreshes = new ArrayList<>();
+        CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(this::lookup)
+                .ttlMillis(10).maxStaleMillis(60_000).refreshExecutor(refreshes::add).build();
+
+        resolver.resolve("backend");
+        TimeUnit.MILLISECONDS.sleep(20);
+        for (int i = 0; i < 5; i++) {
+            assertThat(resolver.resolve("backend")).hasLength(2);
+        }
+        // 过期后的调用都直接返回旧结果，只提交了一次后台刷新
+        assertThat(lookups.get()).isEqualTo(1);
+        assertThat(refreshes).hasSize(1);
+    }
+
+    @Test
+    public void concurrentLookupsShareOneResolve() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(host -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new UnknownHostException(host);
+            }
+            return lookup(host);
+        }).build();
+
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<InetAddress[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(callers.submit(() -> resolver.resolve("backend")));
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+            for (Future<InetAddress[]> future : futures) {
+                assertThat(future.get(1, TimeUnit.SECONDS)).hasLength(2);
+            }
+            assertThat(lookups.get()).isEqualTo(1);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void evictsEntriesPastMaxStale() throws Exception {
+        CachingDnsResolver resolver = CachingDnsResolver.builder().delegate(this::lookup)
+                .ttlMillis(10).maxStaleMillis(10).build();
+
+        resolver.resolve("old");
+        TimeUnit.MILLISECONDS.sleep(30);
+        resolver.resolve("new");
+        assertThat(resolver.size()).isEqualTo(1);
+
+        down.set(true);
+        try {
+            resolver.resolve("old");
+            fail();
+        } catch (UnknownHostException e) {
+            // 超过可沿用期限，不再返回旧结果
+        }
+    }
+}
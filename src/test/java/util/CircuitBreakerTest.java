@@ -0,0 +1,81 @@
+package util;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensHalfOpensAndCloses() throws Exception {
+        List<String> transitions = new CopyOnWriteArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker("http://127.0.0.1:80", CircuitBreakerSettings.builder()
+                .slidingWindowSize(4).minimumCalls(4).openDurationMillis(50).halfOpenCalls(1)
+                .listener((route, from, to) -> transitions.add(from + "->" + to))
+                .build());
+
+        breaker.onResult(0, false);
+        breaker.onResult(0, true);
+        breaker.onResult(0, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        breaker.onResult(0, true);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.onResult(0, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED").inOrder();
+    }
+
+    @Test
+    public void slowCallsOpenCircuit() {
+        CircuitBreaker breaker = new CircuitBreaker("http://127.0.0.1:80", CircuitBreakerSettings.builder()
+                .slidingWindowSize(2).minimumCalls(2).slowCallDurationMillis(10).build());
+
+        breaker.onResult(TimeUnit.MILLISECONDS.toNanos(20), false);
+        breaker.onResult(TimeUnit.MILLISECONDS.toNanos(20), false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void openCircuitFailsFast() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("breaking")
+                .circuitBreaker(CircuitBreakerSettings.builder().slidingWindowSize(2).minimumCalls(2).build())
+                .build());
+        AtomicInteger hits = new AtomicInteger();
+
+        try (StubServer server = new StubServer().handle("/say", exchange -> {
+            hits.incrementAndGet();
+            StubServer.send(exchange, 500, "down");
+        })) {
+            HttpInvoker invoker = new HttpInvoker("breaking");
+            for (int i = 0; i < 3; i++) {
+                try {
+                    invoker.get(server.url("/say"), null, null);
+                    fail();
+                } catch (RuntimeException e) {
+                    if (i == 2) {
+                        assertThat(e.getCause()).isInstanceOf(CircuitBreakerOpenException.class);
+                    }
+                }
+            }
+
+            assertThat(hits.get()).isEqualTo(2);
+            String route = Routes.of(URI.create(server.url("/")));
+            assertThat(ClientRegistry.getDefault().get("breaking").getCircuitBreaker(route).getState())
+                    .isEqualTo(CircuitBreaker.State.OPEN);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package util;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class ClientRegistryTest {
+
+    @Test
+    public void sharesClientPerProfile() throws Exception {
+        ClientRegistry registry = new ClientRegistry()
+                .register(ClientProfile.builder().name("small").maxTotal(2).defaultMaxPerRoute(2).build());
+
+        assertThat(registry.getClient("small")).isSameAs(registry.getClient("small"));
+        assertThat(registry.get("small").getConnectionManager().getMaxTotal()).isEqualTo(2);
+        assertThat(registry.getClient(ClientProfile.DEFAULT)).isNotSameAs(registry.getClient("small"));
+
+        try {
+            registry.register(ClientProfile.of("small"));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected: client already created
+        }
+    }
+
+    @Test
+    public void shutdown() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        try (StubServer server = new StubServer().respond("/say", 200, "hi")) {
+            String body = registry.getClient(ClientProfile.DEFAULT)
+                    .execute(new HttpGet(server.url("/say")), new BasicResponseHandler());
+            assertThat(body).isEqualTo("hi");
+        }
+
+        registry.shutdown(1, TimeUnit.SECONDS);
+        assertThat(registry.isShutdown()).isTrue();
+        try {
+            registry.get(ClientProfile.DEFAULT);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected: registry is shut down
+        }
+    }
+
+    @Test
+    public void evictsIdleConnections() throws Exception {
+        ClientRegistry registry = new ClientRegistry().register(ClientProfile.builder()
+                .name("evicting").idleEvictMillis(50).evictionIntervalMillis(20).build());
+        try (StubServer server = new StubServer().respond("/say", 200, "hi")) {
+            registry.getClient("evicting").execute(new HttpGet(server.url("/say")), new BasicResponseHandler());
+            assertThat(registry.get("evicting").getConnectionManager().getTotalStats().getAvailable()).isEqualTo(1);
+
+            long deadline = System.currentTimeMillis() + 2000;
+            while (registry.get("evicting").getConnectionManager().getTotalStats().getAvailable() > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat(registry.get("evicting").getConnectionManager().getTotalStats().getAvailable()).isEqualTo(0);
+        } finally {
+            registry.shutdown(0, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void routeLimits() throws Exception {
+        ClientRegistry registry = new ClientRegistry().register(ClientProfile.builder()
+                .name("routes").routeLimit("localhost", 1).routeLimit("127.0.0.1:*", 3).build());
+        try (StubServer server = new StubServer().respond("/say", 200, "hi")) {
+            registry.getClient("routes").execute(new HttpGet(server.url("/say")), new BasicResponseHandler());
+
+            assertThat(registry.get("routes").getRouteStats()).hasSize(1);
+            RoutePoolStats stats = registry.get("routes").getRouteStats().get(0);
+            assertThat(stats.getMax()).isEqualTo(3);
+            assertThat(stats.getLeaseCount()).isEqualTo(1L);
+            assertThat(stats.getAvailable()).isEqualTo(1);
+        } finally {
+            registry.shutdown(0, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void adaptiveSizingGrowsStarvedRoutesUpToTheirRule() throws Exception {
+        RouteAwareConnectionManager manager = new HttpClientBuilderBuilder(ClientProfile.builder()
+                .name("adaptive-grow").defaultMaxPerRoute(4).routeLimit("127.0.0.1:81", 4)
+                .adaptivePoolSizing(AdaptivePoolSizing.builder().build())
+                .build()).getPoolingConnectionManager();
+        HttpRoute free = new HttpRoute(new HttpHost("127.0.0.1", 80));
+        HttpRoute pinned = new HttpRoute(new HttpHost("127.0.0.1", 81));
+
+        starve(manager, free, 4);
+        starve(manager, pinned, 4);
+        manager.adjustRouteLimits();
+
+        assertThat(manager.getMaxPerRoute(free)).isEqualTo(6);
+        assertThat(manager.getMaxPerRoute(pinned)).isEqualTo(4);
+        manager.shutdown();
+    }
+
+    @Test
+    public void adaptiveSizingShrinksIdleRoutesNotBelowTheirRule() throws Exception {
+        RouteAwareConnectionManager manager = new HttpClientBuilderBuilder(ClientProfile.builder()
+                .name("adaptive-shrink").defaultMaxPerRoute(6).routeLimit("127.0.0.1:81", 1)
+                .adaptivePoolSizing(AdaptivePoolSizing.builder().minPerRoute(2).step(2).build())
+                .build()).getPoolingConnectionManager();
+        HttpRoute idle = new HttpRoute(new HttpHost("127.0.0.1", 80));
+        HttpRoute pinned = new HttpRoute(new HttpHost("127.0.0.1", 81));
+        manager.releaseConnection(manager.requestConnection(idle, null).get(1, TimeUnit.SECONDS), null, 0,
+                TimeUnit.MILLISECONDS);
+        manager.releaseConnection(manager.requestConnection(pinned, null).get(1, TimeUnit.SECONDS), null, 0,
+                TimeUnit.MILLISECONDS);
+
+        manager.adjustRouteLimits();
+        assertThat(manager.getMaxPerRoute(idle)).isEqualTo(4);
+        assertThat(manager.getMaxPerRoute(pinned)).isEqualTo(1);
+
+        manager.adjustRouteLimits();
+        manager.adjustRouteLimits();
+        assertThat(manager.getMaxPerRoute(idle)).isEqualTo(2);
+        assertThat(manager.getMaxPerRoute(pinned)).isEqualTo(1);
+        manager.shutdown();
+    }
+
+    /**
+     * 借满路由的连接，再让一次借用超时.
+     */
+    private static void starve(RouteAwareConnectionManager manager, HttpRoute route, int max) throws Exception {
+        for (int i = 0; i < max; i++) {
+            manager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+        }
+        try {
+            manager.requestConnection(route, null).get(10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (ConnectionPoolTimeoutException expected) {
+            // 连接已借满
+        }
+    }
+
+    @Test
+    public void nonPoolingHasNoConnectionCapOrTimeouts() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(40);
+        try (StubServer server = new StubServer().handle("/slow", exchange -> {
+            try {
+                Thread.sleep(700);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StubServer.send(exchange, 200, "ok");
+        })) {
+            HttpInvoker invoker = new HttpInvoker(false);
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(callers.submit(() -> invoker.get(server.url("/slow"), null, null)));
+            }
+            for (Future<String> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo("ok");
+            }
+            assertThat(ClientRegistry.getDefault().get(ClientProfile.NON_POOLING).getConnectionManager()
+                    .getTotalStats().getAvailable()).isEqualTo(0);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void unknownProfile() {
+        try {
+            new ClientRegistry().get("missing");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("missing");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CoalescingTest {
+
+    @Test
+    public void identicalGetsShareOneRequest() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("coalescing").build());
+        AtomicInteger hits = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+
+        try (StubServer server = new StubServer().handle("/say", exchange -> {
+            hits.incrementAndGet();
+            try {
+                TimeUnit.MILLISECONDS.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StubServer.send(exchange, 200, "hi");
+        })) {
+            HttpInvoker invoker = new HttpInvoker("coalescing").withCoalescing(true);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return invoker.get(server.url("/say"), null, null);
+                }));
+            }
+
+            start.countDown();
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            }
+            assertThat(hits.get()).isEqualTo(1);
+            assertThat(ClientRegistry.getDefault().get("coalescing").getCoalescedCount()).isEqualTo(9L);
+
+            // 前一个请求结束后不保留结果
+            CompletableFuture<String> first = invoker.getAsync(server.url("/say"), null, null);
+            CompletableFuture<String> second = invoker.getAsync(server.url("/say"), null, null);
+            CompletableFuture<String> other = invoker.getAsync(server.url("/say?x=1"), null, null);
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            assertThat(other.get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            assertThat(hits.get()).isEqualTo(3);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
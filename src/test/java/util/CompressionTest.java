@@ -0,0 +1,172 @@
+package util;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class CompressionTest {
+
+    @Test
+    public void compressesLargeRequestBodies() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("compressing").metrics(metrics)
+                .requestCompression(CompressionSettings.builder().minSize(100).build())
+                .build());
+        AtomicReference<String> encoding = new AtomicReference<>();
+
+        try (StubServer server = new StubServer().handle("/echo", exchange -> {
+            String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            encoding.set(contentEncoding);
+            InputStream in = "gzip".equals(contentEncoding)
+                    ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            StubServer.send(exchange, 200, new String(readAll(in), StandardCharsets.UTF_8));
+        })) {
+            HttpInvoker invoker = new HttpInvoker("compressing");
+            String large = json(200);
+            assertThat(invoker.postJSON(server.url("/echo"), large)).isEqualTo(large);
+            assertThat(encoding.get()).isEqualTo("gzip");
+
+            assertThat(invoker.postJSON(server.url("/echo"), "{}")).isEqualTo("{}");
+            assertThat(encoding.get()).isNull();
+
+            String route = Routes.of(URI.create(server.url("/")));
+            assertThat(metrics.getCompressionRatio(route, "request")).isLessThan(0.5);
+        }
+    }
+
+    @Test
+    public void routeToggleDisablesCompression() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("compressing-off")
+                .requestCompression(CompressionSettings.builder().minSize(0).route("127.0.0.1", false).build())
+                .build());
+        AtomicReference<String> encoding = new AtomicReference<>("unset");
+
+        try (StubServer server = new StubServer().handle("/echo", exchange -> {
+            encoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            StubServer.send(exchange, 200, StubServer.readBody(exchange));
+        })) {
+            String body = json(50);
+            assertThat(new HttpInvoker("compressing-off").postJSON(server.url("/echo"), body)).isEqualTo(body);
+            assertThat(encoding.get()).isNull();
+        }
+    }
+
+    @Test
+    public void asyncResponsesAreDecompressed() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("decompressing").metrics(metrics).build());
+        String body = json(5000);
+        byte[] raw = body.getBytes(StandardCharsets.UTF_8);
+        byte[] gzip = gzip(raw);
+        byte[] twoMembers = concat(gzip(Arrays.copyOf(raw, 1000)),
+                gzip(Arrays.copyOfRange(raw, 1000, raw.length)));
+
+        try (StubServer server = new StubServer()
+                .handle("/gzip", exchange -> sendEncoded(exchange, "gzip", gzip))
+                .handle("/members", exchange -> sendEncoded(exchange, "gzip", twoMembers))
+                .handle("/zlib", exchange -> sendEncoded(exchange, "deflate", deflate(raw, false)))
+                .handle("/deflate", exchange -> sendEncoded(exchange, "deflate", deflate(raw, true)))) {
+            HttpInvoker invoker = new HttpInvoker("decompressing");
+            for (String path : new String[]{"/gzip", "/members", "/zlib", "/deflate"}) {
+                assertThat(invoker.getAsync(server.url(path), null, null).join()).isEqualTo(body);
+            }
+            assertThat(invoker.get(server.url("/gzip"), null, null)).isEqualTo(body);
+
+            String route = Routes.of(URI.create(server.url("/")));
+            assertThat(metrics.getCompressionRatio(route, "response")).isLessThan(0.5);
+        }
+    }
+
+    @Test
+    public void decompressedSizeIsLimited() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("decompressing-limited").build());
+        byte[] bomb = gzip(new byte[1024 * 1024]);
+
+        try (StubServer server = new StubServer().handle("/bomb", exchange -> sendEncoded(exchange, "gzip", bomb))) {
+            try {
+                new HttpInvoker("decompressing-limited").withMaxBodySize(64 * 1024)
+                        .getAsync(server.url("/bomb"), null, null).join();
+                fail();
+            } catch (CompletionException e) {
+                assertThat(e.getCause().getCause()).isInstanceOf(ResponseBodyTooLargeException.class);
+            }
+        }
+    }
+
+    private static void sendEncoded(HttpExchange exchange, String encoding, byte[] bytes) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null || !accept.contains(encoding)) {
+            StubServer.send(exchange, 406, "no " + encoding);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            // 分成小块发送，让压缩流在任意位置断开
+            for (int i = 0; i < bytes.length; i += 7) {
+                out.write(bytes, i, Math.min(7, bytes.length - i));
+                if (i % 700 == 0) {
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    private static String json(int items) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item").append(i).append("\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(raw);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] raw, boolean nowrap) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap))) {
+            deflate.write(raw);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = input.read(buffer)) != -1; ) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package util;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+    private static final String ROUTE = "http://127.0.0.1:80";
+
+    @Test
+    public void rejectsBeyondLimit() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(ROUTE,
+                ConcurrencyLimitSettings.builder().initialLimit(2).build(), metrics);
+
+        ConcurrencyLimiter.Permit first = limiter.acquire();
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            fail();
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat(e).hasMessageThat().contains(ROUTE);
+        }
+        assertThat(limiter.getInflight()).isEqualTo(2);
+        assertThat(limiter.getRejectedCount()).isEqualTo(1);
+        assertThat(metrics.getCount("httpclient_concurrency_rejections_total", "route", ROUTE)).isEqualTo(1);
+
+        first.release(new IllegalStateException("not a sample"));
+        assertThat(limiter.getInflight()).isEqualTo(1);
+        limiter.acquire();
+    }
+
+    @Test
+    public void increasesWhenBusyAndBacksOffOnDrops() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(ROUTE, ConcurrencyLimitSettings.builder()
+                .initialLimit(4).minLimit(2).backoffRatio(0.5).build(), metrics);
+        long rtt = TimeUnit.MILLISECONDS.toNanos(1);
+
+        // 每轮并发用满上限，上限每轮增加1
+        for (int round = 0; round < 5; round++) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.onSample(rtt, false);
+            }
+        }
+        assertThat(limiter.getLimit()).isEqualTo(9);
+        assertThat(metrics.getGauge("httpclient_concurrency_limit", "route", ROUTE)).isEqualTo(9);
+
+        // 一轮的平均耗时明显变长
+        for (int i = 0; i < 9; i++) {
+            limiter.acquire();
+        }
+        TimeUnit.MILLISECONDS.sleep(2);
+        for (int i = 0; i < 9; i++) {
+            limiter.onSample(rtt * 5, false);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(4);
+
+        // 同一轮内的多次丢包只缩减一次
+        TimeUnit.MILLISECONDS.sleep(2);
+        limiter.acquire().release(new SocketTimeoutException());
+        limiter.acquire().release(new HttpResponseException(503, "Service Unavailable"));
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        assertThat(limiter.getInflight()).isEqualTo(0);
+    }
+
+    @Test
+    public void excessCallsFailImmediately() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("limited")
+                .concurrencyLimit(ConcurrencyLimitSettings.builder().initialLimit(2).minLimit(2).build())
+                .build());
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (StubServer server = new StubServer().handle("/slow", exchange -> {
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StubServer.send(exchange, 200, "ok");
+        })) {
+            HttpInvoker invoker = new HttpInvoker("limited");
+            CompletableFuture<String> first = invoker.getAsync(server.url("/slow"), null, null);
+            CompletableFuture<String> second = invoker.getAsync(server.url("/slow"), null, null);
+            CompletableFuture<String> third = invoker.getAsync(server.url("/slow"), null, null);
+
+            assertThat(third.isCompletedExceptionally()).isTrue();
+            try {
+                third.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getCause()).isInstanceOf(ConcurrencyLimitExceededException.class);
+            }
+
+            release.countDown();
+            assertThat(first.get()).isEqualTo("ok");
+            assertThat(second.get()).isEqualTo("ok");
+            assertThat(invoker.get(server.url("/slow"), null, null)).isEqualTo("ok");
+
+            ConcurrencyLimiter limiter = ClientRegistry.getDefault().get("limited")
+                    .getConcurrencyLimiter(Routes.of(URI.create(server.url("/"))));
+            assertThat(limiter.getRejectedCount()).isEqualTo(1);
+            assertThat(limiter.getInflight()).isEqualTo(0);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package util;
+
+import com.google.common.collect.Range;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+
+    @Test
+    public void shrinksTimeoutsToRemainingTime() {
+        Deadline deadline = new Deadline(200, null);
+        assertThat(deadline.shrink(500)).isAtMost(200);
+        assertThat(deadline.shrink(0)).isAtMost(200);
+        assertThat(deadline.shrink(50)).isEqualTo(50);
+        assertThat(new Deadline(-1, null).shrink(500)).isEqualTo(1);
+        assertThat(new Deadline(-1, null).isExpired()).isTrue();
+    }
+
+    @Test
+    public void readTimeoutCappedByDeadline() throws Exception {
+        AtomicInteger hits = new AtomicInteger();
+        try (StubServer server = new StubServer().respond("/fast", 200, "ok").handle("/slow", exchange -> {
+            hits.incrementAndGet();
+            sleep(450);
+            StubServer.send(exchange, 200, "late");
+        })) {
+            HttpInvoker invoker = new HttpInvoker().withDeadline(200);
+            // 预热同步与异步客户端，计时不包含创建客户端
+            invoker.get(server.url("/fast"), null, null);
+            invoker.getAsync(server.url("/fast"), null, null).get();
+
+            long start = System.nanoTime();
+            try {
+                invoker.get(server.url("/slow"), null, null);
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getCause()).isInstanceOf(SocketTimeoutException.class);
+            }
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(400L);
+
+            start = System.nanoTime();
+            try {
+                invoker.getAsync(server.url("/slow"), null, null).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getCause()).isInstanceOf(SocketTimeoutException.class);
+            }
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(400L);
+            // 读超时后剩余时间不够再试一次
+            assertThat(hits.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void skipsRetriesThatDoNotFit() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("deadline-retry")
+                .retryPolicy(RetryPolicy.builder().initialBackoffMillis(100).jitter(0).budgetRatio(0).build())
+                .build());
+        AtomicInteger hits = new AtomicInteger();
+
+        try (StubServer server = new StubServer().handle("/busy", exchange -> {
+            hits.incrementAndGet();
+            StubServer.send(exchange, 503, "busy");
+        })) {
+            String url = server.url("/busy");
+            try {
+                new HttpInvoker("deadline-retry").get(url, null, null);
+                fail();
+            } catch (RuntimeException expected) {
+                assertThat(hits.getAndSet(0)).isEqualTo(3);
+            }
+
+            HttpInvoker invoker = new HttpInvoker("deadline-retry").withDeadline(120);
+            try {
+                invoker.get(url, null, null);
+                fail();
+            } catch (RuntimeException expected) {
+                assertThat(hits.getAndSet(0)).isEqualTo(1);
+            }
+            try {
+                invoker.getAsync(url, null, null).get();
+                fail();
+            } catch (ExecutionException expected) {
+                assertThat(hits.getAndSet(0)).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    public void propagatesRemainingTime() throws Exception {
+        try (StubServer server = new StubServer().handle("/echo", exchange ->
+                StubServer.send(exchange, 200, exchange.getRequestHeaders().getFirst("X-Request-Timeout")))) {
+            HttpInvoker invoker = new HttpInvoker().withDeadline(1_000, "X-Request-Timeout");
+
+            long remaining = Long.parseLong(invoker.get(server.url("/echo"), null, null));
+            assertThat(remaining).isIn(Range.closed(1L, 1_000L));
+            remaining = Long.parseLong(invoker.getAsync(server.url("/echo"), null, null).get());
+            assertThat(remaining).isIn(Range.closed(1L, 1_000L));
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class FileTransferTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void uploadsFile() throws Exception {
+        byte[] content = content(1024 * 1024 + 7);
+        Path file = folder.newFile().toPath();
+        Files.write(file, content);
+        AtomicReference<byte[]> received = new AtomicReference<>();
+
+        try (StubServer server = new StubServer().handle("/upload", exchange -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            received.set(out.toByteArray());
+            StubServer.send(exchange, 200, exchange.getRequestHeaders().getFirst("Content-Type"));
+        })) {
+            String body = new HttpInvoker().uploadFile(server.url("/upload"), file);
+
+            assertThat(body).isEqualTo("application/octet-stream");
+            assertThat(received.get()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    public void downloadsAndResumes() throws Exception {
+        byte[] content = content(512 * 1024 + 3);
+        Path file = folder.newFile().toPath();
+
+        try (StubServer server = rangeServer(content)) {
+            HttpInvoker invoker = new HttpInvoker();
+            assertThat(invoker.download(server.url("/file"), file)).isEqualTo(content.length);
+            assertThat(Files.readAllBytes(file)).isEqualTo(content);
+
+            Files.write(file, Arrays.copyOf(content, 1000));
+            assertThat(invoker.download(server.url("/file"), file, true)).isEqualTo(content.length);
+            assertThat(Files.readAllBytes(file)).isEqualTo(content);
+
+            // 文件已经完整，服务端返回416
+            assertThat(invoker.download(server.url("/file"), file, true)).isEqualTo(content.length);
+            assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    public void resumeRestartsWhenRemoteFileChanged() throws Exception {
+        byte[] original = content(64 * 1024);
+        AtomicReference<byte[]> remote = new AtomicReference<>(original);
+        Path file = folder.newFile().toPath();
+
+        try (StubServer server = rangeServer(remote)) {
+            HttpInvoker invoker = new HttpInvoker();
+            invoker.download(server.url("/file"), file);
+            Files.write(file, Arrays.copyOf(original, 1000));
+
+            // 远端文件变化后 If-Range 不匹配，服务端返回完整的200响应
+            byte[] changed = content(64 * 1024 + 1);
+            remote.set(changed);
+            assertThat(invoker.download(server.url("/file"), file, true)).isEqualTo(changed.length);
+            assertThat(Files.readAllBytes(file)).isEqualTo(changed);
+        }
+    }
+
+    @Test
+    public void resumeFailsWhenRemoteFileIsShorter() throws Exception {
+        byte[] content = content(64 * 1024);
+        AtomicReference<byte[]> remote = new AtomicReference<>(content);
+        Path file = folder.newFile().toPath();
+
+        try (StubServer server = rangeServer(remote)) {
+            HttpInvoker invoker = new HttpInvoker();
+            invoker.download(server.url("/file"), file);
+            // 没有校验值时只能依靠416响应中的长度发现不一致
+            Files.delete(FileDownloadConsumer.validatorFile(file));
+            remote.set(Arrays.copyOf(content, 1000));
+
+            try {
+                invoker.download(server.url("/file"), file, true);
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage()).contains("下载文件异常");
+            }
+            assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    public void downloadFailsOnErrorStatus() throws Exception {
+        Path file = folder.newFile().toPath();
+
+        try (StubServer server = new StubServer().respond("/missing", 404, "none")) {
+            try {
+                new HttpInvoker().download(server.url("/missing"), file);
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage()).contains("下载文件异常");
+            }
+        }
+    }
+
+    private static StubServer rangeServer(byte[] content) throws Exception {
+        return rangeServer(new AtomicReference<>(content));
+    }
+
+    private static StubServer rangeServer(AtomicReference<byte[]> remote) throws Exception {
+        return new StubServer().handle("/file", exchange -> {
+            byte[] content = remote.get();
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null && !ifRange.equals(etag)) {
+                range = null;
+            }
+            int start = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            if (start >= content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                StubServer.send(exchange, 416, "");
+                return;
+            }
+
+            if (range != null) {
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            }
+            exchange.sendResponseHeaders(range == null ? 200 : 206, content.length - start);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, content.length - start);
+            }
+        });
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,73 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class HedgingPolicyTest {
+
+    @Test
+    public void hedgeWinsOverSlowReplica() throws Exception {
+        AtomicInteger hits = new AtomicInteger();
+        try (StubServer server = new StubServer().handle("/say", exchange -> {
+            if (hits.incrementAndGet() == 1) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            StubServer.send(exchange, 200, "hi");
+        })) {
+            HttpInvoker invoker = new HttpInvoker().withHedging(HedgingPolicy.fixedDelay(20));
+            long start = System.nanoTime();
+            assertThat(invoker.get(server.url("/say"), null, null)).isEqualTo("hi");
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(250L);
+            assertThat(hits.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void budgetCapsHedges() throws Exception {
+        HedgingPolicy policy = HedgingPolicy.builder().delayMillis(0).quantile(0)
+                .budgetRatio(0.01).budgetMaxTokens(1).build();
+        String route = "http://127.0.0.1:80";
+
+        policy.onRequest(route);
+        assertThat(policy.tryHedge(route)).isTrue();
+        policy.onRequest(route);
+        assertThat(policy.tryHedge(route)).isFalse();
+    }
+
+    @Test
+    public void delayFollowsObservedQuantile() {
+        HedgingPolicy policy = HedgingPolicy.builder().delayMillis(50).minSamples(10).build();
+        String route = "http://127.0.0.1:80";
+        assertThat(policy.delayMillis(route)).isEqualTo(50L);
+
+        for (int i = 1; i <= 100; i++) {
+            policy.recordLatency(route, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        // 分位数在窗口结束时才重新计算
+        assertThat(policy.delayMillis(route)).isEqualTo(50L);
+        policy.rotate();
+        assertThat((double) policy.delayMillis(route)).isWithin(5).of(95);
+
+        // 慢样本所在的窗口移出最近两个窗口后不再影响延迟
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                policy.recordLatency(route, TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            policy.rotate();
+        }
+        assertThat(policy.delayMillis(route)).isEqualTo(5L);
+
+        // 连续两个窗口没有样本时回到固定延迟
+        policy.rotate();
+        policy.rotate();
+        assertThat(policy.delayMillis(route)).isEqualTo(50L);
+    }
+}
@@ -0,0 +1,142 @@
+package util;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class Http2Test {
+
+    @Test
+    public void concurrentRequestsShareOneConnection() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("h2c")
+                .http2(Http2Settings.builder().priorKnowledge(true).build())
+                .build());
+        Set<SocketAddress> remotes = ConcurrentHashMap.newKeySet();
+
+        HttpAsyncServer server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                .register("*", new EchoHandler(remotes))
+                .create();
+        server.start();
+        try {
+            ListenerEndpoint endpoint = server.listen(new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTP).get();
+            int port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+            String url = "http://127.0.0.1:" + port;
+            HttpInvoker invoker = new HttpInvoker("h2c");
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(invoker.getAsync(url + "/item/" + i, null, null));
+            }
+            for (int i = 0; i < 50; i++) {
+                assertThat(futures.get(i).get()).isEqualTo("GET /item/" + i);
+            }
+            assertThat(remotes).hasSize(1);
+
+            assertThat(invoker.postJSON(url + "/echo", "{\"a\":1}")).isEqualTo("POST /echo {\"a\":1}");
+            assertThat(remotes).hasSize(1);
+            assertThat(ClientRegistry.getDefault().get("h2c").isHttp2Fallback(url)).isFalse();
+        } finally {
+            server.close(CloseMode.IMMEDIATE);
+        }
+    }
+
+    @Test
+    public void fallsBackToHttp1WithoutAlpn() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("h2-fallback")
+                .sslContext(StubServer.trustingContext())
+                .http2(Http2Settings.builder().fallbackRetryMillis(1).build())
+                .build());
+
+        try (StubServer server = StubServer.https().respond("/hello", 200, "hello")) {
+            HttpInvoker invoker = new HttpInvoker("h2-fallback");
+            assertThat(invoker.getAsync(server.url("/hello"), null, null).get()).isEqualTo("hello");
+            assertThat(invoker.get(server.url("/hello"), null, null)).isEqualTo("hello");
+
+            String route = Routes.of(URI.create(server.url("/")));
+            assertThat(ClientRegistry.getDefault().get("h2-fallback").isHttp2Fallback(route)).isTrue();
+            // ALPN 给出的结论不会失效
+            Thread.sleep(50);
+            assertThat(ClientRegistry.getDefault().get("h2-fallback").isHttp2Fallback(route)).isTrue();
+        }
+    }
+
+    @Test
+    public void retriesHttp2AfterTransientFallbackExpires() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("h2c-fallback")
+                .http2(Http2Settings.builder().priorKnowledge(true).fallbackRetryMillis(200).build())
+                .build());
+
+        // 只支持 HTTP/1.1 的服务端会关闭 h2c 连接，这不是 ALPN 给出的结论，回退会失效
+        try (StubServer server = new StubServer().respond("/hello", 200, "hello")) {
+            HttpInvoker invoker = new HttpInvoker("h2c-fallback");
+            String route = Routes.of(URI.create(server.url("/")));
+            ManagedClient client = ClientRegistry.getDefault().get("h2c-fallback");
+
+            assertThat(invoker.getAsync(server.url("/hello"), null, null).get()).isEqualTo("hello");
+            assertThat(client.isHttp2Fallback(route)).isTrue();
+
+            Thread.sleep(300);
+            assertThat(client.isHttp2Fallback(route)).isFalse();
+            assertThat(invoker.getAsync(server.url("/hello"), null, null).get()).isEqualTo("hello");
+            assertThat(client.isHttp2Fallback(route)).isTrue();
+        }
+    }
+
+    /**
+     * 返回请求方法、路径与报文体，并记录客户端地址.
+     */
+    private static class EchoHandler implements AsyncServerRequestHandler<Message<HttpRequest, String>> {
+        private final Set<SocketAddress> remotes;
+
+        EchoHandler(Set<SocketAddress> remotes) {
+            this.remotes = remotes;
+        }
+
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(
+                HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+            return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer() : null);
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, String> message, ResponseTrigger trigger, HttpContext context)
+                throws HttpException, IOException {
+            remotes.add(HttpCoreContext.adapt(context).getEndpointDetails().getRemoteAddress());
+            HttpRequest request = message.getHead();
+            String body = request.getMethod() + " " + request.getPath()
+                    + (message.getBody() != null ? " " + message.getBody() : "");
+            trigger.submitResponse(AsyncResponseBuilder.create(200)
+                    .setEntity(body, ContentType.TEXT_PLAIN)
+                    .build(), context);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package util;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class HttpEventsTest {
+    private static final String[] EVENTS = {
+            "httpclient.ConnectionLease", "httpclient.PoolExhausted", "httpclient.Connect",
+            "httpclient.TlsHandshake", "httpclient.RequestWrite", "httpclient.FirstByte",
+            "httpclient.BodyRead", "httpclient.Retry"};
+
+    @Test
+    public void recordsRequestLifecycle() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("jfr")
+                .sslContext(StubServer.trustingContext())
+                .defaultMaxPerRoute(1)
+                .connectionRequestTimeoutMillis(100)
+                .soTimeoutMillis(5_000)
+                .build());
+        AtomicInteger flaky = new AtomicInteger();
+        Path file = Files.createTempFile("httpclient", ".jfr");
+
+        try (Recording recording = new Recording(); StubServer server = StubServer.https()
+                .respond("/hello", 200, "hello")
+                .handle("/echo", exchange -> StubServer.send(exchange, 200, StubServer.readBody(exchange)))
+                .handle("/flaky", exchange ->
+                        StubServer.send(exchange, flaky.getAndIncrement() == 0 ? 503 : 200, "flaky"))) {
+            for (String name : EVENTS) {
+                recording.enable(name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+
+            HttpInvoker invoker = new HttpInvoker("jfr");
+            assertThat(invoker.get(server.url("/hello"), null, null)).isEqualTo("hello");
+            assertThat(invoker.postJSON(server.url("/echo"), "{}")).isEqualTo("{}");
+            assertThat(invoker.get(server.url("/flaky"), null, null)).isEqualTo("flaky");
+            assertThat(invoker.getAsync(server.url("/hello"), null, null).get()).isEqualTo("hello");
+            try (InputStream held = invoker.getStream(server.url("/hello"), null, null)) {
+                invoker.get(server.url("/hello"), null, null);
+                fail();
+            } catch (RuntimeException expected) {
+                // 唯一的连接被流占用，借用超时
+            }
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        String route = "https://127.0.0.1:";
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        assertThat(ofType(events, "httpclient.ConnectionLease")).isNotEmpty();
+        assertThat(ofType(events, "httpclient.Connect").get(0).getBoolean("success")).isTrue();
+        assertThat(ofType(events, "httpclient.TlsHandshake").get(0).getString("host")).startsWith("127.0.0.1:");
+
+        RecordedEvent post = ofType(events, "httpclient.RequestWrite").stream()
+                .filter(e -> "POST".equals(e.getString("method"))).findFirst().get();
+        assertThat(post.getString("route")).startsWith(route);
+        assertThat(post.getLong("bytes")).isEqualTo(2);
+
+        assertThat(ofType(events, "httpclient.FirstByte").stream().map(e -> e.getInt("status"))
+                .collect(Collectors.toSet())).containsAllOf(200, 503);
+        // 同步与异步各读取一次 hello
+        assertThat(ofType(events, "httpclient.BodyRead").stream().filter(e -> e.getLong("bytes") == 5).count())
+                .isAtLeast(2L);
+
+        RecordedEvent retry = ofType(events, "httpclient.Retry").get(0);
+        assertThat(retry.getBoolean("retry")).isTrue();
+        assertThat(retry.getString("cause")).contains("503");
+
+        RecordedEvent exhausted = ofType(events, "httpclient.PoolExhausted").get(0);
+        assertThat(exhausted.getString("route")).startsWith(route);
+        assertThat(exhausted.getInt("max")).isEqualTo(1);
+        assertThat(exhausted.getInt("leased")).isEqualTo(1);
+    }
+
+    @Test
+    public void noOpWithoutJfr() throws Exception {
+        HttpEvents events = HttpEvents.select("jdk.jfr.NoSuchEvent");
+        assertThat(events.isSupported()).isFalse();
+        assertThat(HttpEvents.get().isSupported()).isTrue();
+
+        HttpRoute route = new HttpRoute(new HttpHost("127.0.0.1", 80));
+        HttpClientContext context = HttpClientContext.create();
+        assertThat(events.beginLease()).isNull();
+        events.endLease(null, route, true);
+        assertThat(events.beginConnect()).isNull();
+        events.endConnect(null, route, false);
+        assertThat(events.beginRequestWrite()).isNull();
+        events.endRequestWrite(null, new HttpGet("/"), context);
+        assertThat(events.beginBodyRead()).isNull();
+        events.endBodyRead(null, "http://127.0.0.1:80", 1);
+        assertThat(events.isPoolExhaustedEnabled()).isFalse();
+        events.retry(context, 1, "503", 10);
+
+        // JFR 可用但没有录制时同样不产生事件对象
+        assertThat(HttpEvents.get().beginBodyRead()).isNull();
+        assertThat(HttpEvents.get().isPoolExhaustedEnabled()).isFalse();
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+}
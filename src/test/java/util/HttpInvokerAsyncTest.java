@@ -0,0 +1,55 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class HttpInvokerAsyncTest {
+
+    @Test
+    public void getAsync() throws Exception {
+        try (StubServer server = new StubServer().respond("/say", 200, "Hi there, say I love you!")) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(new HttpInvoker().getAsync(server.url("/say"), null, null));
+            }
+
+            for (CompletableFuture<String> future : futures) {
+                assertThat(future.join()).contains("Hi there, say I love you!");
+            }
+        }
+    }
+
+    @Test
+    public void postJSONAsync() throws Exception {
+        try (StubServer server = new StubServer()
+                .handle("/echo", exchange -> StubServer.send(exchange, 200, StubServer.readBody(exchange)))) {
+            String body = new HttpInvoker().postJSONAsync(server.url("/echo"), "{\"a\":1}").join();
+            assertThat(body).isEqualTo("{\"a\":1}");
+
+            String form = new HttpInvoker().postFormAsync(server.url("/echo"),
+                    Collections.singletonMap("a", "1"), null).join();
+            assertThat(form).isEqualTo("a=1");
+        }
+    }
+
+    @Test
+    public void getAsyncFailsOnErrorStatus() throws Exception {
+        try (StubServer server = new StubServer().respond("/missing", 404, "not found")) {
+            try {
+                new HttpInvoker().getAsync(server.url("/missing"), null, null).join();
+                fail();
+            } catch (CompletionException e) {
+                assertThat(e.getCause()).isInstanceOf(RuntimeException.class);
+                assertThat(e.getCause().getMessage()).contains("/missing");
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package util;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.FileResourceFactory;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.impl.client.cache.ManagedHttpCacheStorage;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class HttpInvokerCacheTest {
+
+    @Test
+    public void cachesAndRevalidates() throws Exception {
+        AtomicInteger fresh = new AtomicInteger();
+        AtomicInteger stale = new AtomicInteger();
+        try (StubServer server = new StubServer()
+                .handle("/fresh", exchange -> {
+                    fresh.incrementAndGet();
+                    exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                    StubServer.send(exchange, 200, "config");
+                })
+                .handle("/stale", exchange -> {
+                    stale.incrementAndGet();
+                    exchange.getResponseHeaders().set("Cache-Control", "max-age=0, must-revalidate");
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        // JDK 自带的 HttpServer 在 304 之后不能复用连接
+                        exchange.getResponseHeaders().set("Connection", "close");
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                    } else {
+                        StubServer.send(exchange, 200, "reference");
+                    }
+                })) {
+            ClientRegistry.getDefault().register(ClientProfile.builder()
+                    .name("cached")
+                    .responseCache(ResponseCacheSettings.builder().build())
+                    .build());
+            HttpInvoker invoker = new HttpInvoker("cached");
+
+            for (int i = 0; i < 3; i++) {
+                assertThat(invoker.get(server.url("/fresh"), null, null)).isEqualTo("config");
+                assertThat(invoker.get(server.url("/stale"), null, null)).isEqualTo("reference");
+            }
+
+            assertThat(fresh.get()).isEqualTo(1);
+            assertThat(stale.get()).isEqualTo(3);
+            CacheStats stats = ClientRegistry.getDefault().get("cached").getCacheStats();
+            assertThat(stats.getHits()).isEqualTo(2L);
+            assertThat(stats.getMisses()).isEqualTo(2L);
+            assertThat(stats.getValidated()).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize() throws Exception {
+        WeightedHttpCacheStorage storage = new WeightedHttpCacheStorage(10, 10);
+        storage.putEntry("a", entry(4));
+        storage.putEntry("b", entry(4));
+        storage.getEntry("a");
+        storage.putEntry("c", entry(4));
+
+        assertThat(storage.getEntry("a")).isNotNull();
+        assertThat(storage.getEntry("b")).isNull();
+        assertThat(storage.getEntry("c")).isNotNull();
+        assertThat(storage.getTotalSize()).isEqualTo(8L);
+    }
+
+    @Test
+    public void memoryTierInFrontOfDisk() throws Exception {
+        File dir = Files.createTempDirectory("http-cache").toFile();
+        FileResourceFactory files = new FileResourceFactory(dir);
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(new WeightedHttpCacheStorage(10, 1024),
+                new ManagedHttpCacheStorage(CacheConfig.DEFAULT));
+
+        storage.putEntry("a", entry(files.generate("a", new ByteArrayInputStream(new byte[]{1, 2, 3}), null)));
+        assertThat(dir.listFiles()).hasLength(1);
+        HttpCacheEntry promoted = storage.getEntry("a");
+        assertThat(promoted.getResource()).isInstanceOf(HeapResource.class);
+        assertThat(promoted.getResource().length()).isEqualTo(3L);
+        assertThat(storage.getEntry("a")).isSameAs(promoted);
+
+        // 写入新条目后不再返回内存中的旧副本
+        storage.putEntry("a", entry(files.generate("a", new ByteArrayInputStream(new byte[]{4, 5}), null)));
+        assertThat(storage.getEntry("a").getResource().length()).isEqualTo(2L);
+
+        storage.close();
+        assertThat(dir.listFiles()).isEmpty();
+        dir.delete();
+    }
+
+    private static HttpCacheEntry entry(int size) {
+        return entry(new HeapResource(new byte[size]));
+    }
+
+    private static HttpCacheEntry entry(Resource resource) {
+        return new HttpCacheEntry(new Date(), new Date(), new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"),
+                new Header[0], resource);
+    }
+}
@@ -0,0 +1,121 @@
+package util;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class HttpInvokerStreamTest {
+    private static final String BODY = "0123456789abcdef";
+
+    @Test
+    public void getStream() throws Exception {
+        try (StubServer server = new StubServer().respond("/body", 200, BODY)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = new HttpInvoker().getStream(server.url("/body"), null, null)) {
+                byte[] buffer = new byte[3];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            assertThat(out.toString("UTF-8")).isEqualTo(BODY);
+        }
+    }
+
+    @Test
+    public void streamHoldsPermitUntilClosed() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("limited-stream")
+                .concurrencyLimit(ConcurrencyLimitSettings.builder().initialLimit(1).minLimit(1).build())
+                .build());
+        HttpInvoker invoker = new HttpInvoker("limited-stream");
+
+        try (StubServer server = new StubServer().respond("/body", 200, BODY)) {
+            ConcurrencyLimiter limiter;
+            try (InputStream in = invoker.getStream(server.url("/body"), null, null)) {
+                limiter = ClientRegistry.getDefault().get("limited-stream")
+                        .getConcurrencyLimiter(Routes.of(URI.create(server.url("/"))));
+                assertThat(limiter.getInflight()).isEqualTo(1);
+                try {
+                    invoker.getStream(server.url("/body"), null, null);
+                    fail();
+                } catch (RuntimeException e) {
+                    assertThat(e.getCause()).isInstanceOf(ConcurrencyLimitExceededException.class);
+                }
+                assertThat(in.read()).isEqualTo((int) '0');
+            }
+            assertThat(limiter.getInflight()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void earlyCloseDropsConnectionWithoutDraining() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("early-close").soTimeoutMillis(5_000).build());
+        byte[] chunk = new byte[64 * 1024];
+
+        try (StubServer server = new StubServer().handle("/large", exchange -> {
+            // 64MB，按每块10毫秒发送，读完需要10秒
+            exchange.sendResponseHeaders(200, 1024L * chunk.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 1024; i++) {
+                    out.write(chunk);
+                    Thread.sleep(10);
+                }
+            } catch (IOException | InterruptedException e) {
+                // 客户端已断开
+            }
+        })) {
+            InputStream in = new HttpInvoker("early-close").getStream(server.url("/large"), null, null);
+            assertThat(in.read()).isEqualTo(0);
+
+            long start = System.nanoTime();
+            in.close();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1_000L);
+
+            PoolStats pool = ClientRegistry.getDefault().get("early-close").getConnectionManager().getTotalStats();
+            assertThat(pool.getLeased()).isEqualTo(0);
+            assertThat(pool.getAvailable()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void getTo() throws Exception {
+        try (StubServer server = new StubServer().respond("/body", 200, BODY)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThat(new HttpInvoker().getTo(server.url("/body"), null, null, out)).isEqualTo(16L);
+            assertThat(out.toString("UTF-8")).isEqualTo(BODY);
+
+            ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+            new HttpInvoker(false).getTo(server.url("/body"), null, null, Channels.newChannel(channelOut));
+            assertThat(channelOut.toString("UTF-8")).isEqualTo(BODY);
+
+            AtomicLong chunks = new AtomicLong();
+            new HttpInvoker().getChunked(server.url("/body"), null, null, chunk -> chunks.addAndGet(chunk.remaining()));
+            assertThat(chunks.get()).isEqualTo(16L);
+        }
+    }
+
+    @Test
+    public void maxBodySize() throws Exception {
+        try (StubServer server = new StubServer().respond("/body", 200, BODY)) {
+            HttpInvoker invoker = new HttpInvoker().withMaxBodySize(8);
+            try {
+                invoker.get(server.url("/body"), null, null);
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getCause()).isInstanceOf(ResponseBodyTooLargeException.class);
+            }
+
+            assertThat(new HttpInvoker().withMaxBodySize(16).get(server.url("/body"), null, null)).isEqualTo(BODY);
+        }
+    }
+}
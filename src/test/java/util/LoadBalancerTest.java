@@ -0,0 +1,124 @@
+package util;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class LoadBalancerTest {
+
+    @Test
+    public void spreadsRequestsAcrossEndpoints() throws Exception {
+        AtomicInteger firstHits = new AtomicInteger();
+        AtomicInteger secondHits = new AtomicInteger();
+
+        try (StubServer first = new StubServer().handle("/orders", exchange -> {
+            firstHits.incrementAndGet();
+            StubServer.send(exchange, 200, "first " + exchange.getRequestURI().getQuery());
+        }); StubServer second = new StubServer().handle("/orders", exchange -> {
+            secondHits.incrementAndGet();
+            StubServer.send(exchange, 200, "second " + exchange.getRequestURI().getQuery());
+        })) {
+            ClientRegistry.getDefault().register(ClientProfile.builder().name("lb-spread")
+                    .service(ServiceDefinition.builder().name("orders")
+                            .endpoint(first.url("")).endpoint(second.url("/")).build())
+                    .build());
+            HttpInvoker invoker = new HttpInvoker("lb-spread");
+
+            for (int i = 0; i < 20; i++) {
+                assertThat(invoker.get("lb://orders/orders?id=" + i, null, null)).endsWith(" id=" + i);
+                assertThat(invoker.getAsync("lb://orders/orders?id=" + i, null, null).get()).endsWith(" id=" + i);
+            }
+            assertThat(firstHits.get()).isGreaterThan(0);
+            assertThat(secondHits.get()).isGreaterThan(0);
+            assertThat(firstHits.get() + secondHits.get()).isEqualTo(40);
+
+            LoadBalancer balancer = ClientRegistry.getDefault().get("lb-spread").getLoadBalancer("ORDERS");
+            for (LoadBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+                assertThat(endpoint.getOutstanding()).isEqualTo(0);
+                assertThat(endpoint.isEjected()).isFalse();
+            }
+        }
+    }
+
+    @Test
+    public void retriesOnAnotherEndpointAndEjectsFailingOne() throws Exception {
+        int deadPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+
+        try (StubServer server = new StubServer().respond("/ping", 200, "pong")) {
+            ClientRegistry.getDefault().register(ClientProfile.builder().name("lb-eject")
+                    .service(ServiceDefinition.builder().name("pinger")
+                            .endpoint("http://127.0.0.1:" + deadPort).endpoint(server.url(""))
+                            .ejectionThreshold(1).build())
+                    .build());
+            HttpInvoker invoker = new HttpInvoker("lb-eject");
+            LoadBalancer balancer = ClientRegistry.getDefault().get("lb-eject").getLoadBalancer("pinger");
+            LoadBalancer.Endpoint dead = balancer.getEndpoints().get(0);
+
+            // 失败过的端点得分被放大，很少再被选中；先调用到它被尝试过一次为止
+            for (int i = 0; i < 10 || dead.getFailureRate() == 0 && i < 200; i++) {
+                assertThat(invoker.get("lb://pinger/ping", null, null)).isEqualTo("pong");
+            }
+
+            assertThat(dead.isEjected()).isTrue();
+            assertThat(dead.getOutstanding()).isEqualTo(0);
+            assertThat(balancer.getEndpoints().get(1).isEjected()).isFalse();
+        }
+    }
+
+    @Test
+    public void unknownServiceFails() throws Exception {
+        HttpInvoker invoker = new HttpInvoker();
+        try {
+            invoker.get("lb://missing/ping", null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("unknown service missing");
+        }
+    }
+
+    @Test
+    public void unsampledEndpointsAreScoredAtTheMedianAndFailuresArePenalized() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("lb-score")
+                .concurrencyLimit(ConcurrencyLimitSettings.builder().initialLimit(4).build())
+                .service(ServiceDefinition.builder().name("scored")
+                        .endpoint("http://10.0.0.1:8080").endpoint("http://10.0.0.2:8080")
+                        .ejectionThreshold(100).build())
+                .build());
+        ManagedClient client = ClientRegistry.getDefault().get("lb-score");
+        LoadBalancer balancer = client.getLoadBalancer("scored");
+        LoadBalancer.Call call = new LoadBalancer.Call(balancer, URI.create("lb://scored/ping"));
+        HttpGet request = new HttpGet("lb://scored/ping");
+
+        // 同一次调用的重试换到另一个端点：第一个成功，第二个立即失败
+        call.next(request, client);
+        String healthy = Routes.of(request.getURI());
+        assertThat(client.getConcurrencyLimiter(healthy).getInflight()).isEqualTo(1);
+        call.complete(null);
+        assertThat(client.getConcurrencyLimiter(healthy).getInflight()).isEqualTo(0);
+        call.next(request, client);
+        String failing = Routes.of(request.getURI());
+        assertThat(failing).isNotEqualTo(healthy);
+        call.complete(new ConnectException("refused"));
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(balancer.choose(Collections.emptyList()).getBaseUrl()).isEqualTo(healthy);
+        }
+        for (LoadBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+            if (endpoint.getBaseUrl().equals(failing)) {
+                assertThat(endpoint.getLatencyMillis()).isEqualTo(0.0);
+                assertThat(endpoint.getFailureRate()).isGreaterThan(0.0);
+            }
+        }
+    }
+}
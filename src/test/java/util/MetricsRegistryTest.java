@@ -0,0 +1,99 @@
+package util;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void histogramQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(1000L);
+        assertThat(histogram.getMaxNanos()).isEqualTo(1_000_000L);
+        assertThat((double) histogram.getValueAtQuantile(0.5)).isWithin(500_000 * 0.04).of(500_000);
+        assertThat((double) histogram.getValueAtQuantile(0.99)).isWithin(990_000 * 0.04).of(990_000);
+        assertThat(histogram.getValueAtQuantile(1.0)).isEqualTo(1_000_000L);
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertThat(LatencyHistogram.upperBoundOf(index)).isAtLeast(value);
+        }
+    }
+
+    @Test
+    public void recordsAsyncPool() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("metered-async").metrics(metrics).build());
+        HttpInvoker invoker = new HttpInvoker("metered-async");
+
+        try (StubServer server = new StubServer().respond("/say", 200, "hi")) {
+            assertThat(invoker.getAsync(server.url("/say"), null, null).get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            assertThat(invoker.getAsync(server.url("/say"), null, null).get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+
+            String route = Routes.of(URI.create(server.url("/")));
+            // 连接在响应交给调用方之后才归还
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.getCount("httpclient_received_bytes_total", "route", route) == 0
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(metrics.getCount("httpclient_received_bytes_total", "route", route)).isGreaterThan(0L);
+            assertThat(metrics.getCount("httpclient_sent_bytes_total", "route", route)).isGreaterThan(0L);
+
+            String text = metrics.scrape();
+            assertThat(text).contains("httpclient_lease_seconds_count{route=\"" + route + "\"} 2");
+            assertThat(text).contains("httpclient_connect_seconds_count{route=\"" + route + "\",outcome=\"success\"} 1");
+        }
+    }
+
+    @Test
+    public void recordsRequestsAndPool() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("metered").metrics(metrics).build());
+        HttpInvoker invoker = new HttpInvoker("metered");
+
+        try (StubServer server = new StubServer()
+                .respond("/say", 200, "hi")
+                .respond("/missing", 404, "")) {
+            invoker.get(server.url("/say"), null, null);
+            invoker.get(server.url("/say"), null, null);
+            try {
+                invoker.get(server.url("/missing"), null, null);
+                fail();
+            } catch (RuntimeException e) {
+                // expected
+            }
+
+            String route = Routes.of(URI.create(server.url("/")));
+            assertThat(metrics.getRequestHistogram("GET", route, true).getCount()).isEqualTo(2L);
+            assertThat(metrics.getCount("httpclient_exceptions_total",
+                    "method", "GET", "route", route, "exception", "HttpResponseException")).isEqualTo(1L);
+            assertThat(metrics.getCount("httpclient_received_bytes_total", "route", route)).isGreaterThan(0L);
+
+            String text = metrics.scrape();
+            assertThat(text).contains("httpclient_lease_seconds_count{route=\"" + route + "\"} 3");
+            assertThat(text).contains("httpclient_connect_seconds_count{route=\"" + route + "\",outcome=\"success\"} 1");
+            assertThat(text).contains("httpclient_pool_available{client=\"metered\"} 1");
+            assertThat(text).contains("# TYPE httpclient_request_seconds summary\n");
+            assertThat(text).contains("# TYPE httpclient_request_seconds_max gauge\n");
+            assertThat(text).contains("# TYPE httpclient_exceptions_total counter\n");
+            assertThat(text).contains("# TYPE httpclient_pool_available gauge\n");
+
+            assertThat(invoker.getAsync(server.url("/say"), null, null).get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            assertThat(metrics.scrape()).contains("httpclient_pool_available{client=\"metered\",pool=\"async\",route=\""
+                    + route + "\"} 1");
+        }
+    }
+}
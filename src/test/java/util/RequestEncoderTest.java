@@ -0,0 +1,67 @@
+package util;
+
+import org.apache.http.Consts;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RequestEncoderTest {
+
+    @Test
+    public void matchesUrlEncodedUtils() throws Exception {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("a b", "x&y=z+1");
+        params.put("中文", "值 😀");
+        params.put("safe", "AZaz09_-.*");
+        params.put("symbols", "~!@#$%^()[]{}|\\/?:;'\"<>,`");
+        params.put("empty", "");
+        params.put("nil", null);
+
+        for (Charset charset : new Charset[]{Consts.UTF_8, Charset.forName("GBK")}) {
+            String expected = URLEncodedUtils.format(pairs(params), charset);
+
+            assertThat(RequestEncoder.appendQuery("http://h/p", params, charset)).isEqualTo("http://h/p?" + expected);
+            assertThat(EntityUtils.toString(RequestEncoder.formEntity(params, charset))).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void appendsToExistingQuery() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("b", "2");
+
+        assertThat(RequestEncoder.appendQuery("http://h/p?a=1", params, Consts.UTF_8)).isEqualTo("http://h/p?a=1&b=2");
+        assertThat(RequestEncoder.appendQuery("http://h/路径", params, Consts.UTF_8))
+                .isEqualTo("http://h/%E8%B7%AF%E5%BE%84?b=2");
+        assertThat(RequestEncoder.appendQuery("http://h/p", null, Consts.UTF_8)).isEqualTo("http://h/p");
+    }
+
+    @Test
+    public void formEntityCarriesCharset() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("k", "v");
+
+        ContentType contentType = ContentType.get(RequestEncoder.formEntity(params, Consts.UTF_8));
+        assertThat(contentType.getMimeType()).isEqualTo("application/x-www-form-urlencoded");
+        assertThat(contentType.getCharset()).isEqualTo(Consts.UTF_8);
+    }
+
+    private static List<NameValuePair> pairs(Map<String, String> params) {
+        List<NameValuePair> pairs = new ArrayList<>();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            pairs.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+        }
+        return pairs;
+    }
+}
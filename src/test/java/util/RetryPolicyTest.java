@@ -0,0 +1,93 @@
+package util;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void classifiesAndBacksOff() {
+        RetryPolicy policy = RetryPolicy.builder().initialBackoffMillis(10).jitter(0).build();
+        HttpClientContext context = HttpClientContext.create();
+
+        assertThat(policy.backoffMillis(new ConnectException(), 1, context)).isEqualTo(10L);
+        assertThat(policy.backoffMillis(new ConnectException(), 2, context)).isEqualTo(20L);
+        assertThat(policy.backoffMillis(new ConnectException(), 3, context)).isEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(policy.backoffMillis(new UnknownHostException(), 1, context)).isEqualTo(RetryPolicy.NO_RETRY);
+    }
+
+    @Test
+    public void retriesServiceUnavailableWithRetryAfter() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("retry-503").build());
+        AtomicInteger hits = new AtomicInteger();
+
+        try (StubServer server = new StubServer().handle("/say", exchange -> {
+            if (hits.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().set("Retry-After", "0");
+                StubServer.send(exchange, 503, "busy");
+            } else {
+                StubServer.send(exchange, 200, "hi");
+            }
+        })) {
+            assertThat(new HttpInvoker("retry-503").get(server.url("/say"), null, null)).isEqualTo("hi");
+            assertThat(hits.get()).isEqualTo(2);
+
+            hits.set(0);
+            assertThat(new HttpInvoker("retry-503").getAsync(server.url("/say"), null, null)
+                    .get(5, TimeUnit.SECONDS)).isEqualTo("hi");
+            assertThat(hits.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void doesNotRetryPostOnStatus() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("retry-post").build());
+        AtomicInteger hits = new AtomicInteger();
+
+        try (StubServer server = new StubServer().handle("/say", exchange -> {
+            hits.incrementAndGet();
+            StubServer.send(exchange, 503, "busy");
+        })) {
+            try {
+                new HttpInvoker("retry-post").postJSON(server.url("/say"), "{}");
+                fail();
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertThat(hits.get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void budgetLimitsRetries() throws Exception {
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("retry-budget")
+                .retryPolicy(RetryPolicy.builder().maxAttempts(5).budgetRatio(0.1).budgetMaxTokens(1).build())
+                .build());
+        AtomicInteger hits = new AtomicInteger();
+
+        try (StubServer server = new StubServer().handle("/say", exchange -> {
+            hits.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            StubServer.send(exchange, 503, "busy");
+        })) {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    new HttpInvoker("retry-budget").get(server.url("/say"), null, null);
+                    fail();
+                } catch (RuntimeException e) {
+                    // expected
+                }
+            }
+            // 桶里只有1个令牌，两次调用加起来只重试1次
+            assertThat(hits.get()).isEqualTo(3);
+        }
+    }
+}
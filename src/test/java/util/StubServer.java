@@ -0,0 +1,104 @@
+package util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.http.ssl.SSLContexts;
+
+import javax.net.ssl.SSLContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.Executors;
+
+/**
+ * 测试用的进程内HTTP服务，监听随机端口.
+ */
+public class StubServer implements AutoCloseable {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    /**
+     * 并发测试会同时发起上百个连接，默认的 backlog（50）会让部分连接超时.
+     */
+    private static final int BACKLOG = 1024;
+
+    private final HttpServer server;
+
+    public StubServer() throws IOException {
+        this(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), BACKLOG));
+    }
+
+    private StubServer(HttpServer server) {
+        this.server = server;
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /**
+     * 使用 stub-keystore.jks 中自签名证书（127.0.0.1）的HTTPS服务.
+     */
+    public static StubServer https() throws Exception {
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), BACKLOG);
+        server.setHttpsConfigurator(new HttpsConfigurator(SSLContexts.custom()
+                .loadKeyMaterial(keyStore(), PASSWORD)
+                .build()));
+        return new StubServer(server);
+    }
+
+    /**
+     * 信任 {@link #https()} 证书的客户端 SSLContext.
+     */
+    public static SSLContext trustingContext() throws Exception {
+        return SSLContexts.custom().loadTrustMaterial(keyStore(), null).build();
+    }
+
+    private static KeyStore keyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = StubServer.class.getResourceAsStream("/stub-keystore.jks")) {
+            keyStore.load(in, PASSWORD);
+        }
+        return keyStore;
+    }
+
+    public StubServer handle(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+        return this;
+    }
+
+    public StubServer respond(String path, int status, String body) {
+        return handle(path, exchange -> send(exchange, status, body));
+    }
+
+    public String url(String path) {
+        return (server instanceof HttpsServer ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    public static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            StringBuilder body = new StringBuilder();
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                body.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+            }
+            return body.toString();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void requiresJava21() {
+        assumeFalse(VirtualThreads.isSupported());
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("virtual-unsupported")
+                .virtualThreads(true)
+                .build());
+        try {
+            ClientRegistry.getDefault().get("virtual-unsupported");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertThat(e).hasMessageThat().contains("Java 21");
+        }
+    }
+
+    @Test
+    public void leaseGateQueuesPerRoute() throws Exception {
+        RouteAwareConnectionManager manager = new HttpClientBuilderBuilder(ClientProfile.builder()
+                .name("gated").virtualThreads(true).defaultMaxPerRoute(2).build())
+                .getPoolingConnectionManager();
+        HttpRoute route = new HttpRoute(new HttpHost("127.0.0.1", 80));
+
+        HttpClientConnection first = manager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+        manager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+        try {
+            manager.requestConnection(route, null).get(50, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (ConnectionPoolTimeoutException expected) {
+            // 名额已用完
+        }
+
+        // 超时的等待者没有占用名额，归还一个连接后下一个即可借到
+        manager.releaseConnection(first, null, 0, TimeUnit.MILLISECONDS);
+        manager.requestConnection(route, null).get(50, TimeUnit.MILLISECONDS);
+
+        manager.setMaxPerRoute(route, 3);
+        manager.requestConnection(route, null).get(50, TimeUnit.MILLISECONDS);
+        RoutePoolStats stats = manager.getRouteStats().get(0);
+        assertThat(stats.getLeased()).isEqualTo(3);
+        assertThat(stats.getPending()).isEqualTo(0);
+        assertThat(stats.getLeaseTimeouts()).isEqualTo(1L);
+        manager.shutdown();
+    }
+
+    @Test
+    public void asyncCallsRunOnVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        ClientRegistry.getDefault().register(ClientProfile.builder().name("virtual")
+                .virtualThreads(true)
+                .defaultMaxPerRoute(4)
+                .connectionRequestTimeoutMillis(10_000)
+                .build());
+
+        try (StubServer server = new StubServer().respond("/hello", 200, "hello")) {
+            HttpInvoker invoker = new HttpInvoker("virtual");
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                futures.add(invoker.getAsync(server.url("/hello"), null, null));
+            }
+            for (CompletableFuture<String> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo("hello");
+            }
+
+            ManagedClient client = ClientRegistry.getDefault().get("virtual");
+            assertThat(client.getCallExecutor()).isNotNull();
+            assertThat(client.getAsyncConnectionManager()).isNull();
+            RoutePoolStats stats = client.getRouteStats().get(0);
+            assertThat(stats.getLeaseCount()).isEqualTo(500L);
+            assertThat(stats.getLeased()).isEqualTo(0);
+            assertThat(stats.getPending()).isEqualTo(0);
+        }
+    }
+}
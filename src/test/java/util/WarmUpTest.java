@@ -0,0 +1,47 @@
+package util;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class WarmUpTest {
+
+    @Test
+    public void warmsUpAndResumesTlsSessions() throws Exception {
+        try (StubServer server = StubServer.https().respond("/say", 200, "hi")) {
+            ClientRegistry registry = new ClientRegistry().register(ClientProfile.builder()
+                    .name("tls")
+                    .sslContext(SharedSslContext.tune(StubServer.trustingContext(), 100, 60))
+                    .warmUpRoute(server.url("/"))
+                    .warmUpConnectionsPerRoute(3)
+                    .build());
+            try {
+                ManagedClient client = registry.get("tls");
+                assertThat(client.warmUp(5, TimeUnit.SECONDS)).isEqualTo(3);
+                assertThat(client.getConnectionManager().getTotalStats().getAvailable()).isEqualTo(3);
+
+                // 已有连接足够，不再新建
+                assertThat(client.warmUp(Collections.singletonList(server.url("/say")), 3, 5, TimeUnit.SECONDS))
+                        .isEqualTo(0);
+
+                // 读过响应后，新连接可以复用会话（TLS 1.3 的会话票据随响应数据到达）
+                client.getClient().execute(new HttpGet(server.url("/say")),
+                        new BasicResponseHandler());
+                client.getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+                assertThat(client.warmUp(Collections.singletonList(server.url("/")), 1, 5, TimeUnit.SECONDS))
+                        .isEqualTo(1);
+
+                TlsStats stats = client.getTlsStats();
+                assertThat(stats.getFullHandshakes() + stats.getResumedSessions()).isEqualTo(4L);
+                assertThat(stats.getResumedSessions()).isAtLeast(1L);
+            } finally {
+                registry.shutdown(1, TimeUnit.SECONDS);
+            }
+        }
+    }
+}